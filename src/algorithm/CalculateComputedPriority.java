@@ -9,7 +9,10 @@ import alien.taskQueue.TaskQueueUtils;
 import lazyj.DBFunctions;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -35,13 +38,24 @@ public class CalculateComputedPriority {
 	 * Update the computed priority for users
 	 *
 	 * @param onlyActiveUsers
+	 * @return <code>false</code> if the users could not be read or their computed priority could not be written
 	 */
-	public static void updateComputedPriority(boolean onlyActiveUsers) {
+	public static boolean updateComputedPriority(boolean onlyActiveUsers) {
+		final boolean incremental = PriorityEngine.isEnabled();
+
+		if (incremental && onlyActiveUsers) {
+			if (PriorityEngine.isLoaded())
+				return updateChangedComputedPriority();
+
+			// seed the engine with a full pass
+			onlyActiveUsers = false;
+		}
+
 		StringBuilder registerLog = new StringBuilder();
 		try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
 			if (db == null) {
 				logger.log(Level.SEVERE, "CalculatePriority could not get a DB connection");
-				return;
+				return false;
 			}
 
 			db.setQueryTimeout(60);
@@ -58,58 +72,286 @@ public class CalculateComputedPriority {
 			try (Timing t = new Timing(monitor, "calculateComputedPriority")) {
 				logger.log(Level.INFO, "Calculating computed priority");
 				db.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-				db.query(q);
+				if (!db.query(q)) {
+					logger.log(Level.WARNING, "Could not read the PRIORITY table, the computed priority is not updated");
+					return false;
+				}
 
 				while (db.moveNext()) {
 					Integer userId = Integer.valueOf(db.geti("userId"));
 					dtos.computeIfAbsent(
 							userId,
 							k -> new PriorityDto(db));
-
-					updateComputedPriority(dtos.get(userId));
 				}
+
+				updateComputedPriority(dtos.values());
+
 				registerLog.append("Calculating computed priority for ")
 						.append(dtos.size())
 						.append(" users.\n")
 						.append(" Updated userload and computedPriority values will be written to the PRIORITY table in processesdev DB.\n ");
 
 				logger.log(Level.INFO, "Finished calculating, preparing to update " + dtos.size() + " elements in the PRIORITY table...");
-				executeUpdateQuery(db, dtos, registerLog);
+				final boolean written = executeUpdateQuery(db, dtos, registerLog);
+				PriorityChangeTracker.record(dtos.values());
+
+				if (JobAgentPriorityIndex.isEnabled())
+					JobAgentPriorityIndex.publishPriorities(dtos.values(), !onlyActiveUsers);
+
+				if (incremental && !onlyActiveUsers)
+					PriorityEngine.load(dtos.values());
 
 				DBSyncUtils.registerLog(CalculateComputedPriority.class.getCanonicalName(), registerLog.toString());
+				return written;
 			}
 			catch (Exception e) {
 				logger.log(Level.SEVERE, "Exception thrown while calculating computedPriority", e);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Update the computed priority only for the users whose inputs changed since the previous pass, as tracked by {@link PriorityEngine}
+	 *
+	 * @return <code>false</code> if the table could not be read for a resync or the changed users could not be written
+	 */
+	public static boolean updateChangedComputedPriority() {
+		final boolean resync = PriorityEngine.isResyncDue();
+
+		if (!resync && !PriorityEngine.hasChanges())
+			return true;
+
+		try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
+			if (db == null) {
+				logger.log(Level.SEVERE, "CalculatePriority could not get a DB connection");
+				return false;
+			}
+
+			db.setQueryTimeout(60);
+
+			if (resync) {
+				// the usage flushed by the other central servers and the direct edits of the table only reach the engine here
+				final List<PriorityDto> rows = new ArrayList<>();
+				try (Timing t = new Timing(monitor, "TQ_priority_engine_refresh_ms")) {
+					db.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+
+					if (!db.query("SELECT *, (SELECT MAX(priority) FROM PRIORITY) AS highestPriority FROM PRIORITY")) {
+						logger.log(Level.WARNING, "Could not read the PRIORITY table, skipping this incremental pass");
+						return false;
+					}
+
+					while (db.moveNext())
+						rows.add(new PriorityDto(db));
+				}
+
+				PriorityEngine.refresh(rows);
+			}
+
+			final Map<Integer, PriorityDto> changed;
+			try (Timing t = new Timing(monitor, "calculateChangedComputedPriority")) {
+				changed = PriorityEngine.recomputeChanged();
+			}
+
+			if (changed.isEmpty()) {
+				logger.log(Level.FINE, "No users with changed priority inputs");
+				return true;
 			}
+
+			StringBuilder registerLog = new StringBuilder("Incrementally calculating computed priority for ").append(changed.size()).append(" users with changed inputs\n");
+			final boolean written = executeUpdateQuery(db, changed, registerLog);
+			PriorityChangeTracker.record(changed.values());
+
+			if (JobAgentPriorityIndex.isEnabled())
+				JobAgentPriorityIndex.publishPriorities(changed.values(), false);
+
+			DBSyncUtils.registerLog(CalculateComputedPriority.class.getCanonicalName(), registerLog.toString());
+			return written;
 		}
 	}
 
-	private static void executeUpdateQuery(DBFunctions db, Map<Integer, PriorityDto> dtos, StringBuilder registerLog) {
+	/**
+	 * @return <code>false</code> if some of the rows could not be written
+	 */
+	private static boolean executeUpdateQuery(DBFunctions db, Map<Integer, PriorityDto> dtos, StringBuilder registerLog) {
+		if (ConfigUtils.getConfig().getb("alien.priority.CalculateComputedPriority.batchedUpdate", true))
+			return executeBatchedUpdateQuery(db, dtos, registerLog);
+
+		int failed = 0;
+
 		try (Timing t = new Timing(monitor, "TQ_update_computed_priority_ms")) {
-			dtos.forEach((id, dto) -> {
+			for (Map.Entry<Integer, PriorityDto> entry : dtos.entrySet()) {
+				final Integer id = entry.getKey();
+				final PriorityDto dto = entry.getValue();
+
 				try (Timing t2 = new Timing(monitor, "TQ_single_row_update_ms")) {
 					String query = "UPDATE PRIORITY SET userload = ?, computedPriority = ? WHERE userId = ?;";
-					db.query(query, false, Float.valueOf(dto.getUserload()), Float.valueOf(dto.getComputedPriority()), id);
+					if (!db.query(query, false, Float.valueOf(dto.getUserload()), Float.valueOf(dto.getComputedPriority()), id))
+						failed++;
 					t2.endTiming();
 					logger.log(Level.INFO, "Updating PRIORITY row for user " + id + " completed in " + t2.getMillis() + " ms");
 				}
-			});
+			}
 
 			t.endTiming();
 			logger.log(Level.INFO, "Finished updating PRIORITY table row by row, took " + t.getMillis() + " ms");
 			registerLog.append("Updating PRIORITY table row by row completed in ").append(t.getMillis()).append(" ms\n");
+
+			if (failed > 0) {
+				logger.log(Level.WARNING, failed + " out of " + dtos.size() + " rows failed to update the PRIORITY table");
+				registerLog.append(failed).append(" out of ").append(dtos.size()).append(" rows failed\n");
+			}
+		}
+
+		return failed == 0;
+	}
+
+	/**
+	 * Write userload and computedPriority for all users as chunked multi-row upserts. Each chunk is a single statement, so the PRIORITY rows of a chunk are
+	 * locked for one round trip instead of one round trip per user.
+	 */
+	private static boolean executeBatchedUpdateQuery(DBFunctions db, Map<Integer, PriorityDto> dtos, StringBuilder registerLog) {
+		final int chunkSize = Math.max(1, ConfigUtils.getConfig().geti("alien.priority.CalculateComputedPriority.chunkSize", 500));
+
+		int chunks = 0;
+		int failedChunks = 0;
+
+		try (Timing t = new Timing(monitor, "TQ_update_computed_priority_ms")) {
+			final List<PriorityDto> chunk = new ArrayList<>(chunkSize);
+
+			for (PriorityDto dto : dtos.values()) {
+				chunk.add(dto);
+
+				if (chunk.size() == chunkSize) {
+					if (!executeUpdateChunk(db, chunk))
+						failedChunks++;
+
+					chunks++;
+					chunk.clear();
+				}
+			}
+
+			if (!chunk.isEmpty()) {
+				if (!executeUpdateChunk(db, chunk))
+					failedChunks++;
+
+				chunks++;
+			}
+
+			t.endTiming();
+			logger.log(Level.INFO, "Finished updating PRIORITY table in " + chunks + " chunks of up to " + chunkSize + " rows, took " + t.getMillis() + " ms");
+			registerLog.append("Updating PRIORITY table in ")
+					.append(chunks)
+					.append(" chunks of up to ")
+					.append(chunkSize)
+					.append(" rows completed in ")
+					.append(t.getMillis())
+					.append(" ms\n");
+
+			if (failedChunks > 0) {
+				logger.log(Level.WARNING, failedChunks + " out of " + chunks + " chunks failed to update the PRIORITY table");
+				registerLog.append(failedChunks).append(" out of ").append(chunks).append(" chunks failed\n");
+			}
+		}
+
+		return failedChunks == 0;
+	}
+
+	private static boolean executeUpdateChunk(DBFunctions db, List<PriorityDto> chunk) {
+		final StringBuilder query = new StringBuilder("INSERT INTO PRIORITY (userId, userload, computedPriority) VALUES ");
+		final Object[] parameters = new Object[chunk.size() * 3];
+
+		int i = 0;
+		for (PriorityDto dto : chunk) {
+			if (i > 0)
+				query.append(", ");
+
+			query.append("(?, ?, ?)");
+			parameters[i++] = Integer.valueOf(dto.getUserId());
+			parameters[i++] = Float.valueOf(dto.getUserload());
+			parameters[i++] = Float.valueOf(dto.getComputedPriority());
+		}
+
+		query.append(" ON DUPLICATE KEY UPDATE userload = VALUES(userload), computedPriority = VALUES(computedPriority)");
+
+		try (Timing t = new Timing(monitor, "TQ_update_computed_priority_chunk_ms")) {
+			final boolean res = db.query(query.toString(), false, parameters);
+			monitor.addMeasurement("TQ_update_computed_priority_chunk_rows", chunk.size());
+			return res;
+		}
+	}
+
+	/**
+	 * Compute the priority of all the given users with the {@link PriorityPolicy} in use, in one batch if
+	 * <code>alien.priority.CalculateComputedPriority.batchKernel</code> is set or one user at a time otherwise
+	 *
+	 * @param dtos
+	 */
+	static void updateComputedPriority(Collection<PriorityDto> dtos) {
+		final PriorityPolicy policy = PriorityPolicies.get();
+		final List<PriorityDto> users = dtos instanceof List ? (List<PriorityDto>) dtos : new ArrayList<>(dtos);
+		final float[] computed = new float[users.size()];
+
+		try (Timing t = new Timing(monitor, "TQ_priority_policy_ms")) {
+			if (isBatchKernel())
+				policy.compute(users, computed);
+			else
+				for (int i = 0; i < computed.length; i++)
+					computed[i] = policy.compute(users.get(i));
+		}
+
+		final boolean finest = logger.isLoggable(Level.FINEST);
+
+		for (int i = 0; i < computed.length; i++) {
+			final PriorityDto dto = users.get(i);
+
+			if (computed[i] == PriorityKernel.QUOTA_EXCEEDED) {
+				// rare, go through the scalar checks to log which quota it was
+				if (!isQuotaExceeded(dto)) {
+					dto.setComputedPriority(PriorityKernel.QUOTA_EXCEEDED);
+					logger.log(Level.INFO, "User " + dto.getUserId() + " was blocked by priority policy " + policy.getDescription());
+				}
+			}
+			else {
+				dto.setComputedPriority(computed[i]);
+
+				if (finest)
+					logger.log(Level.FINEST, "ComputedPriority: " + computed[i] + " for user: " + dto.getUserId());
+			}
 		}
 	}
 
-	private static void updateComputedPriority(PriorityDto dto) {
+	/**
+	 * @return <code>true</code> to compute the priorities of a whole pass as one batch
+	 */
+	static boolean isBatchKernel() {
+		return ConfigUtils.getConfig().getb("alien.priority.CalculateComputedPriority.batchKernel", false);
+	}
+
+	/**
+	 * Reference implementation of the production formula, one user at a time. Computation passes go through the {@link PriorityPolicy} in use instead.
+	 *
+	 * @param dto
+	 */
+	static void updateComputedPriority(PriorityDto dto) {
+		updateComputedPriority(dto, PriorityWeights.DEFAULT);
+	}
+
+	/**
+	 * Compute the priority of one user with the given weights and boost limits
+	 *
+	 * @param dto
+	 * @param weights
+	 */
+	static void updateComputedPriority(PriorityDto dto, PriorityWeights weights) {
 		if (isQuotaExceeded(dto)) {
 			return;
 		}
 
 		float maxBaselinePriority = dto.getHighestPriority();
-		float costWeight = 0.1f;
-		float activeCpuCoresWeight = 0.5f;
-		float priorityWeight = 0.4f;
+		float costWeight = weights.getCostWeight();
+		float activeCpuCoresWeight = weights.getActiveCpuCoresWeight();
+		float priorityWeight = weights.getPriorityWeight();
 
 		float costQuotient = (float) Math.sqrt(dto.getTotalCpuCostLast24h() / dto.getMaxTotalCpuCost());
 		float normalizedRunningQuotient = (float) dto.getRunning() / dto.getMaxParallelJobs();
@@ -117,32 +359,18 @@ public class CalculateComputedPriority {
 
 		float weightedSum = costWeight * costQuotient + activeCpuCoresWeight * normalizedRunningQuotient + priorityWeight * normalizedPriority;
 
-		float computedPriority = (weightedSum + findBoostValue(dto));
+		float computedPriority = (weightedSum + weights.getBoost(dto.getTotalCpuCostLast24h()));
 
-		System.out.println("ComputedPriority: " + Math.abs(computedPriority - 1) + " for user: " + dto.getUserId() + " , weightedSum = " + weightedSum + " , costQuotient = " + costQuotient +
-				" , and running = " + dto.getRunning() + " out of maximum = " + dto.getMaxParallelJobs() + "\n");
+		if (logger.isLoggable(Level.FINEST))
+			logger.log(Level.FINEST, "ComputedPriority: " + Math.abs(computedPriority - 1) + " for user: " + dto.getUserId() + " , weightedSum = " + weightedSum + " , costQuotient = " + costQuotient +
+					" , and running = " + dto.getRunning() + " out of maximum = " + dto.getMaxParallelJobs());
 
 		dto.setComputedPriority(Math.abs(computedPriority - 1));
 
 	}
 
-	private static int findBoostValue(PriorityDto dto) {
-		int noBoost = 0;
-		int maxBoost = 10;
-		int minCost = 100_000;
-		int maxCost = 1_000_000;
-
-		if (dto.getTotalCpuCostLast24h() > maxCost) {
-			return noBoost;
-		}
-
-		if (dto.getTotalCpuCostLast24h() < minCost) {
-			return maxBoost;
-		}
-
-		// Linear interpolation to calculate the boost value
-		double slope = (double) (noBoost - maxBoost) / (maxCost - minCost);
-		return (int) Math.round(maxBoost + slope * (dto.getTotalCpuCostLast24h() - minCost));
+	static int findBoostValue(PriorityDto dto) {
+		return PriorityWeights.DEFAULT.getBoost(dto.getTotalCpuCostLast24h());
 	}
 
     private static boolean isQuotaExceeded(PriorityDto dto) {
@@ -0,0 +1,435 @@
+package alien.priority;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.Timing;
+import lazyj.DBFunctions;
+
+/**
+ * In-process, read-only view of the computed priorities and of the JOBAGENT entries ordered by them, for the job matcher. Every change builds a new immutable
+ * {@link Snapshot} that is published with a single volatile write (read-copy-update), so readers never lock and always see a consistent ordering, at most as
+ * old as the last publish.
+ * <p>
+ * The user priorities are published by the computation passes running in this JVM as soon as they are done, and {@link #refresh(DBFunctions)} reloads all
+ * of them from PRIORITY together with the JOBAGENT entries, to pick up the ones computed elsewhere.
+ *
+ * @since 2026-10-17
+ */
+public final class JobAgentPriorityIndex {
+	/**
+	 * Logger
+	 */
+	static final Logger logger = ConfigUtils.getLogger(JobAgentPriorityIndex.class.getCanonicalName());
+
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(JobAgentPriorityIndex.class.getCanonicalName());
+
+	/**
+	 * Immutable state of the index
+	 */
+	public static final class Snapshot {
+		private final int[] userIds;
+		private final float[] priorities;
+
+		/**
+		 * Entries in priority order
+		 */
+		private final int[] entryIds;
+		private final int[] entryUserIds;
+		private final float[] entryPriorities;
+
+		/**
+		 * Entries in entryId order, as loaded
+		 */
+		private final int[] entryIdsById;
+		private final int[] entryUserIdsById;
+
+		private final long prioritiesTimestamp;
+		private final long entriesTimestamp;
+
+		/**
+		 * @param userIds sorted
+		 * @param priorities computed priority of each user
+		 * @param prioritiesTimestamp
+		 * @param entryIds JOBAGENT entries, sorted
+		 * @param entryUserIds owner of each entry
+		 * @param entriesTimestamp
+		 */
+		Snapshot(final int[] userIds, final float[] priorities, final long prioritiesTimestamp, final int[] entryIds, final int[] entryUserIds, final long entriesTimestamp) {
+			this.userIds = userIds;
+			this.priorities = priorities;
+			this.prioritiesTimestamp = prioritiesTimestamp;
+			this.entriesTimestamp = entriesTimestamp;
+			this.entryIdsById = entryIds;
+			this.entryUserIdsById = entryUserIds;
+
+			// order the entries by priority, highest first, ties by entryId
+			final int n = entryIds.length;
+			final long[] keys = new long[n];
+
+			for (int i = 0; i < n; i++) {
+				final float p = lookup(userIds, priorities, entryUserIds[i]);
+				final int bits = Float.floatToIntBits(Float.isNaN(p) ? 0f : p);
+				final int ascending = bits ^ ((bits >> 31) & 0x7fffffff);
+
+				keys[i] = ((long) ~ascending << 32) | i;
+			}
+
+			// the input is sorted by entryId, so the index in the low bits breaks ties by entryId
+			Arrays.sort(keys);
+
+			this.entryIds = new int[n];
+			this.entryUserIds = new int[n];
+			this.entryPriorities = new float[n];
+
+			for (int rank = 0; rank < n; rank++) {
+				final int i = (int) keys[rank];
+				this.entryIds[rank] = entryIds[i];
+				this.entryUserIds[rank] = entryUserIds[i];
+				this.entryPriorities[rank] = lookup(userIds, priorities, entryUserIds[i]);
+			}
+		}
+
+		private static float lookup(final int[] userIds, final float[] priorities, final int userId) {
+			final int pos = Arrays.binarySearch(userIds, userId);
+			return pos >= 0 ? priorities[pos] : Float.NaN;
+		}
+
+		/**
+		 * @param userId
+		 * @return computed priority of the user, NaN if unknown
+		 */
+		public float getPriority(final int userId) {
+			return lookup(userIds, priorities, userId);
+		}
+
+		/**
+		 * @return number of users with a known priority
+		 */
+		public int getUserCount() {
+			return userIds.length;
+		}
+
+		/**
+		 * @return number of JOBAGENT entries
+		 */
+		public int size() {
+			return entryIds.length;
+		}
+
+		/**
+		 * @param rank position in the ordering, 0 being the highest priority
+		 * @return JOBAGENT entryId at this rank
+		 */
+		public int getEntryId(final int rank) {
+			return entryIds[rank];
+		}
+
+		/**
+		 * @param rank position in the ordering, 0 being the highest priority
+		 * @return owner of the JOBAGENT entry at this rank
+		 */
+		public int getUserId(final int rank) {
+			return entryUserIds[rank];
+		}
+
+		/**
+		 * @param rank position in the ordering, 0 being the highest priority
+		 * @return priority of the JOBAGENT entry at this rank, NaN if its user is unknown
+		 */
+		public float getEntryPriority(final int rank) {
+			return entryPriorities[rank];
+		}
+
+		/**
+		 * @param entryId
+		 * @return priority of the JOBAGENT entry, NaN if the entry or its user is unknown
+		 */
+		public float getPriorityOfEntry(final int entryId) {
+			final int pos = Arrays.binarySearch(entryIdsById, entryId);
+			return pos >= 0 ? getPriority(entryUserIdsById[pos]) : Float.NaN;
+		}
+
+		/**
+		 * @param entryId
+		 * @return <code>true</code> if the entry is in the index
+		 */
+		public boolean containsEntry(final int entryId) {
+			return Arrays.binarySearch(entryIdsById, entryId) >= 0;
+		}
+
+		/**
+		 * @return epoch millis when the user priorities were computed or loaded
+		 */
+		public long getPrioritiesTimestamp() {
+			return prioritiesTimestamp;
+		}
+
+		/**
+		 * @return epoch millis when the JOBAGENT entries were loaded
+		 */
+		public long getEntriesTimestamp() {
+			return entriesTimestamp;
+		}
+
+		/**
+		 * @return age in millis of the oldest part of the snapshot
+		 */
+		public long getStaleness() {
+			return System.currentTimeMillis() - Math.min(prioritiesTimestamp, entriesTimestamp);
+		}
+	}
+
+	private static final int[] NO_INTS = new int[0];
+
+	private static volatile Snapshot current = new Snapshot(NO_INTS, new float[0], 0, NO_INTS, NO_INTS, 0);
+
+	private JobAgentPriorityIndex() {
+	}
+
+	/**
+	 * @return <code>true</code> if the index should be maintained
+	 */
+	public static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb("alien.priority.JobAgentPriorityIndex.enabled", false);
+	}
+
+	/**
+	 * @return the current snapshot, lock-free
+	 */
+	public static Snapshot get() {
+		return current;
+	}
+
+	/**
+	 * Publish the outcome of a computation pass
+	 *
+	 * @param dtos users with their new computed priority
+	 * @param complete <code>true</code> if these are all the users (full pass), <code>false</code> if only the changed ones (incremental pass)
+	 */
+	static synchronized void publishPriorities(final Collection<PriorityDto> dtos, final boolean complete) {
+		final Snapshot old = current;
+
+		final int[] ids = new int[dtos.size()];
+		final float[] values = new float[dtos.size()];
+
+		int n = 0;
+		for (PriorityDto dto : dtos) {
+			ids[n] = dto.getUserId();
+			values[n] = dto.getComputedPriority();
+			n++;
+		}
+
+		sortByUserId(ids, values, n);
+
+		final int[] userIds;
+		final float[] priorities;
+
+		if (complete) {
+			userIds = ids;
+			priorities = values;
+		}
+		else {
+			// merge the changed users into the previous ones, both sorted by userId
+			final int[] mergedIds = new int[old.userIds.length + n];
+			final float[] mergedValues = new float[mergedIds.length];
+
+			int i = 0, j = 0, k = 0;
+			while (i < old.userIds.length || j < n) {
+				if (j == n || (i < old.userIds.length && old.userIds[i] < ids[j])) {
+					mergedIds[k] = old.userIds[i];
+					mergedValues[k++] = old.priorities[i++];
+				}
+				else {
+					if (i < old.userIds.length && old.userIds[i] == ids[j])
+						i++;
+
+					mergedIds[k] = ids[j];
+					mergedValues[k++] = values[j++];
+				}
+			}
+
+			userIds = Arrays.copyOf(mergedIds, k);
+			priorities = Arrays.copyOf(mergedValues, k);
+		}
+
+		publish(new Snapshot(userIds, priorities, System.currentTimeMillis(), old.entryIdsById, old.entryUserIdsById, old.entriesTimestamp));
+	}
+
+	private static void sortByUserId(final int[] ids, final float[] values, final int n) {
+		final long[] keys = new long[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = ((long) ids[i] << 32) | i;
+
+		Arrays.sort(keys);
+
+		final int[] sortedIds = new int[n];
+		final float[] sortedValues = new float[n];
+		for (int i = 0; i < n; i++) {
+			final int from = (int) keys[i];
+			sortedIds[i] = ids[from];
+			sortedValues[i] = values[from];
+		}
+
+		System.arraycopy(sortedIds, 0, ids, 0, n);
+		System.arraycopy(sortedValues, 0, values, 0, n);
+	}
+
+	/**
+	 * Reload the JOBAGENT entries and the user priorities. The computation passes of this JVM publish their users as soon as they are done, the priorities
+	 * computed by the other servers and by the reconciliation only reach the index here.
+	 *
+	 * @param db
+	 * @return <code>true</code> if the tables could be read and a new snapshot was published
+	 */
+	public static synchronized boolean refresh(final DBFunctions db) {
+		try (Timing t = new Timing(monitor, "TQ_jobagent_index_refresh_ms")) {
+			Snapshot old = current;
+
+			if (!db.query("SELECT userId, computedPriority FROM PRIORITY ORDER BY userId"))
+				return false;
+
+			final Columns users = new Columns();
+			while (db.moveNext())
+				users.addPriority(db.geti(1), (float) db.getd(2));
+
+			old = new Snapshot(users.keys(), users.priorities(), System.currentTimeMillis(), old.entryIdsById, old.entryUserIdsById, old.entriesTimestamp);
+
+			if (!db.query("SELECT entryId, userId FROM JOBAGENT ORDER BY entryId"))
+				return false;
+
+			final Columns entries = new Columns();
+			while (db.moveNext())
+				entries.addOwner(db.geti(1), db.geti(2));
+
+			publish(new Snapshot(old.userIds, old.priorities, old.prioritiesTimestamp, entries.keys(), entries.owners(), System.currentTimeMillis()));
+
+			t.endTiming();
+			logger.log(Level.FINE, "JOBAGENT priority index refreshed with " + current.size() + " entries in " + t.getMillis() + " ms");
+			return true;
+		}
+	}
+
+	private static void publish(final Snapshot snapshot) {
+		current = snapshot;
+		monitor.addMeasurement("TQ_jobagent_index_entries", snapshot.size());
+		monitor.addMeasurement("TQ_jobagent_index_users", snapshot.getUserCount());
+	}
+
+	/**
+	 * Compare the index with the PRIORITY and JOBAGENT tables and publish the differences and the staleness of the index
+	 *
+	 * @param db
+	 * @return number of differences found, or -1 if the tables could not be read
+	 */
+	public static int checkConsistency(final DBFunctions db) {
+		final Snapshot snapshot = current;
+		final float epsilon = PriorityChangeTracker.getEpsilon();
+
+		monitor.addMeasurement("TQ_jobagent_index_staleness_ms", snapshot.getStaleness());
+
+		int priorityMismatches = 0;
+		int missingUsers = 0;
+
+		if (!db.query("SELECT userId, computedPriority FROM PRIORITY"))
+			return -1;
+
+		while (db.moveNext()) {
+			final float indexed = snapshot.getPriority(db.geti(1));
+
+			if (Float.isNaN(indexed))
+				missingUsers++;
+			else if (Math.abs(indexed - (float) db.getd(2)) > epsilon)
+				priorityMismatches++;
+		}
+
+		int missingEntries = 0;
+		int foundEntries = 0;
+		int entryMismatches = 0;
+
+		if (!db.query("SELECT entryId, priority FROM JOBAGENT"))
+			return -1;
+
+		while (db.moveNext()) {
+			final int entryId = db.geti(1);
+
+			if (!snapshot.containsEntry(entryId)) {
+				missingEntries++;
+				continue;
+			}
+
+			foundEntries++;
+
+			// JOBAGENT.priority is copied from PRIORITY by JobAgentUpdater, a difference means the table lags behind the index
+			final float indexed = snapshot.getPriorityOfEntry(entryId);
+			if (!Float.isNaN(indexed) && Math.abs(indexed - (float) db.getd(2)) > epsilon)
+				entryMismatches++;
+		}
+
+		final int extraEntries = snapshot.size() - foundEntries;
+
+		monitor.addMeasurement("TQ_jobagent_index_priority_mismatches", priorityMismatches);
+		monitor.addMeasurement("TQ_jobagent_index_missing_users", missingUsers);
+		monitor.addMeasurement("TQ_jobagent_index_missing_entries", missingEntries);
+		monitor.addMeasurement("TQ_jobagent_index_extra_entries", extraEntries);
+		monitor.addMeasurement("TQ_jobagent_table_lagging_entries", entryMismatches);
+
+		final int differences = priorityMismatches + missingUsers + missingEntries + extraEntries;
+
+		if (differences > 0)
+			logger.log(Level.INFO, "JOBAGENT priority index differs from the tables: " + priorityMismatches + " priorities, " + missingUsers + " missing users, " + missingEntries
+					+ " missing and " + extraEntries + " extra entries; staleness " + snapshot.getStaleness() + " ms");
+
+		return differences;
+	}
+
+	/**
+	 * Growable primitive columns used while reading the tables
+	 */
+	private static final class Columns {
+		private int size = 0;
+		private int[] keys = new int[1024];
+		private int[] owners = new int[1024];
+		private float[] priorities = new float[1024];
+
+		private void ensureCapacity() {
+			if (size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				owners = Arrays.copyOf(owners, size * 2);
+				priorities = Arrays.copyOf(priorities, size * 2);
+			}
+		}
+
+		void addPriority(final int userId, final float priority) {
+			ensureCapacity();
+			keys[size] = userId;
+			priorities[size++] = priority;
+		}
+
+		void addOwner(final int entryId, final int userId) {
+			ensureCapacity();
+			keys[size] = entryId;
+			owners[size++] = userId;
+		}
+
+		int[] keys() {
+			return Arrays.copyOf(keys, size);
+		}
+
+		int[] owners() {
+			return Arrays.copyOf(owners, size);
+		}
+
+		float[] priorities() {
+			return Arrays.copyOf(priorities, size);
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package alien.priority;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+
+/**
+ * Users whose computed priority moved by more than an epsilon since it was last written to the PRIORITY table, so that only their JOBAGENT rows have to be
+ * updated. Fed by every {@link CalculateComputedPriority} pass running in this JVM and drained by the JOBAGENT propagation.
+ *
+ * @since 2026-10-17
+ */
+public final class PriorityChangeTracker {
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(PriorityChangeTracker.class.getCanonicalName());
+
+	private static final Set<Integer> changed = new HashSet<>();
+
+	private static boolean fed = false;
+
+	private PriorityChangeTracker() {
+	}
+
+	/**
+	 * @return tolerance under which a computed priority is considered unchanged, shared by the change tracking, the JOBAGENT propagation and its consistency
+	 *         check
+	 */
+	public static float getEpsilon() {
+		return (float) ConfigUtils.getConfig().getd("alien.priority.PriorityChangeTracker.epsilon", 1e-4);
+	}
+
+	/**
+	 * Record the users whose computed priority changed and remember the new value as the stored one
+	 *
+	 * @param dtos users that were just written to the PRIORITY table
+	 */
+	static void record(final Collection<PriorityDto> dtos) {
+		final float epsilon = getEpsilon();
+
+		int count = 0;
+
+		synchronized (PriorityChangeTracker.class) {
+			for (PriorityDto dto : dtos) {
+				final float previous = dto.getPreviousComputedPriority();
+
+				// NaN (never stored) compares as changed
+				if (!(Math.abs(dto.getComputedPriority() - previous) <= epsilon)) {
+					changed.add(Integer.valueOf(dto.getUserId()));
+					count++;
+				}
+
+				dto.setPreviousComputedPriority(dto.getComputedPriority());
+			}
+
+			fed = true;
+		}
+
+		monitor.addMeasurement("TQ_changed_computed_priority_users", count);
+	}
+
+	/**
+	 * @return <code>true</code> if a computation pass ran in this JVM, so that an empty set really means nothing changed
+	 */
+	public static synchronized boolean isFed() {
+		return fed;
+	}
+
+	/**
+	 * @return the users recorded since the previous call, the tracker is empty afterwards
+	 */
+	public static synchronized int[] drain() {
+		final int[] userIds = new int[changed.size()];
+
+		int i = 0;
+		for (Integer userId : changed)
+			userIds[i++] = userId.intValue();
+
+		changed.clear();
+
+		return userIds;
+	}
+
+	/**
+	 * Put back users that could not be propagated, they will be part of the next {@link #drain()}
+	 *
+	 * @param userIds
+	 * @param from first index to put back
+	 * @param to one past the last index to put back
+	 */
+	public static synchronized void putBack(final int[] userIds, final int from, final int to) {
+		for (int i = from; i < to; i++)
+			changed.add(Integer.valueOf(userIds[i]));
+	}
+}
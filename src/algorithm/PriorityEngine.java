@@ -0,0 +1,239 @@
+package alien.priority;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Resident copy of the PRIORITY table that recomputes the computed priority only for the users whose inputs changed since the previous pass.
+ * The state is seeded from a full {@link CalculateComputedPriority} pass and then follows the deltas this server writes to PRIORITY, so an incremental pass
+ * costs as much as the number of users flushed since the previous one. Every <code>resyncInterval</code> seconds (15 minutes by default) it is compared with
+ * the whole table, to pick up the usage flushed by the other central servers and the quota or baseline priority changes done directly in the table.
+ *
+ * @since 2026-10-17
+ */
+public class PriorityEngine {
+	/**
+	 * Logger
+	 */
+	static final Logger logger = ConfigUtils.getLogger(PriorityEngine.class.getCanonicalName());
+
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(PriorityEngine.class.getCanonicalName());
+
+	private static final Map<Integer, PriorityDto> users = new HashMap<>();
+
+	private static final Set<Integer> dirty = new HashSet<>();
+
+	private static float highestPriority = 1f;
+
+	private static boolean loaded = false;
+
+	private static long lastResync = 0;
+
+	/**
+	 * @return <code>true</code> if the incremental computation is enabled in the configuration
+	 */
+	public static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb("alien.priority.PriorityEngine.enabled", false);
+	}
+
+	/**
+	 * @return <code>true</code> if the engine holds a consistent copy of the PRIORITY table and can serve incremental passes
+	 */
+	public static synchronized boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * Replace the in-memory state with the outcome of a full computation pass
+	 *
+	 * @param dtos all PRIORITY rows, with the computed priority already set
+	 */
+	public static synchronized void load(final Collection<PriorityDto> dtos) {
+		users.clear();
+		dirty.clear();
+
+		// the same highest priority the full pass computed with, MAX(priority) as read from the table
+		float highest = highestPriority;
+		for (PriorityDto dto : dtos) {
+			users.put(Integer.valueOf(dto.getUserId()), new PriorityDto(dto));
+			highest = dto.getHighestPriority();
+		}
+
+		highestPriority = highest;
+		loaded = true;
+		lastResync = System.currentTimeMillis();
+
+		logger.log(Level.INFO, "PriorityEngine loaded " + users.size() + " users, highest priority is " + highestPriority);
+	}
+
+	/**
+	 * Drop the in-memory state, the next pass will have to do a full computation to seed it again
+	 */
+	public static synchronized void invalidate() {
+		users.clear();
+		dirty.clear();
+		loaded = false;
+	}
+
+	/**
+	 * @return <code>true</code> if the next incremental pass should compare the resident copy with the whole table first
+	 */
+	public static synchronized boolean isResyncDue() {
+		final long interval = Math.max(60, ConfigUtils.getConfig().getl("alien.priority.PriorityEngine.resyncInterval", 15 * 60)) * 1000;
+
+		return loaded && System.currentTimeMillis() - lastResync >= interval;
+	}
+
+	/**
+	 * @return <code>true</code> if some users are waiting to be recomputed
+	 */
+	public static synchronized boolean hasChanges() {
+		return loaded && !dirty.isEmpty();
+	}
+
+	/**
+	 * Add the deltas this server just wrote to PRIORITY to the resident copy of the user, with the same clamping as the statement, and mark it for
+	 * recomputation. Users the engine does not know yet are picked up by the next resync.
+	 *
+	 * @param userId
+	 * @param running delta of the running jobs
+	 * @param cputime delta of the CPU time of the last 24h
+	 * @param cost delta of the cost of the last 24h
+	 */
+	public static synchronized void applyFlushed(final int userId, final int running, final long cputime, final double cost) {
+		if (!loaded)
+			return;
+
+		final Integer key = Integer.valueOf(userId);
+		final PriorityDto dto = users.get(key);
+
+		if (dto == null)
+			return;
+
+		dto.setRunning(Math.max(0, dto.getRunning() + running));
+		dto.setTotalRunningTimeLast24h(dto.getTotalRunningTimeLast24h() + cputime);
+		dto.setTotalCpuCostLast24h((float) (dto.getTotalCpuCostLast24h() + cost));
+		dirty.add(key);
+	}
+
+	/**
+	 * Bring the resident copy in line with the PRIORITY table and mark the users whose inputs differ. The rows carry the values stored in the table, so whoever
+	 * wrote them, and the stored computed priority, which becomes the reference for the change tracking.
+	 *
+	 * @param rows all PRIORITY rows, as read by {@link PriorityDto#PriorityDto(lazyj.DBFunctions)}
+	 */
+	static synchronized void refresh(final Collection<PriorityDto> rows) {
+		if (!loaded)
+			return;
+
+		final Set<Integer> seen = new HashSet<>(rows.size() * 2);
+		float highest = highestPriority;
+		int changed = 0;
+
+		for (final PriorityDto row : rows) {
+			final Integer userId = Integer.valueOf(row.getUserId());
+			seen.add(userId);
+			highest = row.getHighestPriority();
+
+			final PriorityDto resident = users.get(userId);
+
+			// a stored value that differs from ours was written by another server, or our own write failed
+			if (resident == null || !sameInputs(resident, row) || resident.getComputedPriority() != row.getPreviousComputedPriority()) {
+				final PriorityDto copy = new PriorityDto(row);
+
+				if (resident != null)
+					copy.setComputedPriority(resident.getComputedPriority());
+
+				users.put(userId, copy);
+				dirty.add(userId);
+				changed++;
+			}
+			else
+				resident.setPreviousComputedPriority(row.getPreviousComputedPriority());
+		}
+
+		users.keySet().retainAll(seen);
+		dirty.retainAll(seen);
+
+		if (!rows.isEmpty() && highest != highestPriority) {
+			highestPriority = highest;
+			dirty.addAll(users.keySet());
+			monitor.incrementCounter("highest_priority_changes");
+		}
+
+		lastResync = System.currentTimeMillis();
+		monitor.addMeasurement("refreshed_changed_users", changed);
+	}
+
+	private static boolean sameInputs(final PriorityDto a, final PriorityDto b) {
+		return a.getPriority() == b.getPriority() && a.getMaxParallelJobs() == b.getMaxParallelJobs() && a.getMaxTotalRunningTime() == b.getMaxTotalRunningTime()
+				&& a.getMaxTotalCpuCost() == b.getMaxTotalCpuCost() && a.getRunning() == b.getRunning() && a.getTotalRunningTimeLast24h() == b.getTotalRunningTimeLast24h()
+				&& a.getTotalCpuCostLast24h() == b.getTotalCpuCostLast24h();
+	}
+
+	/**
+	 * Mark every known user for recomputation, for example because the priority policy changed
+	 *
+	 * @return <code>true</code> if the engine is loaded and the next incremental pass will recompute everyone
+	 */
+	public static synchronized boolean markAllDirty() {
+		if (!loaded)
+			return false;
+
+		dirty.addAll(users.keySet());
+		return true;
+	}
+
+	/**
+	 * Recompute the computed priority of the users whose inputs changed since the previous call
+	 *
+	 * @return copies of the recomputed users, keyed by userId
+	 */
+	public static synchronized Map<Integer, PriorityDto> recomputeChanged() {
+		final Map<Integer, PriorityDto> changed = new HashMap<>();
+
+		if (!loaded || dirty.isEmpty())
+			return changed;
+
+		final List<PriorityDto> recompute = new ArrayList<>(dirty.size());
+
+		for (Integer userId : dirty) {
+			final PriorityDto dto = users.get(userId);
+
+			if (dto == null)
+				continue;
+
+			dto.setHighestPriority(highestPriority);
+			recompute.add(dto);
+		}
+
+		CalculateComputedPriority.updateComputedPriority(recompute);
+
+		for (PriorityDto dto : recompute) {
+			changed.put(Integer.valueOf(dto.getUserId()), new PriorityDto(dto));
+
+			// the copy keeps the stored value for the change tracking, the resident one moves on to what is about to be written
+			dto.setPreviousComputedPriority(dto.getComputedPriority());
+		}
+
+		dirty.clear();
+
+		monitor.addMeasurement("recomputed_users", changed.size());
+
+		return changed;
+	}
+}
@@ -0,0 +1,112 @@
+package alien.priority;
+
+/**
+ * Batch version of the computed priority formula in {@link CalculateComputedPriority}. The inputs are given as one array per field (structure of arrays) and
+ * all users are computed in a single pass, with the quota checks and the boost interpolation evaluated as masks and selects instead of early returns. The
+ * float and double operations are the same, in the same order, as in the per-user path, so the results are bit-identical to it.
+ *
+ * @since 2026-10-17
+ */
+public final class PriorityKernel {
+	private static final int NO_BOOST = 0;
+
+	/**
+	 * Value of the computed priority for users that exceeded one of their quotas
+	 */
+	public static final float QUOTA_EXCEEDED = -1f;
+
+	private PriorityKernel() {
+	}
+
+	/**
+	 * Compute the priority of <code>n</code> users
+	 *
+	 * @param n number of users to compute
+	 * @param running running CPU cores
+	 * @param maxParallelJobs maximum number of CPU cores
+	 * @param cost total CPU cost of the last 24h
+	 * @param maxCost maximum total CPU cost
+	 * @param priority baseline priority
+	 * @param runtime total running time of the last 24h
+	 * @param maxRuntime maximum total running time
+	 * @param highestPriority highest baseline priority of all users, as seen by each user
+	 * @param out computed priority, {@link #QUOTA_EXCEEDED} for the users that are over quota
+	 */
+	public static void compute(final int n, final int[] running, final int[] maxParallelJobs, final float[] cost, final float[] maxCost, final float[] priority, final long[] runtime,
+			final long[] maxRuntime, final float[] highestPriority, final float[] out) {
+		compute(n, running, maxParallelJobs, cost, maxCost, priority, runtime, maxRuntime, highestPriority, out, PriorityWeights.DEFAULT);
+	}
+
+	/**
+	 * Compute the priority of <code>n</code> users with the given weights
+	 *
+	 * @param n number of users to compute
+	 * @param running running CPU cores
+	 * @param maxParallelJobs maximum number of CPU cores
+	 * @param cost total CPU cost of the last 24h
+	 * @param maxCost maximum total CPU cost
+	 * @param priority baseline priority
+	 * @param runtime total running time of the last 24h
+	 * @param maxRuntime maximum total running time
+	 * @param highestPriority highest baseline priority of all users, as seen by each user
+	 * @param out computed priority, {@link #QUOTA_EXCEEDED} for the users that are over quota
+	 * @param weights weights and boost limits of the formula
+	 */
+	public static void compute(final int n, final int[] running, final int[] maxParallelJobs, final float[] cost, final float[] maxCost, final float[] priority, final long[] runtime,
+			final long[] maxRuntime, final float[] highestPriority, final float[] out, final PriorityWeights weights) {
+		for (int i = 0; i < n; i++)
+			out[i] = compute(running[i], maxParallelJobs[i], cost[i], maxCost[i], priority[i], runtime[i], maxRuntime[i], highestPriority[i], weights);
+	}
+
+	/**
+	 * Compute the priority of one user, same as one lane of {@link #compute(int, int[], int[], float[], float[], float[], long[], long[], float[], float[])}
+	 *
+	 * @param running running CPU cores
+	 * @param maxParallelJobs maximum number of CPU cores
+	 * @param cost total CPU cost of the last 24h
+	 * @param maxCost maximum total CPU cost
+	 * @param priority baseline priority
+	 * @param runtime total running time of the last 24h
+	 * @param maxRuntime maximum total running time
+	 * @param highestPriority highest baseline priority of all users
+	 * @return computed priority, {@link #QUOTA_EXCEEDED} if the user is over quota
+	 */
+	public static float compute(final int running, final int maxParallelJobs, final float cost, final float maxCost, final float priority, final long runtime, final long maxRuntime,
+			final float highestPriority) {
+		return compute(running, maxParallelJobs, cost, maxCost, priority, runtime, maxRuntime, highestPriority, PriorityWeights.DEFAULT);
+	}
+
+	/**
+	 * Compute the priority of one user with the given weights
+	 *
+	 * @param running running CPU cores
+	 * @param maxParallelJobs maximum number of CPU cores
+	 * @param cost total CPU cost of the last 24h
+	 * @param maxCost maximum total CPU cost
+	 * @param priority baseline priority
+	 * @param runtime total running time of the last 24h
+	 * @param maxRuntime maximum total running time
+	 * @param highestPriority highest baseline priority of all users
+	 * @param weights weights and boost limits of the formula
+	 * @return computed priority, {@link #QUOTA_EXCEEDED} if the user is over quota
+	 */
+	public static float compute(final int running, final int maxParallelJobs, final float cost, final float maxCost, final float priority, final long runtime, final long maxRuntime,
+			final float highestPriority, final PriorityWeights weights) {
+		final float costQuotient = (float) Math.sqrt(cost / maxCost);
+		final float normalizedRunningQuotient = (float) running / maxParallelJobs;
+		final float normalizedPriority = 1 - (priority / highestPriority);
+
+		final float weightedSum = weights.getCostWeight() * costQuotient + weights.getActiveCpuCoresWeight() * normalizedRunningQuotient + weights.getPriorityWeight() * normalizedPriority;
+
+		final int maxBoost = weights.getMaxBoost();
+		final int minBoostCost = weights.getMinBoostCost();
+		final int interpolatedBoost = (int) Math.round(maxBoost + weights.getBoostSlope() * (cost - minBoostCost));
+		final int boost = cost > weights.getMaxBoostCost() ? NO_BOOST : (cost < minBoostCost ? maxBoost : interpolatedBoost);
+
+		final float computedPriority = Math.abs((weightedSum + boost) - 1);
+
+		final boolean exceeded = runtime > maxRuntime | running > maxParallelJobs | cost > maxCost;
+
+		return exceeded ? QUOTA_EXCEEDED : computedPriority;
+	}
+}
@@ -0,0 +1,131 @@
+package alien.priority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.Timing;
+
+/**
+ * Holds the {@link PriorityPolicy} in use and swaps it when the configuration changes. A new policy is instantiated and warmed up on synthetic users before it
+ * is published, so the JIT has compiled it by the time a real computation pass uses it. After the swap every user known to {@link PriorityEngine} is marked
+ * dirty and only an incremental recompute is done.
+ *
+ * @since 2026-10-17
+ */
+public final class PriorityPolicies {
+	/**
+	 * Logger
+	 */
+	static final Logger logger = ConfigUtils.getLogger(PriorityPolicies.class.getCanonicalName());
+
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(PriorityPolicies.class.getCanonicalName());
+
+	private static final String DEFAULT_POLICY = WeightedFairSharePolicy.class.getCanonicalName();
+
+	private static volatile PriorityPolicy current = new WeightedFairSharePolicy(PriorityWeights.DEFAULT);
+
+	/**
+	 * Configuration that failed to load last time, so that it is reported only once
+	 */
+	private static String lastFailure = null;
+
+	private PriorityPolicies() {
+	}
+
+	/**
+	 * @return the policy in use
+	 */
+	public static PriorityPolicy get() {
+		return current;
+	}
+
+	/**
+	 * Instantiate the policy described by the configuration and, if it differs from the one in use, warm it up, swap it in and recompute the known users
+	 * incrementally. Cheap when nothing changed, so it can be called on every optimizer cycle.
+	 *
+	 * @return <code>true</code> if the policy was swapped
+	 */
+	public static synchronized boolean reloadIfChanged() {
+		final String className = ConfigUtils.getConfig().gets("alien.priority.PriorityPolicy.class", DEFAULT_POLICY);
+
+		final PriorityPolicy candidate;
+		try {
+			candidate = Class.forName(className).asSubclass(PriorityPolicy.class).getDeclaredConstructor().newInstance();
+		}
+		catch (final ReflectiveOperationException | ClassCastException | IllegalArgumentException e) {
+			final String failure = className + ": " + e;
+
+			if (!failure.equals(lastFailure)) {
+				logger.log(Level.WARNING, "Cannot load priority policy " + className + ", keeping " + current.getDescription(), e);
+				lastFailure = failure;
+			}
+
+			return false;
+		}
+
+		lastFailure = null;
+
+		if (candidate.getDescription().equals(current.getDescription()))
+			return false;
+
+		try (Timing t = new Timing(monitor, "TQ_policy_warmup_ms")) {
+			warmUp(candidate);
+			t.endTiming();
+			logger.log(Level.INFO, "Warmed up priority policy " + candidate.getDescription() + " in " + t.getMillis() + " ms");
+		}
+
+		final PriorityPolicy previous = current;
+		current = candidate;
+		monitor.incrementCounter("TQ_policy_swaps");
+		logger.log(Level.INFO, "Priority policy changed from " + previous.getDescription() + " to " + candidate.getDescription());
+
+		if (PriorityEngine.markAllDirty())
+			CalculateComputedPriority.updateChangedComputedPriority();
+		else
+			logger.log(Level.INFO, "Incremental priority computation is not active, the next full pass will apply the new policy");
+
+		return true;
+	}
+
+	/**
+	 * Run the policy over synthetic users, both one at a time and in batches, until its methods have been compiled
+	 *
+	 * @param policy
+	 */
+	static void warmUp(final PriorityPolicy policy) {
+		final int iterations = Math.max(0, ConfigUtils.getConfig().geti("alien.priority.PriorityPolicy.warmupIterations", 20_000));
+
+		final Random random = new Random(42);
+		final List<PriorityDto> users = new ArrayList<>(256);
+
+		for (int i = 0; i < 256; i++) {
+			final int maxParallelJobs = 1 + random.nextInt(100_000);
+			final PriorityDto dto = new PriorityDto(i, 1 + random.nextFloat() * 20_000f, maxParallelJobs, 0f, 1_000_000_000_000L, random.nextInt(maxParallelJobs), 0f, 1e14f,
+					(long) (random.nextDouble() * 1e10), random.nextFloat() * 2_000_000f);
+			users.add(dto);
+		}
+
+		final float[] out = new float[users.size()];
+		float sink = 0;
+
+		for (int i = 0; i < iterations; i++) {
+			sink += policy.compute(users.get(i & 255));
+
+			if ((i & 255) == 0)
+				policy.compute(users, out);
+		}
+
+		// keep the results alive so the loop is not optimized away
+		if (sink == Float.MIN_VALUE)
+			logger.log(Level.FINEST, "Warm-up sink " + sink + " " + out[0]);
+	}
+}
@@ -0,0 +1,34 @@
+package alien.priority;
+
+import java.util.List;
+
+/**
+ * Fair-share policy turning the PRIORITY row of a user into its computed priority. Implementations are selected with
+ * <code>alien.priority.PriorityPolicy.class</code> and need a public no-argument constructor; see {@link PriorityPolicies} for how they are swapped at runtime.
+ *
+ * @since 2026-10-17
+ */
+public interface PriorityPolicy {
+	/**
+	 * @return a description of the policy and its parameters. Two instances with the same description are considered the same policy, so a reload that produces
+	 *         an identical description does not trigger a swap.
+	 */
+	String getDescription();
+
+	/**
+	 * @param dto PRIORITY row of the user, not modified
+	 * @return the computed priority, or {@link PriorityKernel#QUOTA_EXCEEDED} if the user should not get any more jobs
+	 */
+	float compute(PriorityDto dto);
+
+	/**
+	 * Compute many users at once. Override it when the policy has a faster batch form.
+	 *
+	 * @param dtos PRIORITY rows, not modified
+	 * @param out computed priority of each user, in the order of <code>dtos</code>
+	 */
+	default void compute(final List<PriorityDto> dtos, final float[] out) {
+		for (int i = 0; i < dtos.size(); i++)
+			out[i] = compute(dtos.get(i));
+	}
+}
@@ -0,0 +1,117 @@
+package alien.priority;
+
+/**
+ * Weights and boost limits of the computed priority formula. {@link #DEFAULT} holds the production values; other instances are used to evaluate alternatives
+ * in simulations.
+ *
+ * @since 2026-10-17
+ */
+public final class PriorityWeights {
+	/**
+	 * Production values: cost 0.1, active cores 0.5, baseline priority 0.4, boost of up to 10 for costs between 100k and 1M
+	 */
+	public static final PriorityWeights DEFAULT = new PriorityWeights(0.1f, 0.5f, 0.4f, 10, 100_000, 1_000_000);
+
+	private static final int NO_BOOST = 0;
+
+	private final float costWeight;
+	private final float activeCpuCoresWeight;
+	private final float priorityWeight;
+
+	private final int maxBoost;
+	private final int minBoostCost;
+	private final int maxBoostCost;
+
+	private final double boostSlope;
+
+	/**
+	 * @param costWeight weight of the 24h cost quotient
+	 * @param activeCpuCoresWeight weight of the running cores quotient
+	 * @param priorityWeight weight of the normalized baseline priority
+	 * @param maxBoost boost given to users below <code>minBoostCost</code>
+	 * @param minBoostCost cost under which the full boost is given
+	 * @param maxBoostCost cost over which no boost is given, the boost is interpolated linearly in between
+	 */
+	public PriorityWeights(final float costWeight, final float activeCpuCoresWeight, final float priorityWeight, final int maxBoost, final int minBoostCost, final int maxBoostCost) {
+		if (maxBoostCost <= minBoostCost)
+			throw new IllegalArgumentException("maxBoostCost (" + maxBoostCost + ") must be larger than minBoostCost (" + minBoostCost + ")");
+
+		this.costWeight = costWeight;
+		this.activeCpuCoresWeight = activeCpuCoresWeight;
+		this.priorityWeight = priorityWeight;
+		this.maxBoost = maxBoost;
+		this.minBoostCost = minBoostCost;
+		this.maxBoostCost = maxBoostCost;
+
+		boostSlope = (double) (NO_BOOST - maxBoost) / (maxBoostCost - minBoostCost);
+	}
+
+	/**
+	 * @return weight of the 24h cost quotient
+	 */
+	public float getCostWeight() {
+		return costWeight;
+	}
+
+	/**
+	 * @return weight of the running cores quotient
+	 */
+	public float getActiveCpuCoresWeight() {
+		return activeCpuCoresWeight;
+	}
+
+	/**
+	 * @return weight of the normalized baseline priority
+	 */
+	public float getPriorityWeight() {
+		return priorityWeight;
+	}
+
+	/**
+	 * @return boost given to users below {@link #getMinBoostCost()}
+	 */
+	public int getMaxBoost() {
+		return maxBoost;
+	}
+
+	/**
+	 * @return cost under which the full boost is given
+	 */
+	public int getMinBoostCost() {
+		return minBoostCost;
+	}
+
+	/**
+	 * @return cost over which no boost is given
+	 */
+	public int getMaxBoostCost() {
+		return maxBoostCost;
+	}
+
+	/**
+	 * @param cost total CPU cost of the last 24h
+	 * @return boost value for this cost
+	 */
+	public int getBoost(final float cost) {
+		if (cost > maxBoostCost)
+			return NO_BOOST;
+
+		if (cost < minBoostCost)
+			return maxBoost;
+
+		// Linear interpolation to calculate the boost value
+		return (int) Math.round(maxBoost + boostSlope * (cost - minBoostCost));
+	}
+
+	/**
+	 * @return slope of the boost interpolation
+	 */
+	double getBoostSlope() {
+		return boostSlope;
+	}
+
+	@Override
+	public String toString() {
+		return "cost=" + costWeight + ", activeCpuCores=" + activeCpuCoresWeight + ", priority=" + priorityWeight + ", boost=" + maxBoost + " for " + minBoostCost + "-" + maxBoostCost;
+	}
+}
@@ -0,0 +1,87 @@
+package alien.priority;
+
+import java.util.List;
+
+import alien.config.ConfigUtils;
+
+/**
+ * The default {@link PriorityPolicy}: the weighted sum of the cost, running cores and baseline priority quotients plus the low cost boost, as computed by
+ * {@link PriorityKernel}. The weights are read from the configuration when the policy is created and default to {@link PriorityWeights#DEFAULT}.
+ *
+ * @since 2026-10-17
+ */
+public class WeightedFairSharePolicy implements PriorityPolicy {
+	private static final String PREFIX = "alien.priority.WeightedFairSharePolicy.";
+
+	private final PriorityWeights weights;
+
+	/**
+	 * Policy with the weights from the configuration
+	 */
+	public WeightedFairSharePolicy() {
+		this(fromConfig());
+	}
+
+	/**
+	 * @param weights
+	 */
+	public WeightedFairSharePolicy(final PriorityWeights weights) {
+		this.weights = weights;
+	}
+
+	private static PriorityWeights fromConfig() {
+		final PriorityWeights d = PriorityWeights.DEFAULT;
+
+		return new PriorityWeights((float) ConfigUtils.getConfig().getd(PREFIX + "costWeight", d.getCostWeight()),
+				(float) ConfigUtils.getConfig().getd(PREFIX + "activeCpuCoresWeight", d.getActiveCpuCoresWeight()),
+				(float) ConfigUtils.getConfig().getd(PREFIX + "priorityWeight", d.getPriorityWeight()),
+				ConfigUtils.getConfig().geti(PREFIX + "maxBoost", d.getMaxBoost()),
+				ConfigUtils.getConfig().geti(PREFIX + "minBoostCost", d.getMinBoostCost()),
+				ConfigUtils.getConfig().geti(PREFIX + "maxBoostCost", d.getMaxBoostCost()));
+	}
+
+	/**
+	 * @return the weights of this policy
+	 */
+	public PriorityWeights getWeights() {
+		return weights;
+	}
+
+	@Override
+	public String getDescription() {
+		return getClass().getSimpleName() + "[" + weights + "]";
+	}
+
+	@Override
+	public float compute(final PriorityDto dto) {
+		return PriorityKernel.compute(dto.getRunning(), dto.getMaxParallelJobs(), dto.getTotalCpuCostLast24h(), dto.getMaxTotalCpuCost(), dto.getPriority(),
+				dto.getTotalRunningTimeLast24h(), dto.getMaxTotalRunningTime(), dto.getHighestPriority(), weights);
+	}
+
+	@Override
+	public void compute(final List<PriorityDto> dtos, final float[] out) {
+		final int n = dtos.size();
+		final int[] running = new int[n];
+		final int[] maxParallelJobs = new int[n];
+		final float[] cost = new float[n];
+		final float[] maxCost = new float[n];
+		final float[] priority = new float[n];
+		final long[] runtime = new long[n];
+		final long[] maxRuntime = new long[n];
+		final float[] highestPriority = new float[n];
+
+		for (int i = 0; i < n; i++) {
+			final PriorityDto dto = dtos.get(i);
+			running[i] = dto.getRunning();
+			maxParallelJobs[i] = dto.getMaxParallelJobs();
+			cost[i] = dto.getTotalCpuCostLast24h();
+			maxCost[i] = dto.getMaxTotalCpuCost();
+			priority[i] = dto.getPriority();
+			runtime[i] = dto.getTotalRunningTimeLast24h();
+			maxRuntime[i] = dto.getMaxTotalRunningTime();
+			highestPriority[i] = dto.getHighestPriority();
+		}
+
+		PriorityKernel.compute(n, running, maxParallelJobs, cost, maxCost, priority, runtime, maxRuntime, highestPriority, out, weights);
+	}
+}
@@ -0,0 +1,564 @@
+package alien.priority;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * Discrete-event simulation of the grid under the computed priority. Users submit jobs, the free cores are handed out to the waiting users in computed priority
+ * order up to their maximum parallel jobs, the running jobs charge their cost, and every hour the 24h usage window slides and all priorities are recalculated, like the reconciliation does in
+ * production. Between two reconciliations only the user whose running cores or cost changed is re-ranked, like the rapid updater does.
+ * <p>
+ * Time is in seconds. Job sizes, durations and submissions are drawn from seeded generators, so a run is fully reproducible:
+ * <ul>
+ * <li>cores per job follow the distribution of {@link Ptest#getRepeatableRandomNumberOfCpuCores(int, int)}</li>
+ * <li>durations are log-normal around {@link #setMeanJobDuration(long)}, capped at 48h</li>
+ * <li>each user submits bursts of jobs with exponential inter-arrival times and exponential burst sizes; the bursts are sized so that the offered load is
+ * {@link #setLoadFactor(double)} times the grid, split between the users in proportion to their maximum parallel jobs</li>
+ * </ul>
+ * A running job is charged <code>cores</code> of CPU time and cost per second, into the hourly bucket of the simulated hour it ran in. The charge is settled
+ * when the running cores of its user change and at every reconciliation, so a long job weighs on the priority while it runs, like the rapid updater does.
+ * <p>
+ * The trace is columnar: blocks of up to {@link #TRACE_BLOCK} rows, each block being the row count followed by the columns
+ * <code>int time, byte event, int userId, short cores, int userRunning, int userWaiting, float userCost24h, float computedPriority</code>, all big-endian.
+ * There is one row per job start and completion, and one {@link #EVENT_SNAPSHOT} row per user at every reconciliation.
+ *
+ * @since 2026-10-17
+ */
+public class GridEventSimulator {
+	/**
+	 * Trace event of a job being started
+	 */
+	public static final byte EVENT_START = 0;
+
+	/**
+	 * Trace event of a job finishing
+	 */
+	public static final byte EVENT_COMPLETE = 1;
+
+	/**
+	 * Trace event of the state of a user at an hourly reconciliation
+	 */
+	public static final byte EVENT_SNAPSHOT = 2;
+
+	/**
+	 * Rows per trace block
+	 */
+	public static final int TRACE_BLOCK = 1 << 16;
+
+	private static final int SUBMIT = 0;
+	private static final int COMPLETE = 1;
+	private static final int RECONCILE = 2;
+
+	private static final int HOUR = 3600;
+	private static final int WINDOW_HOURS = 24;
+	private static final double MEAN_CORES = 51 / 8d;
+
+	private static final class Event implements Comparable<Event> {
+		final long time;
+		final long sequence;
+		final int type;
+		final int slot;
+		final int cores;
+		final int duration;
+
+		Event(final long time, final long sequence, final int type, final int slot, final int cores, final int duration) {
+			this.time = time;
+			this.sequence = sequence;
+			this.type = type;
+			this.slot = slot;
+			this.cores = cores;
+			this.duration = duration;
+		}
+
+		@Override
+		public int compareTo(final Event other) {
+			if (time != other.time)
+				return Long.compare(time, other.time);
+
+			return Long.compare(sequence, other.sequence);
+		}
+	}
+
+	private final PriorityDto[] users;
+	private final int totalCores;
+
+	private final Random jobs;
+	private final Random submissions;
+
+	private long meanJobDuration = 8 * HOUR;
+	private double durationSigma = 1.0;
+	private long meanSubmitInterval = 2 * HOUR;
+	private double loadFactor = 1.2;
+	private PriorityWeights weights = PriorityWeights.DEFAULT;
+
+	private final int[] waiting;
+	private final double[][] costBuckets;
+	private final long[][] runtimeBuckets;
+	private final double[] cost24h;
+	private final long[] runtime24h;
+	private final double[] demandShare;
+	private final long[] chargedUntil;
+
+	private final IndexedPriorityHeap heap;
+	private final PriorityQueue<Event> events = new PriorityQueue<>();
+
+	private long sequence = 0;
+	private long now = 0;
+	private int freeCores;
+	private int nextJobCores;
+
+	private long completedJobs = 0;
+	private long startedJobs = 0;
+	private long processedEvents = 0;
+	private double usedCoreSeconds = 0;
+	private final double[] userCoreSeconds;
+
+	private TraceWriter trace = null;
+
+	/**
+	 * @param users users to simulate; their limits and baseline priority are kept, their usage starts from zero
+	 * @param totalCores cores of the whole grid
+	 * @param seed seed of all the random generators
+	 */
+	public GridEventSimulator(final Collection<PriorityDto> users, final int totalCores, final long seed) {
+		this.users = users.toArray(new PriorityDto[0]);
+		this.totalCores = totalCores;
+		this.freeCores = totalCores;
+
+		jobs = new Random(seed);
+		submissions = new Random(seed * 31 + 1);
+
+		final int n = this.users.length;
+		waiting = new int[n];
+		costBuckets = new double[n][WINDOW_HOURS];
+		runtimeBuckets = new long[n][WINDOW_HOURS];
+		cost24h = new double[n];
+		runtime24h = new long[n];
+		demandShare = new double[n];
+		chargedUntil = new long[n];
+		userCoreSeconds = new double[n];
+
+		final int[] userIds = new int[n];
+		long parallelJobs = 0;
+		for (int i = 0; i < n; i++) {
+			userIds[i] = this.users[i].getUserId();
+			parallelJobs += this.users[i].getMaxParallelJobs();
+		}
+
+		for (int i = 0; i < n; i++) {
+			final PriorityDto dto = this.users[i];
+			dto.setRunning(0);
+			dto.setTotalCpuCostLast24h(0);
+			dto.setTotalRunningTimeLast24h(0);
+			demandShare[i] = parallelJobs > 0 ? (double) dto.getMaxParallelJobs() / parallelJobs : 1d / n;
+		}
+
+		heap = new IndexedPriorityHeap(userIds);
+		nextJobCores = drawCores();
+	}
+
+	/**
+	 * @param seconds mean job duration, 8h by default
+	 */
+	public void setMeanJobDuration(final long seconds) {
+		meanJobDuration = Math.max(1, seconds);
+	}
+
+	/**
+	 * @param sigma standard deviation of the log of the job duration, 1.0 by default
+	 */
+	public void setDurationSigma(final double sigma) {
+		durationSigma = sigma;
+	}
+
+	/**
+	 * @param seconds mean time between two bursts of a user, 2h by default
+	 */
+	public void setMeanSubmitInterval(final long seconds) {
+		meanSubmitInterval = Math.max(1, seconds);
+	}
+
+	/**
+	 * @param factor offered load relative to the size of the grid, 1.2 by default so that users compete for the cores
+	 */
+	public void setLoadFactor(final double factor) {
+		loadFactor = Math.max(0, factor);
+	}
+
+	/**
+	 * @param weights weights and boost limits of the computed priority, the production ones by default
+	 */
+	public void setWeights(final PriorityWeights weights) {
+		this.weights = weights;
+	}
+
+	private void schedule(final long time, final int type, final int slot, final int cores, final int duration) {
+		events.add(new Event(time, sequence++, type, slot, cores, duration));
+	}
+
+	private int drawCores() {
+		final int number = 1 + jobs.nextInt(8);
+
+		if (number == 1 || number == 2 || number == 4 || number == 6 || number == 8)
+			return number;
+
+		return 2 * number;
+	}
+
+	private int drawDuration() {
+		// log-normal with the requested mean: mu = ln(mean) - sigma^2 / 2
+		final double mu = Math.log(meanJobDuration) - durationSigma * durationSigma / 2;
+		final double duration = Math.exp(mu + durationSigma * jobs.nextGaussian());
+
+		return (int) Math.max(60, Math.min(48 * HOUR, duration));
+	}
+
+	private long drawSubmitInterval() {
+		return Math.max(1, (long) (-meanSubmitInterval * Math.log(1 - submissions.nextDouble())));
+	}
+
+	private int drawBurstSize(final int slot) {
+		// jobs per second that keep loadFactor * totalCores busy, with 51/8 cores per job on average
+		final double jobRate = loadFactor * totalCores / (MEAN_CORES * meanJobDuration);
+		final double meanBurst = jobRate * demandShare[slot] * meanSubmitInterval;
+
+		return (int) (-meanBurst * Math.log(1 - submissions.nextDouble()));
+	}
+
+	private void recompute(final int slot) {
+		final PriorityDto dto = users[slot];
+
+		final float computedPriority = PriorityKernel.compute(dto.getRunning(), dto.getMaxParallelJobs(), dto.getTotalCpuCostLast24h(), dto.getMaxTotalCpuCost(), dto.getPriority(),
+				dto.getTotalRunningTimeLast24h(), dto.getMaxTotalRunningTime(), dto.getHighestPriority(), weights);
+
+		dto.setComputedPriority(computedPriority);
+
+		if (computedPriority > 0 && waiting[slot] > 0 && dto.getRunning() < dto.getMaxParallelJobs())
+			heap.set(slot, computedPriority);
+		else
+			heap.remove(slot);
+	}
+
+	/**
+	 * Charge the cores the user ran since the last charge, into the bucket of the hour they ran in
+	 */
+	private void charge(final int slot) {
+		final long seconds = now - chargedUntil[slot];
+		chargedUntil[slot] = now;
+
+		final PriorityDto dto = users[slot];
+
+		if (seconds <= 0 || dto.getRunning() <= 0)
+			return;
+
+		// the charge never spans an hour boundary, reconcile() settles every user on each of them
+		final int bucket = (int) ((now - 1) / HOUR % WINDOW_HOURS);
+		final long coreSeconds = dto.getRunning() * seconds;
+
+		costBuckets[slot][bucket] += coreSeconds;
+		runtimeBuckets[slot][bucket] += coreSeconds;
+		cost24h[slot] += coreSeconds;
+		runtime24h[slot] += coreSeconds;
+		dto.setTotalCpuCostLast24h((float) cost24h[slot]);
+		dto.setTotalRunningTimeLast24h(runtime24h[slot]);
+	}
+
+	/**
+	 * Hand out the free cores to the waiting users, highest computed priority first. A user whose running cores plus the next job would go over its maximum
+	 * parallel jobs is passed over until the next event.
+	 */
+	private void dispatch() throws IOException {
+		int[] skipped = null;
+		int skippedCount = 0;
+
+		while (freeCores >= nextJobCores && !heap.isEmpty()) {
+			final int slot = heap.peek();
+			final PriorityDto dto = users[slot];
+
+			final int cores = nextJobCores;
+
+			if (dto.getRunning() + cores > dto.getMaxParallelJobs()) {
+				heap.remove(slot);
+
+				if (skipped == null)
+					skipped = new int[Math.min(users.length, 16)];
+				else if (skippedCount == skipped.length)
+					skipped = Arrays.copyOf(skipped, Math.min(users.length, skippedCount * 2));
+
+				skipped[skippedCount++] = slot;
+				continue;
+			}
+
+			final int duration = drawDuration();
+			nextJobCores = drawCores();
+
+			charge(slot);
+
+			waiting[slot]--;
+			freeCores -= cores;
+			dto.setRunning(dto.getRunning() + cores);
+			startedJobs++;
+
+			if (trace != null)
+				trace.add(now, EVENT_START, dto.getUserId(), cores, dto.getRunning(), waiting[slot], dto.getTotalCpuCostLast24h(), dto.getComputedPriority());
+
+			schedule(now + duration, COMPLETE, slot, cores, duration);
+			recompute(slot);
+		}
+
+		for (int i = 0; i < skippedCount; i++)
+			recompute(skipped[i]);
+	}
+
+	private void complete(final Event e) throws IOException {
+		final PriorityDto dto = users[e.slot];
+
+		final long coreSeconds = (long) e.cores * e.duration;
+
+		charge(e.slot);
+
+		freeCores += e.cores;
+		dto.setRunning(dto.getRunning() - e.cores);
+
+		completedJobs++;
+		usedCoreSeconds += coreSeconds;
+		userCoreSeconds[e.slot] += coreSeconds;
+
+		if (trace != null)
+			trace.add(now, EVENT_COMPLETE, dto.getUserId(), e.cores, dto.getRunning(), waiting[e.slot], dto.getTotalCpuCostLast24h(), dto.getComputedPriority());
+
+		recompute(e.slot);
+	}
+
+	private void submit(final Event e) {
+		waiting[e.slot] += drawBurstSize(e.slot);
+		schedule(now + drawSubmitInterval(), SUBMIT, e.slot, 0, 0);
+		recompute(e.slot);
+	}
+
+	/**
+	 * Slide the 24h window by one hour and recalculate everyone, as the hourly reconciliation does
+	 */
+	private void reconcile() throws IOException {
+		// the bucket of the hour that just started still holds the usage of 24h ago
+		final int bucket = (int) (now / HOUR % WINDOW_HOURS);
+
+		for (int i = 0; i < users.length; i++) {
+			final PriorityDto dto = users[i];
+
+			// the running jobs pay for the hour that just ended before it can slide out
+			charge(i);
+
+			cost24h[i] = Math.max(0, cost24h[i] - costBuckets[i][bucket]);
+			runtime24h[i] = Math.max(0, runtime24h[i] - runtimeBuckets[i][bucket]);
+			costBuckets[i][bucket] = 0;
+			runtimeBuckets[i][bucket] = 0;
+
+			dto.setTotalCpuCostLast24h((float) cost24h[i]);
+			dto.setTotalRunningTimeLast24h(runtime24h[i]);
+
+			recompute(i);
+
+			if (trace != null)
+				trace.add(now, EVENT_SNAPSHOT, dto.getUserId(), 0, dto.getRunning(), waiting[i], dto.getTotalCpuCostLast24h(), dto.getComputedPriority());
+		}
+
+		schedule(now + HOUR, RECONCILE, -1, 0, 0);
+	}
+
+	/**
+	 * Run the simulation
+	 *
+	 * @param seconds simulated time
+	 * @param traceFile where to write the columnar trace, <code>null</code> for none
+	 * @throws IOException if the trace could not be written
+	 */
+	public void run(final long seconds, final String traceFile) throws IOException {
+		if (traceFile != null)
+			trace = new TraceWriter(traceFile);
+
+		try {
+			for (int i = 0; i < users.length; i++) {
+				recompute(i);
+				schedule(drawSubmitInterval() % meanSubmitInterval, SUBMIT, i, 0, 0);
+			}
+
+			schedule(HOUR, RECONCILE, -1, 0, 0);
+
+			while (!events.isEmpty() && events.peek().time <= seconds) {
+				final Event e = events.poll();
+				now = e.time;
+				processedEvents++;
+
+				switch (e.type) {
+					case SUBMIT:
+						submit(e);
+						break;
+					case COMPLETE:
+						complete(e);
+						break;
+					case RECONCILE:
+						reconcile();
+						break;
+					default:
+						break;
+				}
+
+				dispatch();
+			}
+
+			now = seconds;
+		}
+		finally {
+			if (trace != null) {
+				trace.close();
+				trace = null;
+			}
+		}
+	}
+
+	/**
+	 * @return jobs started so far
+	 */
+	public long getStartedJobs() {
+		return startedJobs;
+	}
+
+	/**
+	 * @return jobs completed so far
+	 */
+	public long getCompletedJobs() {
+		return completedJobs;
+	}
+
+	/**
+	 * @return events processed so far
+	 */
+	public long getProcessedEvents() {
+		return processedEvents;
+	}
+
+	/**
+	 * @return cores busy at the current simulated time
+	 */
+	public int getBusyCores() {
+		return totalCores - freeCores;
+	}
+
+	/**
+	 * @return share of the grid used by the completed jobs over the simulated time
+	 */
+	public double getUtilisation() {
+		return now > 0 ? usedCoreSeconds / ((double) totalCores * now) : 0;
+	}
+
+	/**
+	 * @param userId
+	 * @return core seconds of the completed jobs of the user, 0 if unknown
+	 */
+	public double getUserCoreSeconds(final int userId) {
+		for (int i = 0; i < users.length; i++)
+			if (users[i].getUserId() == userId)
+				return userCoreSeconds[i];
+
+		return 0;
+	}
+
+	/**
+	 * @return core seconds of the completed jobs of each user, in the order of {@link #getUsers()}
+	 */
+	public double[] getCoreSecondsPerUser() {
+		return userCoreSeconds.clone();
+	}
+
+	/**
+	 * @return users taking part in the simulation, in slot order
+	 */
+	public PriorityDto[] getUsers() {
+		return users;
+	}
+
+	/**
+	 * Buffers rows column-wise and writes them out one block at a time
+	 */
+	private static final class TraceWriter implements AutoCloseable {
+		private final DataOutputStream out;
+
+		private final int[] time = new int[TRACE_BLOCK];
+		private final byte[] event = new byte[TRACE_BLOCK];
+		private final int[] userId = new int[TRACE_BLOCK];
+		private final short[] cores = new short[TRACE_BLOCK];
+		private final int[] userRunning = new int[TRACE_BLOCK];
+		private final int[] userWaiting = new int[TRACE_BLOCK];
+		private final float[] userCost = new float[TRACE_BLOCK];
+		private final float[] computedPriority = new float[TRACE_BLOCK];
+
+		private int rows = 0;
+
+		TraceWriter(final String file) throws IOException {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 20));
+		}
+
+		void add(final long t, final byte e, final int user, final int c, final int running, final int waitingJobs, final float cost, final float priority) throws IOException {
+			time[rows] = (int) t;
+			event[rows] = e;
+			userId[rows] = user;
+			cores[rows] = (short) c;
+			userRunning[rows] = running;
+			userWaiting[rows] = waitingJobs;
+			userCost[rows] = cost;
+			computedPriority[rows] = priority;
+
+			if (++rows == TRACE_BLOCK)
+				flushBlock();
+		}
+
+		private void flushBlock() throws IOException {
+			if (rows == 0)
+				return;
+
+			out.writeInt(rows);
+
+			for (int i = 0; i < rows; i++)
+				out.writeInt(time[i]);
+
+			out.write(event, 0, rows);
+
+			for (int i = 0; i < rows; i++)
+				out.writeInt(userId[i]);
+
+			for (int i = 0; i < rows; i++)
+				out.writeShort(cores[i]);
+
+			for (int i = 0; i < rows; i++)
+				out.writeInt(userRunning[i]);
+
+			for (int i = 0; i < rows; i++)
+				out.writeInt(userWaiting[i]);
+
+			for (int i = 0; i < rows; i++)
+				out.writeFloat(userCost[i]);
+
+			for (int i = 0; i < rows; i++)
+				out.writeFloat(computedPriority[i]);
+
+			rows = 0;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flushBlock();
+			}
+			finally {
+				out.close();
+			}
+		}
+	}
+}
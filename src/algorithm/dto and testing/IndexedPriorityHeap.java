@@ -0,0 +1,174 @@
+package alien.priority;
+
+import java.util.Arrays;
+
+/**
+ * Indexed binary max-heap of users keyed on their computed priority. Users are addressed by a dense slot number, and the heap keeps the position of every
+ * slot, so the key of one user can be changed or the user removed in O(log n) without searching for it. Equal keys are ordered by the lower userId, which
+ * keeps the order deterministic.
+ *
+ * @since 2026-10-17
+ */
+public class IndexedPriorityHeap {
+	private final int[] userIds;
+	private final float[] keys;
+
+	/**
+	 * Heap position of each slot, -1 if the slot is not in the heap
+	 */
+	private final int[] positions;
+
+	/**
+	 * Slots in heap order
+	 */
+	private final int[] heap;
+
+	private int size = 0;
+
+	/**
+	 * @param userIds userId of each slot
+	 */
+	public IndexedPriorityHeap(final int[] userIds) {
+		this.userIds = userIds.clone();
+		keys = new float[userIds.length];
+		positions = new int[userIds.length];
+		heap = new int[userIds.length];
+
+		Arrays.fill(positions, -1);
+	}
+
+	/**
+	 * @return number of slots in the heap
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return <code>true</code> if no slot is in the heap
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * @param slot
+	 * @return <code>true</code> if the slot is in the heap
+	 */
+	public boolean contains(final int slot) {
+		return positions[slot] >= 0;
+	}
+
+	/**
+	 * @return slot with the highest key, -1 if the heap is empty
+	 */
+	public int peek() {
+		return size > 0 ? heap[0] : -1;
+	}
+
+	/**
+	 * @param slot
+	 * @return current key of the slot
+	 */
+	public float getKey(final int slot) {
+		return keys[slot];
+	}
+
+	/**
+	 * Add the slot with the given key, or change its key if it is already in the heap
+	 *
+	 * @param slot
+	 * @param key
+	 */
+	public void set(final int slot, final float key) {
+		final int pos = positions[slot];
+		keys[slot] = key;
+
+		if (pos < 0) {
+			heap[size] = slot;
+			positions[slot] = size;
+			siftUp(size++);
+			return;
+		}
+
+		siftUp(pos);
+		siftDown(positions[slot]);
+	}
+
+	/**
+	 * Remove the slot from the heap, if present
+	 *
+	 * @param slot
+	 */
+	public void remove(final int slot) {
+		final int pos = positions[slot];
+
+		if (pos < 0)
+			return;
+
+		positions[slot] = -1;
+		size--;
+
+		if (pos == size)
+			return;
+
+		final int last = heap[size];
+		heap[pos] = last;
+		positions[last] = pos;
+
+		siftUp(pos);
+		siftDown(positions[last]);
+	}
+
+	/**
+	 * @return <code>true</code> if slot a should be above slot b
+	 */
+	private boolean above(final int a, final int b) {
+		if (keys[a] != keys[b])
+			return keys[a] > keys[b];
+
+		return userIds[a] < userIds[b];
+	}
+
+	private void siftUp(int pos) {
+		final int slot = heap[pos];
+
+		while (pos > 0) {
+			final int parent = (pos - 1) >>> 1;
+
+			if (!above(slot, heap[parent]))
+				break;
+
+			heap[pos] = heap[parent];
+			positions[heap[pos]] = pos;
+			pos = parent;
+		}
+
+		heap[pos] = slot;
+		positions[slot] = pos;
+	}
+
+	private void siftDown(int pos) {
+		final int slot = heap[pos];
+
+		while (true) {
+			int child = 2 * pos + 1;
+
+			if (child >= size)
+				break;
+
+			if (child + 1 < size && above(heap[child + 1], heap[child]))
+				child++;
+
+			if (!above(heap[child], slot))
+				break;
+
+			heap[pos] = heap[child];
+			positions[heap[pos]] = pos;
+			pos = child;
+		}
+
+		heap[pos] = slot;
+		positions[slot] = pos;
+	}
+}
@@ -14,6 +14,7 @@ class PriorityDto {
 		this.userload = (db.getf("userload") > 0f) ? db.getf("userload") : 0f;
 		this.maxTotalRunningTime = (db.getl("maxTotalRunningTime") > 1) ? db.getl("maxTotalRunningTime") : 1L;
 		this.computedPriority = 1;
+		this.previousComputedPriority = db.getf("computedPriority");
 		this.totalRunningTimeLast24h = (db.getl("totalRunningTimeLast24h") > 0) ? db.getl("totalRunningTimeLast24h") : 0L;
 		this.running = (db.geti("running") > 0) ? db.geti("running") : 0;
 		this.totalCpuCostLast24h = (db.getf("totalCpuCostLast24h") > 0f) ? db.getf("totalCpuCostLast24h") : 0f;
@@ -24,6 +25,26 @@ class PriorityDto {
 	public PriorityDto() {
 	}
 
+	/**
+	 * Copy constructor
+	 *
+	 * @param other
+	 */
+	public PriorityDto(final PriorityDto other) {
+		this.userId = other.userId;
+		this.priority = other.priority;
+		this.maxParallelJobs = other.maxParallelJobs;
+		this.userload = other.userload;
+		this.maxTotalRunningTime = other.maxTotalRunningTime;
+		this.computedPriority = other.computedPriority;
+		this.previousComputedPriority = other.previousComputedPriority;
+		this.totalRunningTimeLast24h = other.totalRunningTimeLast24h;
+		this.running = other.running;
+		this.totalCpuCostLast24h = other.totalCpuCostLast24h;
+		this.maxTotalCpuCost = other.maxTotalCpuCost;
+		this.highestPriority = other.highestPriority;
+	}
+
 	/**
 	 * User id
 	 */
@@ -58,6 +79,11 @@ class PriorityDto {
 	 */
 	private float computedPriority;
 
+	/**
+	 * computed priority currently stored in the PRIORITY table, NaN if unknown
+	 */
+	private float previousComputedPriority = Float.NaN;
+
 	/**
 	 * Total cpu cost of all jobs of this user in the last 24 hours
 	 */
@@ -157,6 +183,14 @@ class PriorityDto {
 		this.computedPriority = computedPriority;
 	}
 
+	public float getPreviousComputedPriority() {
+		return previousComputedPriority;
+	}
+
+	public void setPreviousComputedPriority(float previousComputedPriority) {
+		this.previousComputedPriority = previousComputedPriority;
+	}
+
 	public float getMaxTotalCpuCost() {
 		return maxTotalCpuCost;
 	}
@@ -12,11 +12,91 @@ import java.util.concurrent.atomic.AtomicLong;
  * @since 2023-11-23
  */
 public class PriorityRegister {
+	/**
+	 * The job accounting of one user as seen by the code that reports the job state transitions. Only the registry entries can be flushed, the views of the
+	 * {@link StripedPriorityRegister} are drained by {@link StripedPriorityRegister#flip()}.
+	 *
+	 * @since 2026-10-17
+	 */
+	public interface UserJobCounter {
+		/**
+		 * Increment the number of waiting jobs for this user
+		 */
+		void incWaiting();
+
+		/**
+		 * Decrement the number of waiting jobs for this user
+		 */
+		void decWaiting();
+
+		/**
+		 * Bulk insert of new jobs for a user
+		 *
+		 * @param n
+		 */
+		void addWaiting(int n);
+
+		/**
+		 * Assigning a job with a given number of CPU cores to a site and subtracts waiting jobs
+		 *
+		 * @param n
+		 */
+		void incRunningAndDecWaiting(int n);
+
+		/**
+		 * Assigning a job with a given number of CPU cores to a site
+		 *
+		 * @param n
+		 */
+		void incRunning(int n);
+
+		/**
+		 * Decrease the number of running active cpu cores by n
+		 *
+		 * @param n
+		 */
+		void decRunning(int n);
+
+		/**
+		 * Accounting data from the job about the consumed resources
+		 *
+		 * @param n
+		 */
+		void addCputime(long n);
+
+		/**
+		 * Accounting data from the job about the consumed resources
+		 *
+		 * @param n
+		 */
+		void addCost(double n);
+
+		/**
+		 * @return delta waiting jobs
+		 */
+		int getWaiting();
+
+		/**
+		 * @return delta running CPU cores
+		 */
+		int getRunning();
+
+		/**
+		 * @return delta CPU time
+		 */
+		long getCputime();
+
+		/**
+		 * @return delta cost
+		 */
+		double getCost();
+	}
+
 	/**
 	 * @author Jorn-Are Flaten
 	 * @since 2023-11-23
 	 */
-	public static class JobCounter {
+	public static class JobCounter implements UserJobCounter {
 		private AtomicInteger waiting;
 		private AtomicInteger running;
 		private AtomicLong cputime;
@@ -49,6 +129,7 @@ public class PriorityRegister {
 		 */
 		public void incWaiting() {
 			waiting.incrementAndGet();
+			markUnflushed();
 		}
 
 		/**
@@ -56,6 +137,7 @@ public class PriorityRegister {
 		 */
 		public void decWaiting() {
 			waiting.decrementAndGet();
+			markUnflushed();
 		}
 
 		/**
@@ -65,6 +147,7 @@ public class PriorityRegister {
 		 */
 		public void addWaiting(final int n) {
 			waiting.addAndGet(n);
+			markUnflushed();
 		}
 
 		/**
@@ -84,6 +167,7 @@ public class PriorityRegister {
 		 */
 		public void incRunning(int n) {
 			running.addAndGet(n);
+			markUnflushed();
 		}
 		/**
 		 * Decrease the number of running active cpu cores by n
@@ -92,6 +176,7 @@ public class PriorityRegister {
 		 */
 		public void decRunning(int n) {
 			running.addAndGet(-n);
+			markUnflushed();
 		}
 
 		/**
@@ -129,6 +214,7 @@ public class PriorityRegister {
 		 */
 		public void addCputime(long n) {
 			cputime.addAndGet(n);
+			markUnflushed();
 		}
 
 		/**
@@ -138,6 +224,7 @@ public class PriorityRegister {
 		 */
 		public void addCost(double n) {
 			cost.addAndGet(n);
+			markUnflushed();
 		}
 
 		/**
@@ -152,12 +239,41 @@ public class PriorityRegister {
 			this.cost.addAndGet(-other.getCost());
 		}
 
+		/**
+		 * Wall clock time of the oldest delta that was not flushed yet, 0 if nothing changed since the last snapshot
+		 */
+		private static final AtomicLong oldestUnflushed = new AtomicLong(0);
+
+		private static void markUnflushed() {
+			if (oldestUnflushed.get() == 0)
+				oldestUnflushed.compareAndSet(0, System.currentTimeMillis());
+		}
+
+		/**
+		 * @return epoch millis of the oldest delta not yet part of a snapshot, or 0 if there is none
+		 */
+		public static long getOldestUnflushed() {
+			return oldestUnflushed.get();
+		}
+
+		/**
+		 * Give back their age to deltas that were part of a snapshot but could not be flushed
+		 *
+		 * @param stamp value of {@link #getOldestUnflushed()} before the snapshot was taken
+		 */
+		public static void restoreOldestUnflushed(final long stamp) {
+			if (stamp > 0)
+				oldestUnflushed.accumulateAndGet(stamp, (current, s) -> current == 0 ? s : Math.min(current, s));
+		}
+
 		/**
 		 * Creating a deep copy of the registry with new atomic values to ensure that the snapshot has a separate memory location from the global registry
 		 * 
 		 * @return registry clone
 		 */
 		public static Map<Integer, JobCounter> getRegistrySnapshot() {
+			// reset before copying, a change racing with the copy will stamp a new time and be picked up by the next snapshot
+			oldestUnflushed.set(0);
 			Map<Integer, JobCounter> snapshot = new ConcurrentHashMap<>();
 			for (Map.Entry<Integer, JobCounter> entry : registry.entrySet()) {
 				snapshot.put(entry.getKey(), new JobCounter(entry.getValue()));
@@ -168,11 +284,19 @@ public class PriorityRegister {
 		// Global registry map
 		private static final Map<Integer, JobCounter> registry = new ConcurrentHashMap<>();
 
+		/**
+		 * Views of the {@link StripedPriorityRegister} counters, handed out instead of the registry entries while it is enabled
+		 */
+		private static final Map<Integer, UserJobCounter> stripedViews = new ConcurrentHashMap<>();
+
 		/**
 		 * @param userId
 		 * @return the object corresponding to the given userId
 		 */
-		public static JobCounter getCounterForUser(Integer userId) {
+		public static UserJobCounter getCounterForUser(Integer userId) {
+			if (StripedPriorityRegister.isEnabled())
+				return stripedViews.computeIfAbsent(userId, StripedJobCounter::new);
+
 			// Lazily initialize the counters for a user if they don't exist
 			return registry.computeIfAbsent(userId, k -> new JobCounter());
 		}
@@ -184,4 +308,80 @@ public class PriorityRegister {
 			return registry;
 		}
 	}
+
+	/**
+	 * {@link UserJobCounter} that adds to the {@link StripedPriorityRegister} counter of the user, so that the callers don't change when the register does
+	 */
+	private static final class StripedJobCounter implements UserJobCounter {
+		private final int userId;
+
+		StripedJobCounter(final Integer userId) {
+			this.userId = userId.intValue();
+		}
+
+		// looked up on every call, the striped register can replace the counter of an idle user
+		private StripedPriorityRegister.UserCounter counter() {
+			return StripedPriorityRegister.getCounterForUser(userId);
+		}
+
+		@Override
+		public void incWaiting() {
+			counter().incWaiting();
+		}
+
+		@Override
+		public void decWaiting() {
+			counter().decWaiting();
+		}
+
+		@Override
+		public void addWaiting(final int n) {
+			counter().addWaiting(n);
+		}
+
+		@Override
+		public void incRunningAndDecWaiting(final int n) {
+			counter().incRunningAndDecWaiting(n);
+		}
+
+		@Override
+		public void incRunning(final int n) {
+			counter().incRunning(n);
+		}
+
+		@Override
+		public void decRunning(final int n) {
+			counter().decRunning(n);
+		}
+
+		@Override
+		public void addCputime(final long n) {
+			counter().addCputime(n);
+		}
+
+		@Override
+		public void addCost(final double n) {
+			counter().addCost(n);
+		}
+
+		@Override
+		public int getWaiting() {
+			return counter().getWaiting();
+		}
+
+		@Override
+		public int getRunning() {
+			return counter().getRunning();
+		}
+
+		@Override
+		public long getCputime() {
+			return counter().getCputime();
+		}
+
+		@Override
+		public double getCost() {
+			return counter().getCost();
+		}
+	}
 }
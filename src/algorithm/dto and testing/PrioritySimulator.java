@@ -0,0 +1,147 @@
+package alien.priority;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Replays job placements against a set of users: every job goes to the user with the highest computed priority, which is then charged the job's cores and
+ * cost. The users are kept in an {@link IndexedPriorityHeap}, and since the computed priority of a user only depends on its own values, only the user that got
+ * the job is re-ranked after a placement. A step is O(log users) instead of a scan and a recalculation over all users.
+ * <p>
+ * Users whose priority drops to zero or below, who go over quota or who reach their maximum number of cores are taken out of the heap; the replay stops when
+ * the requested number of cores is in use or no user can take more jobs.
+ *
+ * @since 2026-10-17
+ */
+public class PrioritySimulator {
+	/**
+	 * Receives one call per placed job
+	 */
+	public interface JobListener {
+		/**
+		 * @param totalCpuCoresInUse cores in use after the placement
+		 * @param userId user that got the job
+		 * @param userRunning cores in use by the user after the placement
+		 * @param computedPriorityAtJobStart priority that won the job
+		 * @param userCost total cost of the user after the placement
+		 * @throws IOException
+		 */
+		void jobStarted(int totalCpuCoresInUse, int userId, int userRunning, float computedPriorityAtJobStart, float userCost) throws IOException;
+	}
+
+	private final PriorityDto[] users;
+	private final IndexedPriorityHeap heap;
+	private final PriorityWeights weights;
+
+	/**
+	 * The first ranking uses the computed priority the users come with, like the production tables do; it is recomputed for everyone after the first
+	 * placement
+	 */
+	private boolean recomputed = false;
+
+	/**
+	 * @param users the users to simulate, their running and cost values are updated as jobs are placed
+	 */
+	public PrioritySimulator(final Collection<PriorityDto> users) {
+		this(users, PriorityWeights.DEFAULT);
+	}
+
+	/**
+	 * @param users the users to simulate, their running and cost values are updated as jobs are placed
+	 * @param weights weights and boost limits of the computed priority
+	 */
+	public PrioritySimulator(final Collection<PriorityDto> users, final PriorityWeights weights) {
+		this.weights = weights;
+		this.users = users.toArray(new PriorityDto[0]);
+
+		final int[] userIds = new int[this.users.length];
+		for (int i = 0; i < userIds.length; i++)
+			userIds[i] = this.users[i].getUserId();
+
+		heap = new IndexedPriorityHeap(userIds);
+
+		for (int i = 0; i < userIds.length; i++)
+			rank(i, this.users[i].getComputedPriority());
+	}
+
+	private void rank(final int slot, final float computedPriority) {
+		final PriorityDto dto = users[slot];
+
+		if (computedPriority > 0 && dto.getRunning() < dto.getMaxParallelJobs())
+			heap.set(slot, computedPriority);
+		else
+			heap.remove(slot);
+	}
+
+	private void recompute(final int slot) {
+		final PriorityDto dto = users[slot];
+
+		final float computedPriority = PriorityKernel.compute(dto.getRunning(), dto.getMaxParallelJobs(), dto.getTotalCpuCostLast24h(), dto.getMaxTotalCpuCost(), dto.getPriority(),
+				dto.getTotalRunningTimeLast24h(), dto.getMaxTotalRunningTime(), dto.getHighestPriority(), weights);
+
+		dto.setComputedPriority(computedPriority);
+		rank(slot, computedPriority);
+	}
+
+	/**
+	 * Place jobs until the given number of cores is in use
+	 *
+	 * @param maxCpuCoresInUse cores to fill
+	 * @param cores cores and cost of the jobs, looked up by the number of cores in use when the job is placed
+	 * @param listener notified of every placement, can be <code>null</code>
+	 * @return cores in use at the end of the replay
+	 * @throws IOException if the listener failed
+	 */
+	public int run(final int maxCpuCoresInUse, final List<CoreCostDto> cores, final JobListener listener) throws IOException {
+		int totalCpuCoresInUse = 0;
+
+		while (totalCpuCoresInUse < maxCpuCoresInUse && totalCpuCoresInUse < cores.size() && !heap.isEmpty()) {
+			final int slot = heap.peek();
+			final PriorityDto user = users[slot];
+			final float computedPriority = heap.getKey(slot);
+
+			final CoreCostDto job = cores.get(totalCpuCoresInUse);
+			user.setRunning(user.getRunning() + job.getCores());
+			user.setTotalCpuCostLast24h(user.getTotalCpuCostLast24h() + job.getCost());
+			totalCpuCoresInUse += job.getCores();
+
+			if (listener != null)
+				listener.jobStarted(totalCpuCoresInUse, user.getUserId(), user.getRunning(), computedPriority, user.getTotalCpuCostLast24h());
+
+			if (!recomputed) {
+				for (int i = 0; i < users.length; i++)
+					recompute(i);
+
+				recomputed = true;
+			}
+			else
+				recompute(slot);
+		}
+
+		return totalCpuCoresInUse;
+	}
+
+	/**
+	 * @param writer destination of the CSV rows, in the format of {@link Ptest#writeSimulationToCSV(List, String)}
+	 * @return a listener writing one CSV row per placed job
+	 * @throws IOException
+	 */
+	public static JobListener csvWriter(final Writer writer) throws IOException {
+		writer.write("Total CPU core usage (Jobs),User ID,User CPU Core usage,Computed Priority start of Job,userCurrentCost\n");
+
+		return (totalCpuCoresInUse, userId, userRunning, computedPriorityAtJobStart, userCost) -> {
+			writer.write(Integer.toString(totalCpuCoresInUse));
+			writer.write(',');
+			writer.write(Integer.toString(userId));
+			writer.write(',');
+			writer.write(Integer.toString(userRunning));
+			writer.write(',');
+			writer.write(Float.toString(computedPriorityAtJobStart));
+			writer.write(", ");
+			writer.write(Float.toString(userCost));
+			writer.write('\n');
+		};
+	}
+}
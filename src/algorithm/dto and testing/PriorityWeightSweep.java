@@ -0,0 +1,266 @@
+package alien.priority;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Runs one {@link GridEventSimulator} per weight configuration, in parallel, and ranks the configurations by how fairly and how fully they use the grid.
+ * Every simulation gets its own copy of the users and the same seed, so a configuration always produces the same result, whatever the number of threads or
+ * the order in which the runs finish.
+ * <p>
+ * Fairness is Jain's index over the core hours each user got, normalized by the user's entitlement (its share of the maximum parallel jobs): 1 when every
+ * user got exactly its share, 1/n when a single user got everything.
+ *
+ * @since 2026-10-17
+ */
+public class PriorityWeightSweep {
+	/**
+	 * Outcome of the simulation of one configuration
+	 */
+	public static final class Result {
+		private final int index;
+		private final PriorityWeights weights;
+		private final double utilisation;
+		private final double fairness;
+		private final int starvedUsers;
+		private final long completedJobs;
+
+		Result(final int index, final PriorityWeights weights, final double utilisation, final double fairness, final int starvedUsers, final long completedJobs) {
+			this.index = index;
+			this.weights = weights;
+			this.utilisation = utilisation;
+			this.fairness = fairness;
+			this.starvedUsers = starvedUsers;
+			this.completedJobs = completedJobs;
+		}
+
+		/**
+		 * @return position of the configuration in the sweep
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		/**
+		 * @return the configuration
+		 */
+		public PriorityWeights getWeights() {
+			return weights;
+		}
+
+		/**
+		 * @return share of the grid used by completed jobs
+		 */
+		public double getUtilisation() {
+			return utilisation;
+		}
+
+		/**
+		 * @return Jain's fairness index of the entitlement-normalized core hours
+		 */
+		public double getFairness() {
+			return fairness;
+		}
+
+		/**
+		 * @return users that completed no job at all
+		 */
+		public int getStarvedUsers() {
+			return starvedUsers;
+		}
+
+		/**
+		 * @return jobs completed during the simulation
+		 */
+		public long getCompletedJobs() {
+			return completedJobs;
+		}
+
+		/**
+		 * @return ranking score, fairness times utilisation
+		 */
+		public double getScore() {
+			return fairness * utilisation;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("#%d score=%.4f fairness=%.4f utilisation=%.4f starved=%d jobs=%d [%s]", Integer.valueOf(index), Double.valueOf(getScore()), Double.valueOf(fairness),
+					Double.valueOf(utilisation), Integer.valueOf(starvedUsers), Long.valueOf(completedJobs), weights);
+		}
+	}
+
+	private final Collection<PriorityDto> users;
+	private final int totalCores;
+	private final long seconds;
+	private final long seed;
+
+	/**
+	 * @param users users to simulate, they are copied for every run and never modified
+	 * @param totalCores cores of the simulated grid
+	 * @param seconds simulated time of every run
+	 * @param seed seed shared by all runs
+	 */
+	public PriorityWeightSweep(final Collection<PriorityDto> users, final int totalCores, final long seconds, final long seed) {
+		this.users = users;
+		this.totalCores = totalCores;
+		this.seconds = seconds;
+		this.seed = seed;
+	}
+
+	/**
+	 * Cartesian product of the given values, skipping the combinations with an empty boost range
+	 *
+	 * @param costWeights
+	 * @param activeCpuCoresWeights
+	 * @param priorityWeights
+	 * @param maxBoosts
+	 * @param minBoostCosts
+	 * @param maxBoostCosts
+	 * @return all valid combinations
+	 */
+	public static List<PriorityWeights> grid(final float[] costWeights, final float[] activeCpuCoresWeights, final float[] priorityWeights, final int[] maxBoosts, final int[] minBoostCosts,
+			final int[] maxBoostCosts) {
+		final List<PriorityWeights> configurations = new ArrayList<>();
+
+		for (float cost : costWeights)
+			for (float active : activeCpuCoresWeights)
+				for (float priority : priorityWeights)
+					for (int boost : maxBoosts)
+						for (int minCost : minBoostCosts)
+							for (int maxCost : maxBoostCosts)
+								if (maxCost > minCost)
+									configurations.add(new PriorityWeights(cost, active, priority, boost, minCost, maxCost));
+
+		return configurations;
+	}
+
+	/**
+	 * Random configurations: the three weights sum up to 1, the boost is up to 20 and the boost range spans 10k to 10M
+	 *
+	 * @param count number of configurations
+	 * @param sampleSeed seed of the sampling, independent of the simulation seed
+	 * @return the sampled configurations, always the production one first
+	 */
+	public static List<PriorityWeights> randomSample(final int count, final long sampleSeed) {
+		final Random random = new Random(sampleSeed);
+		final List<PriorityWeights> configurations = new ArrayList<>(count + 1);
+
+		configurations.add(PriorityWeights.DEFAULT);
+
+		for (int i = 0; i < count; i++) {
+			final float a = random.nextFloat();
+			final float b = random.nextFloat();
+			final float c = random.nextFloat();
+			final float sum = Math.max(a + b + c, Float.MIN_NORMAL);
+
+			final int minCost = 10_000 * (1 + random.nextInt(50));
+			final int maxCost = minCost * (2 + random.nextInt(19));
+
+			configurations.add(new PriorityWeights(a / sum, b / sum, c / sum, random.nextInt(21), minCost, maxCost));
+		}
+
+		return configurations;
+	}
+
+	/**
+	 * Simulate all configurations
+	 *
+	 * @param configurations
+	 * @param parallelism number of simulations to run at the same time, 0 for one per available processor
+	 * @return the results, best score first, ties in configuration order
+	 */
+	public List<Result> run(final List<PriorityWeights> configurations, final int parallelism) {
+		final int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+		final ForkJoinPool pool = new ForkJoinPool(threads);
+
+		try {
+			final List<Callable<Result>> tasks = new ArrayList<>(configurations.size());
+
+			for (int i = 0; i < configurations.size(); i++) {
+				final int index = i;
+				tasks.add(() -> simulate(index, configurations.get(index)));
+			}
+
+			final List<Result> results = new ArrayList<>(configurations.size());
+
+			for (Future<Result> future : pool.invokeAll(tasks))
+				results.add(future.get());
+
+			results.sort(Comparator.comparingDouble(Result::getScore).reversed().thenComparingInt(Result::getIndex));
+
+			return results;
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Sweep interrupted", e);
+		}
+		catch (final ExecutionException e) {
+			throw new IllegalStateException("Simulation failed", e.getCause());
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private Result simulate(final int index, final PriorityWeights weights) {
+		final List<PriorityDto> copies = new ArrayList<>(users.size());
+		for (PriorityDto dto : users)
+			copies.add(new PriorityDto(dto));
+
+		final GridEventSimulator simulator = new GridEventSimulator(copies, totalCores, seed);
+		simulator.setWeights(weights);
+
+		try {
+			simulator.run(seconds, null);
+		}
+		catch (final IOException e) {
+			// no trace is written
+			throw new UncheckedIOException(e);
+		}
+
+		final PriorityDto[] simulated = simulator.getUsers();
+		final double[] coreSeconds = simulator.getCoreSecondsPerUser();
+		final double[] normalized = new double[simulated.length];
+
+		long parallelJobs = 0;
+		for (PriorityDto dto : simulated)
+			parallelJobs += dto.getMaxParallelJobs();
+
+		int starved = 0;
+		for (int i = 0; i < simulated.length; i++) {
+			final double share = parallelJobs > 0 ? (double) simulated[i].getMaxParallelJobs() / parallelJobs : 1d / simulated.length;
+
+			normalized[i] = share > 0 ? coreSeconds[i] / share : 0;
+
+			if (coreSeconds[i] == 0)
+				starved++;
+		}
+
+		return new Result(index, weights, simulator.getUtilisation(), jainIndex(normalized), starved, simulator.getCompletedJobs());
+	}
+
+	/**
+	 * @param values
+	 * @return Jain's fairness index of the values, 1 for an empty or all-zero input
+	 */
+	static double jainIndex(final double[] values) {
+		final double sum = Arrays.stream(values).sum();
+		final double sumOfSquares = Arrays.stream(values).map(v -> v * v).sum();
+
+		if (sumOfSquares == 0)
+			return 1;
+
+		return sum * sum / (values.length * sumOfSquares);
+	}
+}
@@ -6,6 +6,8 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 //import alien.optimizers.site.SitequeueReconciler;
 //import alien.optimizers.site.SitequeueReconciler;
+import alien.optimizers.priority.PriorityReconciliationService;
+import alien.taskQueue.JobStatus;
 import alien.taskQueue.TaskQueueUtils;
 import lazyj.DBFunctions;
 
@@ -45,6 +47,268 @@ public class Ptest {
 //        prodSimulation(getProdUsers19(), "19");
 
 //    runOptimizers();
+//        registerContentionBenchmark(64, 1_000_000);
+//        seedQueueForAggregationBenchmark(5_000_000, 2_000);
+//        aggregationModeBenchmark();
+//        kernelEquivalenceCheck(42, 1_000_000);
+//        kernelBenchmark();
+//        gridSimulation(getProdUsersReal(), "real3008v2", 7, 200_000);
+//        weightSweep(getProdUsersReal(), 64, 2, 200_000);
+    }
+
+    /**
+     * Fills the QUEUE and QUEUEPROC tables of a local, throw-away MySQL/MariaDB instance with synthetic jobs for aggregationModeBenchmark.
+     * Never point this at a production database.
+     */
+    private static void seedQueueForAggregationBenchmark(int jobs, int users) {
+        try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
+            if (db == null) {
+                System.out.println("Ptest could not get a DB connection");
+                return;
+            }
+
+            Random random = new Random(42);
+            int[] states = Arrays.stream(JobStatus.values()).mapToInt(JobStatus::getAliEnLevel).toArray();
+            int chunk = 5_000;
+
+            for (int from = 1; from <= jobs; from += chunk) {
+                StringBuilder queue = new StringBuilder("INSERT INTO QUEUE (queueId, userId, statusId, cpucores, split, mtime) VALUES ");
+                StringBuilder queueproc = new StringBuilder("INSERT INTO QUEUEPROC (queueId, cost, cputime, lastupdate) VALUES ");
+
+                for (int queueId = from; queueId < Math.min(jobs + 1, from + chunk); queueId++) {
+                    if (queueId > from) {
+                        queue.append(", ");
+                        queueproc.append(", ");
+                    }
+                    int hoursAgo = random.nextInt(48);
+                    queue.append("(").append(queueId).append(", ").append(1 + random.nextInt(users)).append(", ").append(states[random.nextInt(states.length)])
+                            .append(", ").append(1 + random.nextInt(8)).append(", 0, NOW() - INTERVAL ").append(hoursAgo).append(" HOUR)");
+                    queueproc.append("(").append(queueId).append(", ").append(random.nextInt(100_000)).append(", ").append(random.nextInt(86_400))
+                            .append(", NOW() - INTERVAL ").append(hoursAgo).append(" HOUR)");
+                }
+
+                db.query(queue.toString());
+                db.query(queueproc.toString());
+            }
+
+            System.out.println("Seeded " + jobs + " jobs for " + users + " users");
+        }
+    }
+
+    /**
+     * Compares the aggregation modes of PriorityReconciliationService on the local seeded database: wall time and the bytes the server sent for the query.
+     * Bytes_sent is a global counter, so the instance should have no other clients while this runs.
+     */
+    private static void aggregationModeBenchmark() {
+        try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
+            if (db == null) {
+                System.out.println("Ptest could not get a DB connection");
+                return;
+            }
+
+            db.setQueryTimeout(600);
+
+            for (int round = 0; round < 3; round++) {
+                for (PriorityReconciliationService.AggregationMode mode : PriorityReconciliationService.AggregationMode.values()) {
+                    long bytesBefore = getBytesSent(db);
+                    long start = System.nanoTime();
+
+                    PriorityReconciliationService.queryActiveUsers(db, mode);
+                    Map<Integer, QueueProcessingDto> users = PriorityReconciliationService.aggregateActiveUsers(db, mode);
+
+                    long millis = (System.nanoTime() - start) / 1_000_000;
+                    long bytes = getBytesSent(db) - bytesBefore;
+
+                    System.out.println("Round " + round + ", " + mode + ": " + users.size() + " users in " + millis + " ms, " + bytes + " bytes sent by the server");
+                }
+            }
+        }
+    }
+
+    private static long getBytesSent(DBFunctions db) {
+        db.query("SHOW GLOBAL STATUS LIKE 'Bytes_sent'");
+        return db.moveNext() ? db.getl(2) : 0;
+    }
+
+    /**
+     * Feeds random users, including the boost and quota edges, through both PriorityKernel and the per-user formula and reports any result whose bits differ.
+     * Users over quota are only checked for the -1 marker, so the scalar path does not go to the database to log them.
+     */
+    private static void kernelEquivalenceCheck(long seed, int samples) {
+        Random random = new Random(seed);
+        float[] edgeCosts = {0f, 99_999f, 100_000f, 100_001f, 550_000f, 999_999f, 1_000_000f, 1_000_001f, Float.MIN_VALUE, 1e12f};
+        int mismatches = 0;
+
+        int n = samples;
+        int[] running = new int[n];
+        int[] maxParallelJobs = new int[n];
+        float[] cost = new float[n];
+        float[] maxCost = new float[n];
+        float[] priority = new float[n];
+        long[] runtime = new long[n];
+        long[] maxRuntime = new long[n];
+        float[] highestPriority = new float[n];
+        float[] out = new float[n];
+        List<PriorityDto> users = new ArrayList<>(n);
+
+        for (int i = 0; i < n; i++) {
+            maxParallelJobs[i] = 1 + random.nextInt(200_000);
+            running[i] = random.nextInt(10) == 0 ? maxParallelJobs[i] + 1 : random.nextInt(maxParallelJobs[i] + 1);
+            cost[i] = random.nextInt(4) == 0 ? edgeCosts[random.nextInt(edgeCosts.length)] : random.nextFloat() * 2_000_000f;
+            maxCost[i] = random.nextInt(10) == 0 ? cost[i] / 2 : cost[i] + random.nextFloat() * 1e14f;
+            priority[i] = 1 + random.nextFloat() * 20_000f;
+            highestPriority[i] = Math.max(priority[i], 20_000f);
+            maxRuntime[i] = 1 + (long) (random.nextDouble() * 1e12);
+            runtime[i] = random.nextInt(10) == 0 ? maxRuntime[i] + 1 : (long) (random.nextDouble() * maxRuntime[i]);
+
+            PriorityDto dto = new PriorityDto(i, priority[i], maxParallelJobs[i], 0f, maxRuntime[i], running[i], 0f, maxCost[i], runtime[i], cost[i]);
+            dto.setHighestPriority(highestPriority[i]);
+            users.add(dto);
+        }
+
+        PriorityKernel.compute(n, running, maxParallelJobs, cost, maxCost, priority, runtime, maxRuntime, highestPriority, out);
+
+        for (int i = 0; i < n; i++) {
+            PriorityDto dto = users.get(i);
+            boolean exceeded = runtime[i] > maxRuntime[i] || running[i] > maxParallelJobs[i] || cost[i] > maxCost[i];
+            float expected;
+            if (exceeded) {
+                expected = -1f;
+            } else {
+                CalculateComputedPriority.updateComputedPriority(dto);
+                expected = dto.getComputedPriority();
+            }
+
+            if (Float.floatToIntBits(expected) != Float.floatToIntBits(out[i])) {
+                if (mismatches++ < 10)
+                    System.out.println("Mismatch for sample " + i + ": scalar = " + expected + ", kernel = " + out[i] + ", cost = " + cost[i] + ", running = " + running[i]);
+            }
+        }
+
+        System.out.println("Kernel equivalence check with seed " + seed + ": " + mismatches + " mismatches out of " + n + " samples");
+    }
+
+    /**
+     * Times the per-user formula against PriorityKernel for 1k, 10k and 100k users, after a warm-up round so both paths are compiled.
+     */
+    private static void kernelBenchmark() {
+        for (int round = 0; round < 2; round++) {
+            for (int n : new int[]{1_000, 10_000, 100_000}) {
+                Random random = new Random(n);
+                List<PriorityDto> users = new ArrayList<>(n);
+                for (int i = 0; i < n; i++) {
+                    PriorityDto dto = new PriorityDto(i, 1 + random.nextFloat() * 20_000f, 200_000, 0f, 1_000_000_000_000L, random.nextInt(200_000), 0f, 1e14f,
+                            (long) (random.nextDouble() * 1e10), random.nextFloat() * 2_000_000f);
+                    users.add(dto);
+                }
+
+                int[] running = new int[n];
+                int[] maxParallelJobs = new int[n];
+                float[] cost = new float[n];
+                float[] maxCost = new float[n];
+                float[] priority = new float[n];
+                long[] runtime = new long[n];
+                long[] maxRuntime = new long[n];
+                float[] highestPriority = new float[n];
+                float[] out = new float[n];
+                for (int i = 0; i < n; i++) {
+                    PriorityDto dto = users.get(i);
+                    running[i] = dto.getRunning();
+                    maxParallelJobs[i] = dto.getMaxParallelJobs();
+                    cost[i] = dto.getTotalCpuCostLast24h();
+                    maxCost[i] = dto.getMaxTotalCpuCost();
+                    priority[i] = dto.getPriority();
+                    runtime[i] = dto.getTotalRunningTimeLast24h();
+                    maxRuntime[i] = dto.getMaxTotalRunningTime();
+                    highestPriority[i] = dto.getHighestPriority();
+                }
+
+                int repetitions = Math.max(10, 1_000_000 / n);
+
+                long start = System.nanoTime();
+                for (int r = 0; r < repetitions; r++) {
+                    for (PriorityDto dto : users) {
+                        CalculateComputedPriority.updateComputedPriority(dto);
+                    }
+                }
+                long scalarNanos = (System.nanoTime() - start) / repetitions;
+
+                start = System.nanoTime();
+                for (int r = 0; r < repetitions; r++) {
+                    PriorityKernel.compute(n, running, maxParallelJobs, cost, maxCost, priority, runtime, maxRuntime, highestPriority, out);
+                }
+                long kernelNanos = (System.nanoTime() - start) / repetitions;
+
+                if (round > 0)
+                    System.out.println(n + " users: scalar " + scalarNanos / 1000 + " us, kernel " + kernelNanos / 1000 + " us per pass");
+            }
+        }
+    }
+
+    /**
+     * Hammers a handful of production users from many threads with the job state transitions, once against PriorityRegister.JobCounter and once
+     * against StripedPriorityRegister, and prints the throughput of both.
+     */
+    private static void registerContentionBenchmark(int threads, int opsPerThread) {
+        int[] userIds = {974855, 1234576, 1234578, 1235889};
+
+        for (int round = 0; round < 3; round++) {
+            long atomic = runContended(threads, opsPerThread, (userId, i) -> {
+                PriorityRegister.UserJobCounter counter = PriorityRegister.JobCounter.getCounterForUser(Integer.valueOf(userId));
+                counter.incRunningAndDecWaiting(8);
+                counter.addCost(i * 0.25);
+                counter.addCputime(i);
+            }, userIds);
+
+            long striped = runContended(threads, opsPerThread, (userId, i) -> {
+                StripedPriorityRegister.UserCounter counter = StripedPriorityRegister.getCounterForUser(userId);
+                counter.incRunningAndDecWaiting(8);
+                counter.addCost(i * 0.25);
+                counter.addCputime(i);
+            }, userIds);
+
+            long total = (long) threads * opsPerThread;
+            System.out.println("Round " + round + ": JobCounter " + (total * 1_000_000_000L / atomic) + " ops/s, StripedPriorityRegister " + (total * 1_000_000_000L / striped) + " ops/s");
+
+            StripedPriorityRegister.flip();
+            StripedPriorityRegister.flip();
+            PriorityRegister.JobCounter.getRegistry().clear();
+        }
+    }
+
+    private interface RegisterOperation {
+        void apply(int userId, int i);
+    }
+
+    private static long runContended(int threads, int opsPerThread, RegisterOperation op, int[] userIds) {
+        java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+        List<Thread> workers = new ArrayList<>();
+
+        for (int t = 0; t < threads; t++) {
+            int userId = userIds[t % userIds.length];
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < opsPerThread; i++)
+                    op.apply(userId, i);
+            });
+            worker.start();
+            workers.add(worker);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+        return System.nanoTime() - begin;
     }
 
 
@@ -54,55 +318,64 @@ public class Ptest {
         System.out.println("Simulating with " + iterations + " iterations and seed 42.");
         List<CoreCostDto> repeatableCoreCosts = getRepeatableCoreCosts(getRepeatableRandomNumberOfCpuCores(seed, iterations));
 
-        List<RunningJobs> runningJobs = computeCpuCoresInUse(users, iterations, repeatableCoreCosts);
-        System.out.println("Elements in runningJobs: " + runningJobs.size());
-        try {
-            writeSimulationToCSV(runningJobs, "prodSimulation" + version + ".csv");
+        long start = System.currentTimeMillis();
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter("prodSimulation" + version + ".csv"), 1 << 16)) {
+            int totalCpuCoresInUse = new PrioritySimulator(users.values()).run(iterations, repeatableCoreCosts, PrioritySimulator.csvWriter(writer));
+            System.out.println("Total CPU cores in use to run jobs: " + totalCpuCoresInUse + ", simulation took " + (System.currentTimeMillis() - start) + " ms");
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
-    public static List<RunningJobs> computeCpuCoresInUse(Map<Integer, PriorityDto> users, int maxCpuCoresInUse, List<CoreCostDto> cores) {
-        int counterTotalCpuCoresInUse = 0; // job * cpu core usage for that job
+    /**
+     * Runs the discrete-event grid simulation for the given number of days and writes the columnar trace to gridSimulation{version}.bin
+     */
+    private static void gridSimulation(Map<Integer, PriorityDto> users, String version, int days, int totalCores) {
+        GridEventSimulator simulator = new GridEventSimulator(users.values(), totalCores, 42);
 
-        System.out.println("Elements in users: " + users.size());
-        List<RunningJobs> runningJobs = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        try {
+            simulator.run(days * 24L * 3600, "gridSimulation" + version + ".bin");
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
 
-        while (counterTotalCpuCoresInUse < maxCpuCoresInUse) {
-            Optional<PriorityDto> priorityDto = users.entrySet().stream()
-                    .filter(u -> u.getValue().getComputedPriority() > 0.0)
-                    .max(Map.Entry.comparingByValue(Comparator.comparing(PriorityDto::getComputedPriority)))
-                    .flatMap(u -> Optional.of(u.getValue()));
-
-            if (priorityDto.isPresent()) {
-
-                PriorityDto user = priorityDto.get();
-                if (user.getRunning() < user.getMaxParallelJobs()) {
-                    CoreCostDto coreCostDto = cores.get(counterTotalCpuCoresInUse);
-                    user.setRunning(user.getRunning() + coreCostDto.getCores());
-                    user.setTotalCpuCostLast24h(user.getTotalCpuCostLast24h() + coreCostDto.getCost());
-                    counterTotalCpuCoresInUse += coreCostDto.getCores();
-                    users.put(user.getUserId(), user);
-                }
+        System.out.println("Simulated " + days + " days on " + totalCores + " cores in " + (System.currentTimeMillis() - start) + " ms: " + simulator.getProcessedEvents() + " events, " +
+                simulator.getStartedJobs() + " jobs started, " + simulator.getCompletedJobs() + " completed, utilisation " + simulator.getUtilisation());
+
+        for (PriorityDto dto : simulator.getUsers()) {
+            System.out.println("User " + dto.getUserId() + ": " + simulator.getUserCoreSeconds(dto.getUserId()) / 3600 + " core hours, running " + dto.getRunning() +
+                    ", cost last 24h " + dto.getTotalCpuCostLast24h() + ", computed priority " + dto.getComputedPriority());
+        }
+    }
 
-                PriorityDto dto = priorityDto.get();
-                runningJobs.add(
-                        new RunningJobs(
-                                counterTotalCpuCoresInUse, user.getUserId(), user.getRunning(), dto.getComputedPriority(), dto.getTotalCpuCostLast24h()));
+    /**
+     * Simulates the production weights plus a random sample of alternatives in parallel and prints them ranked by fairness times utilisation
+     */
+    private static void weightSweep(Map<Integer, PriorityDto> users, int samples, int days, int totalCores) {
+        List<PriorityWeights> configurations = PriorityWeightSweep.randomSample(samples, 42);
 
-                System.out.println("----- User " + user.getUserId() + " has priority " + dto.getComputedPriority() + " and is running " + user.getRunning() + " jobs -----");
-                System.out.println("counter: " + counterTotalCpuCoresInUse + "  max: " + maxCpuCoresInUse);
+        long start = System.currentTimeMillis();
+        List<PriorityWeightSweep.Result> results = new PriorityWeightSweep(users.values(), totalCores, days * 24L * 3600, 42).run(configurations, 0);
+        System.out.println("Simulated " + configurations.size() + " configurations in " + (System.currentTimeMillis() - start) + " ms");
 
-                recalculateComputedPriority(users);
-                System.out.println("Recalculate computed priority finished");
+        for (PriorityWeightSweep.Result result : results) {
+            System.out.println(result);
+        }
+    }
 
-            } else {
-                System.out.println("No user with highest priority found");
-            }
+    public static List<RunningJobs> computeCpuCoresInUse(Map<Integer, PriorityDto> users, int maxCpuCoresInUse, List<CoreCostDto> cores) {
+        List<RunningJobs> runningJobs = new ArrayList<>();
 
+        try {
+            int totalCpuCoresInUse = new PrioritySimulator(users.values()).run(maxCpuCoresInUse, cores,
+                    (total, userId, running, computedPriority, cost) -> runningJobs.add(new RunningJobs(total, userId, running, computedPriority, cost)));
+            System.out.println("Total CPU cores in use to run jobs: " + totalCpuCoresInUse);
+        } catch (IOException e) {
+            // the listener does no I/O
+            e.printStackTrace();
         }
-        System.out.println("Total CPU cores in use to run jobs: " + counterTotalCpuCoresInUse);
 
         return runningJobs;
     }
@@ -26,6 +26,22 @@ public class QueueProcessingDto {
 		this.waiting = 0;
 	}
 
+	/**
+	 * @param userId
+	 * @param cost accumulated cost
+	 * @param cputime accumulated CPU time
+	 * @param cpucores CPU cores of the jobs in running states
+	 * @param waiting number of waiting jobs
+	 */
+	public QueueProcessingDto(int userId, double cost, long cputime, int cpucores, int waiting) {
+		this.userId = userId;
+		this.cost = cost;
+		this.cputime = cputime;
+		this.cpucores = cpucores;
+		this.statusId = 0;
+		this.waiting = waiting;
+	}
+
 	/**
 	 * @return Waiting jobs for the user
 	 */
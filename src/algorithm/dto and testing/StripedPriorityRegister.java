@@ -0,0 +1,623 @@
+package alien.priority;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import alien.config.ConfigUtils;
+
+/**
+ * Low contention alternative to {@link PriorityRegister.JobCounter}. The per-user counters are striped {@link LongAdder}s, the cost is kept as fixed-point
+ * micro-units so it needs no CAS loop, and the user lookup is a lock-free binary search over a copy-on-write index, so the job state hot path does not
+ * allocate.
+ * <p>
+ * Every counter is double-buffered. Writers always add to the buffer of the current epoch; {@link #flip()} switches the epoch, waits for the writers that
+ * were still in the retired buffer and drains it, so a snapshot is taken without copying counter objects and without blocking the writers. Users without
+ * any delta for a whole epoch are dropped from the index by the flip.
+ *
+ * @since 2026-10-17
+ */
+public class StripedPriorityRegister {
+	/**
+	 * Fixed-point scale of the cost counters
+	 */
+	static final double COST_SCALE = 1_000_000d;
+
+	/**
+	 * The epoch selects the buffer that writers add to, <code>epoch &amp; 1</code>
+	 */
+	private static volatile long epoch = 0;
+
+	/**
+	 * Writers currently inside each of the two buffers. A single atomic per buffer, so that reading zero really means that nobody is inside.
+	 */
+	private static final AtomicLong[] writers = { new AtomicLong(), new AtomicLong() };
+
+	/**
+	 * Wall clock time of the first delta added to each buffer since it was last drained, 0 if the buffer is clean
+	 */
+	private static final AtomicLongArray firstDelta = new AtomicLongArray(2);
+
+	/**
+	 * Sorted userId to counter index, replaced as a whole when a new user shows up
+	 */
+	private static volatile Index index = new Index(new int[0], new UserCounter[0]);
+
+	private static final Object indexLock = new Object();
+
+	/**
+	 * Counters dropped from the index by the previous flip. Writers that got them before that can still add to the current buffer, so they are drained once
+	 * more by the next flip.
+	 */
+	private static UserCounter[] pruned = new UserCounter[0];
+
+	private static final class Index {
+		final int[] userIds;
+		final UserCounter[] counters;
+
+		Index(final int[] userIds, final UserCounter[] counters) {
+			this.userIds = userIds;
+			this.counters = counters;
+		}
+	}
+
+	private static final class Cells {
+		final LongAdder waiting = new LongAdder();
+		final LongAdder running = new LongAdder();
+		final LongAdder cputime = new LongAdder();
+		final LongAdder costMicros = new LongAdder();
+	}
+
+	/**
+	 * Per-user counters, with the same API as {@link PriorityRegister.JobCounter}
+	 */
+	public static final class UserCounter {
+		private final int userId;
+
+		private final Cells[] buffers = { new Cells(), new Cells() };
+
+		/**
+		 * Set once the counter is no longer in the index, writers then go to the counter that replaces it
+		 */
+		private volatile boolean dropped = false;
+
+		UserCounter(final int userId) {
+			this.userId = userId;
+		}
+
+		/**
+		 * @return the user this counter belongs to
+		 */
+		public int getUserId() {
+			return userId;
+		}
+
+		/**
+		 * Increment the number of waiting jobs for this user
+		 */
+		public void incWaiting() {
+			addWaiting(1);
+		}
+
+		/**
+		 * Decrement the number of waiting jobs for this user
+		 */
+		public void decWaiting() {
+			addWaiting(-1);
+		}
+
+		/**
+		 * Bulk insert of new jobs for a user
+		 *
+		 * @param n
+		 */
+		public void addWaiting(final int n) {
+			final int p = enter(this);
+			if (p < 0) {
+				getCounterForUser(userId).addWaiting(n);
+				return;
+			}
+
+			try {
+				buffers[p].waiting.add(n);
+			}
+			finally {
+				exit(p);
+			}
+		}
+
+		/**
+		 * Assigning a job with a given number of CPU cores to a site and subtracts waiting jobs
+		 *
+		 * @param n
+		 */
+		public void incRunningAndDecWaiting(final int n) {
+			final int p = enter(this);
+			if (p < 0) {
+				getCounterForUser(userId).incRunningAndDecWaiting(n);
+				return;
+			}
+
+			try {
+				buffers[p].running.add(n);
+				buffers[p].waiting.decrement();
+			}
+			finally {
+				exit(p);
+			}
+		}
+
+		/**
+		 * Assigning a job with a given number of CPU cores to a site
+		 *
+		 * @param n
+		 */
+		public void incRunning(final int n) {
+			final int p = enter(this);
+			if (p < 0) {
+				getCounterForUser(userId).incRunning(n);
+				return;
+			}
+
+			try {
+				buffers[p].running.add(n);
+			}
+			finally {
+				exit(p);
+			}
+		}
+
+		/**
+		 * Decrease the number of running active cpu cores by n
+		 *
+		 * @param n
+		 */
+		public void decRunning(final int n) {
+			incRunning(-n);
+		}
+
+		/**
+		 * Accounting data from the job about the consumed resources
+		 *
+		 * @param n
+		 */
+		public void addCputime(final long n) {
+			final int p = enter(this);
+			if (p < 0) {
+				getCounterForUser(userId).addCputime(n);
+				return;
+			}
+
+			try {
+				buffers[p].cputime.add(n);
+			}
+			finally {
+				exit(p);
+			}
+		}
+
+		/**
+		 * Accounting data from the job about the consumed resources
+		 *
+		 * @param n
+		 */
+		public void addCost(final double n) {
+			addCostMicros(Math.round(n * COST_SCALE));
+		}
+
+		private void addCostMicros(final long micros) {
+			final int p = enter(this);
+			if (p < 0) {
+				getCounterForUser(userId).addCostMicros(micros);
+				return;
+			}
+
+			try {
+				buffers[p].costMicros.add(micros);
+			}
+			finally {
+				exit(p);
+			}
+		}
+
+		/**
+		 * Add back deltas that could not be flushed, they will be part of the next snapshot
+		 *
+		 * @param waiting
+		 * @param running
+		 * @param cputime
+		 * @param costMicros
+		 */
+		void add(final int waiting, final int running, final long cputime, final long costMicros) {
+			final int p = enter(this);
+			if (p < 0) {
+				getCounterForUser(userId).add(waiting, running, cputime, costMicros);
+				return;
+			}
+
+			try {
+				final Cells c = buffers[p];
+				c.waiting.add(waiting);
+				c.running.add(running);
+				c.cputime.add(cputime);
+				c.costMicros.add(costMicros);
+			}
+			finally {
+				exit(p);
+			}
+		}
+
+		/**
+		 * @return delta waiting jobs, not yet flushed
+		 */
+		public int getWaiting() {
+			return (int) (buffers[0].waiting.sum() + buffers[1].waiting.sum());
+		}
+
+		/**
+		 * @return delta running CPU cores, not yet flushed
+		 */
+		public int getRunning() {
+			return (int) (buffers[0].running.sum() + buffers[1].running.sum());
+		}
+
+		/**
+		 * @return delta CPU time, not yet flushed
+		 */
+		public long getCputime() {
+			return buffers[0].cputime.sum() + buffers[1].cputime.sum();
+		}
+
+		/**
+		 * @return delta cost, not yet flushed
+		 */
+		public double getCost() {
+			return (buffers[0].costMicros.sum() + buffers[1].costMicros.sum()) / COST_SCALE;
+		}
+	}
+
+	/**
+	 * Deltas drained from a retired buffer, stored column-wise and only for the users that had any activity
+	 */
+	public static final class Snapshot {
+		private final int size;
+		private final int[] userIds;
+		private final int[] waiting;
+		private final int[] running;
+		private final long[] cputime;
+		private final long[] costMicros;
+
+		Snapshot(final int capacity) {
+			userIds = new int[capacity];
+			waiting = new int[capacity];
+			running = new int[capacity];
+			cputime = new long[capacity];
+			costMicros = new long[capacity];
+			size = 0;
+		}
+
+		private Snapshot(final Snapshot other, final int size) {
+			this.userIds = other.userIds;
+			this.waiting = other.waiting;
+			this.running = other.running;
+			this.cputime = other.cputime;
+			this.costMicros = other.costMicros;
+			this.size = size;
+		}
+
+		/**
+		 * @return number of users with non-zero deltas
+		 */
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @param i
+		 * @return user id of the i-th entry
+		 */
+		public int getUserId(final int i) {
+			return userIds[i];
+		}
+
+		/**
+		 * @param i
+		 * @return delta waiting jobs of the i-th entry
+		 */
+		public int getWaiting(final int i) {
+			return waiting[i];
+		}
+
+		/**
+		 * @param i
+		 * @return delta running CPU cores of the i-th entry
+		 */
+		public int getRunning(final int i) {
+			return running[i];
+		}
+
+		/**
+		 * @param i
+		 * @return delta CPU time of the i-th entry
+		 */
+		public long getCputime(final int i) {
+			return cputime[i];
+		}
+
+		/**
+		 * @param i
+		 * @return delta cost of the i-th entry, in micro-units
+		 */
+		public long getCostMicros(final int i) {
+			return costMicros[i];
+		}
+
+		/**
+		 * @param i
+		 * @return delta cost of the i-th entry
+		 */
+		public double getCost(final int i) {
+			return costMicros[i] / COST_SCALE;
+		}
+	}
+
+	/**
+	 * @return the buffer to write to, or -1 if the counter was dropped from the index and the write has to go to its replacement
+	 */
+	private static int enter(final UserCounter counter) {
+		while (true) {
+			final long e = epoch;
+			final int p = (int) (e & 1);
+			writers[p].incrementAndGet();
+
+			if (epoch == e) {
+				if (!counter.dropped)
+					return p;
+
+				writers[p].decrementAndGet();
+				return -1;
+			}
+
+			// the epoch was flipped in between, don't touch the retired buffer
+			writers[p].decrementAndGet();
+		}
+	}
+
+	private static void exit(final int p) {
+		if (firstDelta.get(p) == 0)
+			firstDelta.compareAndSet(p, 0, System.currentTimeMillis());
+
+		writers[p].decrementAndGet();
+	}
+
+	/**
+	 * @return <code>true</code> if {@link PriorityRegister.JobCounter#getCounterForUser(Integer)} hands out counters of this register
+	 */
+	public static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb("alien.optimizers.priority.PriorityRapidUpdater.doubleBuffered", false);
+	}
+
+	/**
+	 * @param userId
+	 * @return the counter corresponding to the given userId, lazily created
+	 */
+	public static UserCounter getCounterForUser(final int userId) {
+		final Index idx = index;
+		final int pos = Arrays.binarySearch(idx.userIds, userId);
+
+		if (pos >= 0)
+			return idx.counters[pos];
+
+		synchronized (indexLock) {
+			final Index current = index;
+			final int insert = Arrays.binarySearch(current.userIds, userId);
+
+			if (insert >= 0)
+				return current.counters[insert];
+
+			final int at = -insert - 1;
+			final int n = current.userIds.length;
+
+			final int[] userIds = new int[n + 1];
+			final UserCounter[] counters = new UserCounter[n + 1];
+
+			System.arraycopy(current.userIds, 0, userIds, 0, at);
+			System.arraycopy(current.counters, 0, counters, 0, at);
+			System.arraycopy(current.userIds, at, userIds, at + 1, n - at);
+			System.arraycopy(current.counters, at, counters, at + 1, n - at);
+
+			final UserCounter counter = new UserCounter(userId);
+			userIds[at] = userId;
+			counters[at] = counter;
+
+			index = new Index(userIds, counters);
+
+			return counter;
+		}
+	}
+
+	/**
+	 * @param userId
+	 * @return the counter corresponding to the given userId
+	 */
+	public static UserCounter getCounterForUser(final Integer userId) {
+		return getCounterForUser(userId.intValue());
+	}
+
+	/**
+	 * @return number of users known to the register
+	 */
+	public static int size() {
+		return index.userIds.length;
+	}
+
+	/**
+	 * @return epoch millis of the oldest delta that is not flushed yet, or 0 if there is none
+	 */
+	public static long getOldestUnflushed() {
+		final long first = firstDelta.get(0);
+		final long second = firstDelta.get(1);
+
+		if (first == 0 || second == 0)
+			return Math.max(first, second);
+
+		return Math.min(first, second);
+	}
+
+	/**
+	 * Give back their age to deltas that were folded back after a failed flush
+	 *
+	 * @param stamp value of {@link #getOldestUnflushed()} before the flip
+	 */
+	public static void restoreOldestUnflushed(final long stamp) {
+		if (stamp > 0)
+			firstDelta.accumulateAndGet((int) (epoch & 1), stamp, (current, s) -> current == 0 ? s : Math.min(current, s));
+	}
+
+	/**
+	 * @return number of users with pending deltas
+	 */
+	public static int getPendingUsers() {
+		int pending = 0;
+		for (UserCounter counter : index.counters)
+			if (counter.getWaiting() != 0 || counter.getRunning() != 0 || counter.getCputime() != 0 || counter.getCost() != 0)
+				pending++;
+
+		return pending;
+	}
+
+	/**
+	 * @return sum of the absolute pending deltas of waiting jobs and running cores over all users
+	 */
+	public static long getPendingAbsoluteDelta() {
+		long delta = 0;
+		for (UserCounter counter : index.counters)
+			delta += Math.abs(counter.getWaiting()) + Math.abs(counter.getRunning());
+
+		return delta;
+	}
+
+	/**
+	 * Add the i-th entry of a snapshot back into the current buffer, typically because it could not be written to the database
+	 *
+	 * @param snapshot
+	 * @param i
+	 */
+	public static void foldBack(final Snapshot snapshot, final int i) {
+		getCounterForUser(snapshot.getUserId(i)).add(snapshot.getWaiting(i), snapshot.getRunning(i), snapshot.getCputime(i), snapshot.getCostMicros(i));
+	}
+
+	/**
+	 * Switch writers to the other buffer and drain the retired one. Only one flip can be in progress at a time.
+	 *
+	 * @return the deltas accumulated since the previous flip
+	 */
+	public static synchronized Snapshot flip() {
+		final int retired = (int) (epoch & 1);
+		epoch++;
+
+		// wait for the writers that entered the retired buffer before the flip, they are only a few increments away from leaving it
+		int spins = 0;
+		while (writers[retired].get() != 0) {
+			if (++spins < 1000)
+				Thread.onSpinWait();
+			else
+				Thread.yield();
+		}
+
+		// late writes to the counters dropped by the previous flip go to their replacements, in the current buffer
+		for (UserCounter counter : pruned) {
+			final Cells c = counter.buffers[retired];
+			final long waiting = c.waiting.sumThenReset();
+			final long running = c.running.sumThenReset();
+			final long cputime = c.cputime.sumThenReset();
+			final long costMicros = c.costMicros.sumThenReset();
+
+			if (waiting != 0 || running != 0 || cputime != 0 || costMicros != 0)
+				getCounterForUser(counter.userId).add((int) waiting, (int) running, cputime, costMicros);
+		}
+
+		final Index idx = index;
+		final Snapshot snapshot = new Snapshot(idx.counters.length);
+		final List<UserCounter> idle = new ArrayList<>();
+
+		int n = 0;
+		for (UserCounter counter : idx.counters) {
+			final Cells c = counter.buffers[retired];
+
+			// nobody is writing to the retired buffer any more, so the reset cannot lose updates
+			final long waiting = c.waiting.sumThenReset();
+			final long running = c.running.sumThenReset();
+			final long cputime = c.cputime.sumThenReset();
+			final long costMicros = c.costMicros.sumThenReset();
+
+			if (waiting == 0 && running == 0 && cputime == 0 && costMicros == 0) {
+				idle.add(counter);
+				continue;
+			}
+
+			snapshot.userIds[n] = counter.userId;
+			snapshot.waiting[n] = (int) waiting;
+			snapshot.running[n] = (int) running;
+			snapshot.cputime[n] = cputime;
+			snapshot.costMicros[n] = costMicros;
+			n++;
+		}
+
+		firstDelta.set(retired, 0);
+
+		pruned = prune(idle);
+
+		return new Snapshot(snapshot, n);
+	}
+
+	/**
+	 * Drop the counters that had no delta for a whole epoch and have none in the current buffer either
+	 *
+	 * @return the dropped counters
+	 */
+	private static UserCounter[] prune(final List<UserCounter> idle) {
+		final List<UserCounter> dropped = new ArrayList<>();
+
+		for (UserCounter counter : idle) {
+			final Cells c = counter.buffers[(int) (epoch & 1)];
+
+			if (c.waiting.sum() == 0 && c.running.sum() == 0 && c.cputime.sum() == 0 && c.costMicros.sum() == 0)
+				dropped.add(counter);
+		}
+
+		if (dropped.isEmpty())
+			return new UserCounter[0];
+
+		synchronized (indexLock) {
+			final Index current = index;
+			final int[] userIds = new int[current.userIds.length];
+			final UserCounter[] counters = new UserCounter[current.counters.length];
+
+			int n = 0;
+			int d = 0;
+			for (int i = 0; i < current.counters.length; i++) {
+				// both lists are sorted by userId
+				if (d < dropped.size() && dropped.get(d) == current.counters[i]) {
+					d++;
+					continue;
+				}
+
+				userIds[n] = current.userIds[i];
+				counters[n] = current.counters[i];
+				n++;
+			}
+
+			// publish the index first, writers that see the flag look the user up again and must not find the dropped counter
+			index = new Index(Arrays.copyOf(userIds, n), Arrays.copyOf(counters, n));
+		}
+
+		for (UserCounter counter : dropped)
+			counter.dropped = true;
+
+		return dropped.toArray(new UserCounter[0]);
+	}
+}
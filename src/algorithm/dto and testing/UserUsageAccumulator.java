@@ -0,0 +1,150 @@
+package alien.priority;
+
+import alien.taskQueue.JobStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-user accumulator of the QUEUE/QUEUEPROC accounting rows. Users are kept in an int-keyed open addressing table with the sums in parallel primitive arrays,
+ * and the job state checks are a lookup in a table indexed by statusId, so adding a row neither boxes nor allocates. Memory is bounded by the number of users,
+ * not by the number of rows.
+ *
+ * @since 2026-10-17
+ */
+public class UserUsageAccumulator {
+	private static final byte RUNNING = 1;
+	private static final byte WAITING = 2;
+
+	/**
+	 * statusId to {@link #RUNNING} / {@link #WAITING} flags
+	 */
+	private static final byte[] STATUS_FLAGS;
+
+	static {
+		int maxLevel = 0;
+		for (JobStatus status : JobStatus.values())
+			maxLevel = Math.max(maxLevel, status.getAliEnLevel());
+
+		STATUS_FLAGS = new byte[maxLevel + 1];
+
+		for (JobStatus status : JobStatus.runningStates())
+			STATUS_FLAGS[status.getAliEnLevel()] |= RUNNING;
+
+		STATUS_FLAGS[JobStatus.WAITING.getAliEnLevel()] |= WAITING;
+	}
+
+	private int[] userIds;
+	private boolean[] used;
+	private double[] cost;
+	private long[] cputime;
+	private int[] cpucores;
+	private int[] waiting;
+
+	private int size = 0;
+
+	/**
+	 * @param expectedUsers initial capacity hint
+	 */
+	public UserUsageAccumulator(final int expectedUsers) {
+		allocate(Integer.highestOneBit(Math.max(16, expectedUsers * 2) - 1) << 1);
+	}
+
+	private void allocate(final int capacity) {
+		userIds = new int[capacity];
+		used = new boolean[capacity];
+		cost = new double[capacity];
+		cputime = new long[capacity];
+		cpucores = new int[capacity];
+		waiting = new int[capacity];
+	}
+
+	private int slot(final int userId) {
+		final int mask = userIds.length - 1;
+		int i = (userId * 0x9E3779B9) >>> 1 & mask;
+
+		while (used[i] && userIds[i] != userId)
+			i = (i + 1) & mask;
+
+		return i;
+	}
+
+	/**
+	 * Same accounting as {@link QueueProcessingDto#addAccounting(double, long, int, int)}, for one QUEUE/QUEUEPROC row
+	 *
+	 * @param userId
+	 * @param jobCost
+	 * @param cpuTime
+	 * @param ncpucores
+	 * @param statusId
+	 */
+	public void add(final int userId, final double jobCost, final long cpuTime, final int ncpucores, final int statusId) {
+		int i = slot(userId);
+
+		if (!used[i]) {
+			if ((size + 1) * 4 > userIds.length * 3) {
+				grow();
+				i = slot(userId);
+			}
+
+			used[i] = true;
+			userIds[i] = userId;
+			size++;
+		}
+
+		final byte flags = statusId >= 0 && statusId < STATUS_FLAGS.length ? STATUS_FLAGS[statusId] : 0;
+
+		cost[i] += jobCost;
+		cputime[i] += cpuTime;
+
+		if ((flags & RUNNING) != 0)
+			cpucores[i] += ncpucores;
+
+		if ((flags & WAITING) != 0)
+			waiting[i]++;
+	}
+
+	private void grow() {
+		final int[] oldUserIds = userIds;
+		final boolean[] oldUsed = used;
+		final double[] oldCost = cost;
+		final long[] oldCputime = cputime;
+		final int[] oldCpucores = cpucores;
+		final int[] oldWaiting = waiting;
+
+		allocate(oldUserIds.length * 2);
+
+		for (int j = 0; j < oldUserIds.length; j++) {
+			if (!oldUsed[j])
+				continue;
+
+			final int i = slot(oldUserIds[j]);
+			used[i] = true;
+			userIds[i] = oldUserIds[j];
+			cost[i] = oldCost[j];
+			cputime[i] = oldCputime[j];
+			cpucores[i] = oldCpucores[j];
+			waiting[i] = oldWaiting[j];
+		}
+	}
+
+	/**
+	 * @return number of distinct users seen so far
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return one {@link QueueProcessingDto} per user with the accumulated values
+	 */
+	public Map<Integer, QueueProcessingDto> toMap() {
+		final Map<Integer, QueueProcessingDto> users = new HashMap<>(size * 2);
+
+		for (int i = 0; i < userIds.length; i++)
+			if (used[i])
+				users.put(Integer.valueOf(userIds[i]), new QueueProcessingDto(userIds[i], cost[i], cputime[i], cpucores[i], waiting[i]));
+
+		return users;
+	}
+}
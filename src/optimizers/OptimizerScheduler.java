@@ -0,0 +1,330 @@
+package alien.optimizers;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+
+/**
+ * Runs the periodic body of the optimizers. Every optimizer hands its body to {@link #run(String, LongSupplier, Mode, boolean, Task)}, which wraps each
+ * execution in the same exception handling and publishes, per task, the run duration (<code>&lt;name&gt;_run_ms</code>), how late it started compared to its
+ * schedule (<code>&lt;name&gt;_lag_ms</code>), the runs skipped because the previous one was still going (<code>&lt;name&gt;_overlaps</code>) and the failures
+ * (<code>&lt;name&gt;_failures</code>).
+ * <p>
+ * With <code>alien.optimizers.OptimizerScheduler.enabled</code> the optimizer threads return right away and a single timer thread starts each run on a new
+ * virtual thread, adding a random jitter of up to <code>jitter</code> (a fraction of the period) so that the servers do not hit the database in lockstep, and at
+ * most <code>maxHeavyTasks</code> of the tasks flagged as heavy run at the same time. Virtual threads are looked up at runtime, on a JVM without them the runs
+ * use short-lived platform threads. Without the option every optimizer keeps looping in its own thread, with the same wrapper.
+ *
+ * @since 2026-10-17
+ */
+public final class OptimizerScheduler {
+	/**
+	 * Logger
+	 */
+	static final Logger logger = ConfigUtils.getLogger(OptimizerScheduler.class.getCanonicalName());
+
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(OptimizerScheduler.class.getCanonicalName());
+
+	private static final String PREFIX = "alien.optimizers.OptimizerScheduler.";
+
+	/**
+	 * How the next run is placed
+	 */
+	public enum Mode {
+		/**
+		 * One period after the previous run was due, runs that would overlap the previous one are skipped
+		 */
+		FIXED_RATE,
+		/**
+		 * One period after the previous run ended
+		 */
+		FIXED_DELAY
+	}
+
+	/**
+	 * Body of an optimizer, executed once per period
+	 */
+	@FunctionalInterface
+	public interface Task {
+		/**
+		 * @throws Exception reported by the scheduler, the task is run again on its next turn
+		 */
+		void run() throws Exception;
+	}
+
+	private static final class Entry {
+		final String name;
+		final LongSupplier period;
+		final Mode mode;
+		final BooleanSupplier heavy;
+		final Task task;
+
+		final AtomicBoolean running = new AtomicBoolean(false);
+
+		/**
+		 * Time the next run is due, without jitter (fixed rate only)
+		 */
+		long base;
+
+		Entry(final String name, final LongSupplier period, final Mode mode, final BooleanSupplier heavy, final Task task) {
+			this.name = name;
+			this.period = period;
+			this.mode = mode;
+			this.heavy = heavy;
+			this.task = task;
+		}
+	}
+
+	private static ScheduledExecutorService timer = null;
+
+	private static ThreadFactory runners = null;
+
+	private static Semaphore heavyPermits = null;
+
+	private OptimizerScheduler() {
+	}
+
+	/**
+	 * @return <code>true</code> if the optimizers are run by the shared scheduler
+	 */
+	public static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb(PREFIX + "enabled", false);
+	}
+
+	/**
+	 * Run an optimizer body periodically. With the scheduler enabled this only registers the task and returns, otherwise it loops forever in the calling
+	 * thread.
+	 *
+	 * @param name canonical name of the optimizer, used for the metrics and the exception log
+	 * @param period milliseconds between two runs, read again before every run
+	 * @param mode
+	 * @param heavy <code>true</code> for tasks that scan large tables, they count against <code>maxHeavyTasks</code>
+	 * @param task
+	 */
+	public static void run(final String name, final LongSupplier period, final Mode mode, final boolean heavy, final Task task) {
+		run(name, period, mode, () -> heavy, task);
+	}
+
+	/**
+	 * Same as {@link #run(String, LongSupplier, Mode, boolean, Task)}, for optimizers whose runs are only heavy in some modes
+	 *
+	 * @param name canonical name of the optimizer, used for the metrics and the exception log
+	 * @param period milliseconds between two runs, read again before every run
+	 * @param mode
+	 * @param heavy whether the next run scans large tables, read again before every run
+	 * @param task
+	 */
+	public static void run(final String name, final LongSupplier period, final Mode mode, final BooleanSupplier heavy, final Task task) {
+		final Entry entry = new Entry(name, period, mode, heavy, task);
+
+		if (!isEnabled()) {
+			loop(entry);
+			return;
+		}
+
+		synchronized (OptimizerScheduler.class) {
+			if (timer == null) {
+				final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+					final Thread t = new Thread(r, "OptimizerScheduler");
+					t.setDaemon(true);
+					return t;
+				});
+				executor.setRemoveOnCancelPolicy(true);
+
+				timer = executor;
+				runners = runnerFactory();
+				heavyPermits = new Semaphore(Math.max(1, ConfigUtils.getConfig().geti(PREFIX + "maxHeavyTasks", 2)), true);
+			}
+		}
+
+		logger.log(Level.INFO, "Scheduling " + name + " " + mode + " every " + period.getAsLong() + " ms" + (heavy.getAsBoolean() ? ", heavy" : ""));
+
+		// spread the first runs as well, all optimizers are registered at the same time at startup
+		final long first = jitter(period.getAsLong());
+		entry.base = System.currentTimeMillis() + first;
+		timer.schedule(() -> dispatch(entry, entry.base), first, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Without the scheduler: run the task in the calling thread, one sleep per iteration
+	 */
+	private static void loop(final Entry entry) {
+		long due = System.currentTimeMillis();
+
+		while (true) {
+			execute(entry, due);
+
+			final long now = System.currentTimeMillis();
+			final long period = Math.max(1, entry.period.getAsLong());
+
+			if (entry.mode == Mode.FIXED_RATE) {
+				due += period;
+
+				if (due <= now) {
+					monitor.incrementCounter(entry.name + "_overlaps");
+					due = now + period - (now - due) % period;
+				}
+			}
+			else
+				due = now + period;
+
+			try {
+				logger.log(Level.FINE, entry.name + " sleeping for " + (due - now) + " ms");
+				Thread.sleep(due - now);
+			}
+			catch (InterruptedException e) {
+				logger.log(Level.WARNING, entry.name + " interrupted", e);
+			}
+		}
+	}
+
+	/**
+	 * Called by the timer thread when a run is due: start it on its own thread, or skip it if the previous one is still running
+	 */
+	private static void dispatch(final Entry entry, final long scheduled) {
+		if (entry.mode == Mode.FIXED_RATE)
+			scheduleNext(entry);
+
+		if (!entry.running.compareAndSet(false, true)) {
+			monitor.incrementCounter(entry.name + "_overlaps");
+			logger.log(Level.INFO, entry.name + " is still running, skipping the run due at " + scheduled);
+			return;
+		}
+
+		try {
+			runners.newThread(() -> {
+				try {
+					if (entry.heavy.getAsBoolean())
+						runHeavy(entry, scheduled);
+					else
+						execute(entry, scheduled);
+				}
+				finally {
+					entry.running.set(false);
+
+					if (entry.mode == Mode.FIXED_DELAY)
+						scheduleAfter(entry, Math.max(1, entry.period.getAsLong()) + jitter(entry.period.getAsLong()));
+				}
+			}).start();
+		}
+		catch (final RuntimeException | Error e) {
+			entry.running.set(false);
+			logger.log(Level.SEVERE, "Cannot start " + entry.name, e);
+
+			if (entry.mode == Mode.FIXED_DELAY)
+				scheduleAfter(entry, Math.max(1, entry.period.getAsLong()));
+		}
+	}
+
+	private static void scheduleAfter(final Entry entry, final long delay) {
+		final long due = System.currentTimeMillis() + delay;
+		timer.schedule(() -> dispatch(entry, due), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private static void scheduleNext(final Entry entry) {
+		final long now = System.currentTimeMillis();
+		final long period = Math.max(1, entry.period.getAsLong());
+
+		entry.base += period;
+
+		if (entry.base <= now) {
+			// the timer itself fell behind, don't fire the missed runs in a burst
+			entry.base = now + period - (now - entry.base) % period;
+		}
+
+		final long due = entry.base + jitter(period);
+		timer.schedule(() -> dispatch(entry, due), Math.max(0, due - now), TimeUnit.MILLISECONDS);
+	}
+
+	private static void runHeavy(final Entry entry, final long scheduled) {
+		try {
+			heavyPermits.acquire();
+		}
+		catch (InterruptedException e) {
+			logger.log(Level.WARNING, entry.name + " interrupted while waiting for a heavy task slot", e);
+			Thread.currentThread().interrupt();
+			return;
+		}
+
+		try {
+			execute(entry, scheduled);
+		}
+		finally {
+			heavyPermits.release();
+		}
+	}
+
+	/**
+	 * The shared wrapper of every run: metrics and exception reporting
+	 */
+	private static void execute(final Entry entry, final long scheduled) {
+		final long start = System.currentTimeMillis();
+
+		monitor.addMeasurement(entry.name + "_lag_ms", Math.max(0, start - scheduled));
+
+		try {
+			entry.task.run();
+		}
+		catch (Exception e) {
+			monitor.incrementCounter(entry.name + "_failures");
+
+			try {
+				logger.log(Level.SEVERE, "Exception executing optimizer", e);
+				DBSyncUtils.registerException(entry.name, e);
+			}
+			catch (Exception e2) {
+				logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
+			}
+		}
+		finally {
+			monitor.addMeasurement(entry.name + "_run_ms", System.currentTimeMillis() - start);
+		}
+	}
+
+	private static long jitter(final long period) {
+		final double fraction = Math.min(0.5, Math.max(0, ConfigUtils.getConfig().getd(PREFIX + "jitter", 0.05)));
+		final long max = (long) (Math.max(0, period) * fraction);
+
+		return max > 0 ? ThreadLocalRandom.current().nextLong(max + 1) : 0;
+	}
+
+	/**
+	 * @return a factory of virtual threads if the JVM has them, otherwise of platform daemon threads
+	 */
+	private static ThreadFactory runnerFactory() {
+		try {
+			// through the public Thread.Builder interface, the builder implementations are not accessible
+			final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			final Object named = builderClass.getMethod("name", String.class, long.class).invoke(builder, "optimizer-", Long.valueOf(0));
+			final ThreadFactory virtual = (ThreadFactory) builderClass.getMethod("factory").invoke(named);
+
+			logger.log(Level.INFO, "OptimizerScheduler running the optimizers on virtual threads");
+			return virtual;
+		}
+		catch (final ReflectiveOperationException | RuntimeException e) {
+			logger.log(Level.INFO, "Virtual threads are not available (" + e + "), OptimizerScheduler running the optimizers on platform threads");
+
+			return r -> {
+				final Thread t = new Thread(r, "optimizer");
+				t.setDaemon(true);
+				return t;
+			};
+		}
+	}
+}
@@ -6,6 +6,7 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
 import alien.priority.CalculateComputedPriority;
 import alien.taskQueue.TaskQueueUtils;
 import lazyj.DBFunctions;
@@ -30,53 +31,61 @@ public class ActiveUserReconciler extends Optimizer {
 		this.setSleepPeriod(Duration.ofMinutes(5).toMillis());
 		int frequency = (int) this.getSleepPeriod();
 
-		while (true) {
+		OptimizerScheduler.run(ActiveUserReconciler.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_RATE, false, () -> {
 			logger.log(Level.INFO, "ActiveUserReconciler starting");
-			final boolean updated = DBSyncUtils.updatePeriodic(frequency, ActiveUserReconciler.class.getCanonicalName(), this);
-			try {
-				if (updated) {
-					reconcileActiveUsers();
-				}
-			}
-			catch (Exception e) {
-				try {
-					logger.log(Level.SEVERE, "Exception executing optimizer", e);
-					DBSyncUtils.registerException(ActiveUserReconciler.class.getCanonicalName(), e);
-				}
-				catch (Exception e2) {
-					logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
-				}
+			if (PriorityPipeline.isEnabled()) {
+				logger.log(Level.FINE, "ActiveUserReconciler skipping its run, the reconciliation is done by PriorityPipeline");
+				return;
 			}
 
-			try {
-				logger.log(Level.INFO, "ActiveUserReconciler sleeps " + this.getSleepPeriod() + " ms");
-				sleep(this.getSleepPeriod());
-			}
-			catch (InterruptedException e) {
-				logger.log(Level.WARNING, "ActiveUserReconciler interrupted", e);
+			if (DBSyncUtils.updatePeriodic(frequency, ActiveUserReconciler.class.getCanonicalName(), this)) {
+				reconcileActiveUsers();
 			}
-		}
+		});
 	}
 
 	private static void reconcileActiveUsers() {
+		StringBuilder registerLog = new StringBuilder();
+		computeActiveUsers(registerLog, false);
+		deactivateIdleUsers(registerLog);
+		DBSyncUtils.registerLog(ActiveUserReconciler.class.getCanonicalName(), registerLog.toString());
+	}
+
+	/**
+	 * Update the computed priority of the active users
+	 *
+	 * @param registerLog
+	 * @param full recompute all users, also when the incremental engine would only recompute the changed ones, and reload the engine from the result
+	 * @return <code>false</code> if the computed priority could not be updated
+	 */
+	static boolean computeActiveUsers(StringBuilder registerLog, boolean full) {
+		try (Timing t = new Timing(monitor, "TQ_reconcile_ActiveUserReconciler_ms")) {
+			final boolean updated = CalculateComputedPriority.updateComputedPriority(!full);
+			registerLog.append(full ? "Updated computed priority for all users in " : "Updated computed priority for active users in ")
+					.append(t.getMillis())
+					.append(updated ? " ms\n" : " ms, with failures\n");
+			return updated;
+		}
+	}
+
+	/**
+	 * Clear the active flag of the users without usage in the last 24h
+	 *
+	 * @param registerLog
+	 * @return <code>false</code> if there was no DB connection
+	 */
+	static boolean deactivateIdleUsers(StringBuilder registerLog) {
 		try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
 			if (db == null) {
 				logger.log(Level.SEVERE, "ActiveUserReconciler could not get a DB connection");
-				return;
+				return false;
 			}
 
-			StringBuilder registerLog = new StringBuilder();
-			try (Timing t = new Timing(monitor, "TQ_reconcile_ActiveUserReconciler_ms")) {
-				CalculateComputedPriority.updateComputedPriority(true);
-				registerLog.append("Updated computed priority for active users in ")
-						.append(t.getMillis())
-						.append(" ms\n");
-			}
 			db.setQueryTimeout(60);
 			db.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
 			getInactiveUsers(db, registerLog);
 			updateActivityFlag(db, registerLog);
-			DBSyncUtils.registerLog(ActiveUserReconciler.class.getCanonicalName(), registerLog.toString());
+			return true;
 		}
 	}
 
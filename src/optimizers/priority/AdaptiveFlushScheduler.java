@@ -0,0 +1,87 @@
+package alien.optimizers.priority;
+
+import alien.config.ConfigUtils;
+
+/**
+ * Decides when {@link PriorityRapidUpdater} should flush the priority register. A flush is triggered early when the accumulated deltas are large, many users
+ * are dirty or the oldest unflushed delta is getting old; when the register stays quiet the check interval backs off up to the regular sleep period.
+ *
+ * @since 2026-10-17
+ */
+final class AdaptiveFlushScheduler {
+	/**
+	 * Why a flush was triggered
+	 */
+	enum Trigger {
+		/**
+		 * Accumulated absolute delta of waiting jobs and running cores crossed the threshold
+		 */
+		DELTA,
+		/**
+		 * Number of users with pending deltas crossed the threshold
+		 */
+		DIRTY_USERS,
+		/**
+		 * Oldest unflushed delta is older than the allowed age
+		 */
+		AGE
+	}
+
+	private static final String PREFIX = "alien.optimizers.priority.PriorityRapidUpdater.adaptive.";
+
+	private final long minIntervalMillis;
+
+	private long currentIntervalMillis;
+
+	AdaptiveFlushScheduler() {
+		minIntervalMillis = Math.max(1000, ConfigUtils.getConfig().getl(PREFIX + "minInterval", 10 * 1000));
+		currentIntervalMillis = minIntervalMillis;
+	}
+
+	/**
+	 * @return <code>true</code> if the flush should be driven by this scheduler instead of the fixed sleep period
+	 */
+	static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb(PREFIX + "enabled", false);
+	}
+
+	/**
+	 * @param now current epoch millis
+	 * @param absoluteDelta accumulated absolute delta of waiting jobs and running cores
+	 * @param dirtyUsers users with pending deltas
+	 * @param oldestUnflushed epoch millis of the oldest pending delta, 0 if none
+	 * @param maxAgeMillis the longest a delta is allowed to stay in memory, normally the optimizer sleep period
+	 * @return the reason to flush now, or <code>null</code> if the flush can wait
+	 */
+	Trigger shouldFlush(final long now, final long absoluteDelta, final int dirtyUsers, final long oldestUnflushed, final long maxAgeMillis) {
+		if (dirtyUsers == 0 && oldestUnflushed == 0)
+			return null;
+
+		if (absoluteDelta >= ConfigUtils.getConfig().getl(PREFIX + "deltaThreshold", 5000))
+			return Trigger.DELTA;
+
+		if (dirtyUsers >= ConfigUtils.getConfig().geti(PREFIX + "dirtyUsersThreshold", 200))
+			return Trigger.DIRTY_USERS;
+
+		final long maxAge = Math.min(maxAgeMillis, ConfigUtils.getConfig().getl(PREFIX + "maxAge", 60 * 1000));
+
+		if (oldestUnflushed > 0 && now - oldestUnflushed >= maxAge)
+			return Trigger.AGE;
+
+		return null;
+	}
+
+	/**
+	 * @param active whether the register had pending deltas at the last check
+	 * @param maxIntervalMillis upper bound of the back off, normally the optimizer sleep period
+	 * @return how long to sleep before the next check
+	 */
+	long nextInterval(final boolean active, final long maxIntervalMillis) {
+		if (active)
+			currentIntervalMillis = minIntervalMillis;
+		else
+			currentIntervalMillis = Math.min(Math.max(minIntervalMillis, maxIntervalMillis), currentIntervalMillis * 2);
+
+		return currentIntervalMillis;
+	}
+}
@@ -6,6 +6,7 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
 import alien.taskQueue.JobStatus;
 import alien.taskQueue.TaskQueueUtils;
 import lazyj.DBFunctions;
@@ -29,38 +30,21 @@ public class InactiveJobHandler extends Optimizer {
 	 */
 	static final Monitor monitor = MonitorFactory.getMonitor(InactiveJobHandler.class.getCanonicalName());
 
+	/**
+	 * Runs since the heartbeat scan was last done while {@link ZombieDetector} is enabled
+	 */
+	private static int runsWithoutHeartbeatScan = 0;
+
 	@Override
 	public void run() {
 		logger.log(Level.INFO, "InactiveJobHandler starting");
 		this.setSleepPeriod(60 * 5 * 1000); // 5m
 		int frequency = (int) this.getSleepPeriod();
 
-		while (true) {
-			try {
-				if (DBSyncUtils.updatePeriodic(frequency, InactiveJobHandler.class.getCanonicalName(), this)) {
-					moveInactiveJobStates();
-					logger.log(Level.INFO, "InactiveJobHandler sleeping for " + this.getSleepPeriod() + " ms");
-					sleep(this.getSleepPeriod());
-				}
-			}
-			catch (Exception e) {
-				try {
-					logger.log(Level.SEVERE, "Exception executing optimizer", e);
-					DBSyncUtils.registerException(InactiveJobHandler.class.getCanonicalName(), e);
-				}
-				catch (Exception e2) {
-					logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
-				}
-			}
-
-			try {
-				sleep(this.getSleepPeriod());
-			}
-			catch (InterruptedException e) {
-				logger.log(Level.SEVERE, "InactiveJobHandler interrupted", e);
-			}
-		}
-
+		OptimizerScheduler.run(InactiveJobHandler.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_RATE, true, () -> {
+			if (DBSyncUtils.updatePeriodic(frequency, InactiveJobHandler.class.getCanonicalName(), this))
+				moveInactiveJobStates();
+		});
 	}
 
 	private static void moveInactiveJobStates() {
@@ -73,19 +57,28 @@ public class InactiveJobHandler extends Optimizer {
 			db.setQueryTimeout(60);
 
 			db.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-			String activeJobWithoutHeartbeatQuery = getActiveJobQuery();
 
-			String inactiveJobsWithoutHeartbeatQuery = "SELECT queueId, statusId FROM QUEUE WHERE statusId = " + JobStatus.ZOMBIE.getAliEnLevel() + " AND mtime < NOW() - INTERVAL 1 HOUR";
+			final boolean chunked = ConfigUtils.getConfig().getb("alien.optimizers.priority.InactiveJobHandler.chunked", false);
 
 			try (Timing t = new Timing(monitor, "InactiveJobHandler")) {
 				t.startTiming();
 
 				StringBuilder registerLog = new StringBuilder();
-				logger.log(Level.INFO, "InactiveJobHandler starting to move inactive jobs to zombie state. ");
-				TaskQueueUtils.moveState(db, activeJobWithoutHeartbeatQuery, JobStatus.ZOMBIE, registerLog);
+				if (isHeartbeatScanDue()) {
+					logger.log(Level.INFO, "InactiveJobHandler starting to move inactive jobs to zombie state. ");
+					if (chunked)
+						moveStateInChunks(db, ACTIVE_JOBS_FROM, getActiveJobCondition(), JobStatus.ZOMBIE, registerLog);
+					else
+						TaskQueueUtils.moveState(db, getActiveJobQuery(), JobStatus.ZOMBIE, registerLog);
+				}
+				else
+					logger.log(Level.INFO, "InactiveJobHandler skipping the heartbeat scan, jobs without heartbeat are detected by ZombieDetector");
 
 				logger.log(Level.INFO, "InactiveJobHandler starting to move 2h inactive zombie state jobs to expired state. ");
-				TaskQueueUtils.moveState(db, inactiveJobsWithoutHeartbeatQuery, JobStatus.EXPIRED, registerLog);
+				if (chunked)
+					moveStateInChunks(db, ZOMBIE_JOBS_FROM, getZombieJobCondition(), JobStatus.EXPIRED, registerLog);
+				else
+					TaskQueueUtils.moveState(db, getZombieJobQuery(), JobStatus.EXPIRED, registerLog);
 
 				t.endTiming();
 				logger.log(Level.INFO, "InactiveJobHandler finished in " + t.getMillis() + " ms");
@@ -99,14 +92,151 @@ public class InactiveJobHandler extends Optimizer {
 		}
 	}
 
+	/**
+	 * Move the jobs matching <code>condition</code> to <code>target</code> a bounded batch at a time. The candidates are paged by queueId keyset, so every
+	 * batch is an index range scan starting where the previous one stopped, and each call to {@link TaskQueueUtils#moveState} only sees the queueId range of
+	 * one batch. Between batches the handler pauses so the job matcher and the job state updates can get the QUEUE locks.
+	 * <p>
+	 * The backlog is the number of candidates left. Counting it upfront costs one more scan of the candidates and is only done with
+	 * <code>alien.optimizers.priority.InactiveJobHandler.countBacklog</code>, to follow a long drain batch by batch. Without it the backlog is published as 0
+	 * once a page came back short, and not at all when the run stopped before that. The number of jobs moved by the run is published on its own.
+	 *
+	 * @return number of jobs that were selected for the transition
+	 */
+	private static long moveStateInChunks(final DBFunctions db, final String from, final String condition, final JobStatus target, final StringBuilder registerLog) {
+		final int batchSize = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.priority.InactiveJobHandler.batchSize", 1000));
+		final long pause = Math.max(0, ConfigUtils.getConfig().getl("alien.optimizers.priority.InactiveJobHandler.batchPause", 500));
+
+		long backlog = -1;
+		if (ConfigUtils.getConfig().getb("alien.optimizers.priority.InactiveJobHandler.countBacklog", false)) {
+			if (db.query("SELECT count(1) FROM " + from + " WHERE " + condition) && db.moveNext())
+				backlog = db.getl(1);
+
+			monitor.addMeasurement("TQ_inactive_jobs_backlog_" + target.name(), backlog);
+		}
+
+		final String selectIds = "SELECT q.queueId FROM " + from + " WHERE " + condition + " AND q.queueId > ? ORDER BY q.queueId LIMIT " + batchSize;
+
+		long lastQueueId = 0;
+		long moved = 0;
+		int batches = 0;
+		boolean drained = false;
+
+		final long started = System.currentTimeMillis();
+
+		while (true) {
+			if (!db.query(selectIds, false, Long.valueOf(lastQueueId))) {
+				logger.log(Level.WARNING, "InactiveJobHandler could not select the next batch of jobs to move to " + target + " after queueId " + lastQueueId);
+				break;
+			}
+
+			long firstQueueId = -1;
+			int count = 0;
+
+			while (db.moveNext()) {
+				if (firstQueueId < 0)
+					firstQueueId = db.getl(1);
+
+				lastQueueId = db.getl(1);
+				count++;
+			}
+
+			if (count == 0) {
+				drained = true;
+				break;
+			}
+
+			try (Timing t = new Timing(monitor, "TQ_inactive_jobs_batch_ms")) {
+				TaskQueueUtils.moveState(db, "SELECT q.queueId, q.statusId FROM " + from + " WHERE " + condition + " AND q.queueId BETWEEN " + firstQueueId + " AND " + lastQueueId,
+						target, registerLog);
+			}
+
+			moved += count;
+			batches++;
+
+			if (backlog >= 0)
+				monitor.addMeasurement("TQ_inactive_jobs_backlog_" + target.name(), Math.max(0, backlog - moved));
+
+			if (count < batchSize) {
+				drained = true;
+				break;
+			}
+
+			if (pause > 0) {
+				try {
+					Thread.sleep(pause);
+				}
+				catch (InterruptedException e) {
+					logger.log(Level.WARNING, "InactiveJobHandler interrupted between batches, the rest is moved on the next run", e);
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+		}
+
+		if (backlog < 0 && drained)
+			monitor.addMeasurement("TQ_inactive_jobs_backlog_" + target.name(), 0);
+
+		monitor.addMeasurement("TQ_inactive_jobs_moved_" + target.name(), moved);
+
+		final long elapsed = Math.max(1, System.currentTimeMillis() - started);
+		final double jobsPerSecond = moved * 1000d / elapsed;
+
+		monitor.addMeasurement("TQ_inactive_jobs_per_second_" + target.name(), jobsPerSecond);
+
+		logger.log(Level.INFO, "InactiveJobHandler moved " + moved + " jobs to " + target + " in " + batches + " batches, " + elapsed + " ms (" + String.format("%.1f", Double.valueOf(jobsPerSecond)) + " jobs/s)");
+		registerLog.append("Moved ").append(moved).append(" jobs to ").append(target).append(" in ").append(batches).append(" batches of at most ").append(batchSize).append(", ")
+				.append(elapsed).append(" ms\n");
+
+		return moved;
+	}
+
+	private static final String ACTIVE_JOBS_FROM = "QUEUE q JOIN QUEUEPROC qp";
+
+	private static final String ZOMBIE_JOBS_FROM = "QUEUE q";
+
 	private static String getActiveJobQuery() {
-		String activeStates = JobStatus.RUNNING.getAliEnLevel() + ","
+		return "SELECT q.queueId, q.statusId FROM " + ACTIVE_JOBS_FROM + " WHERE " + getActiveJobCondition();
+	}
+
+	/**
+	 * With {@link ZombieDetector} enabled the scan of QUEUEPROC is only a safety net and runs every <code>safetyNetEvery</code> runs, by default once an hour
+	 */
+	private static boolean isHeartbeatScanDue() {
+		if (!ZombieDetector.isEnabled()) {
+			runsWithoutHeartbeatScan = 0;
+			return true;
+		}
+
+		final int every = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.priority.ZombieDetector.safetyNetEvery", 12));
+
+		if (++runsWithoutHeartbeatScan >= every) {
+			runsWithoutHeartbeatScan = 0;
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * @return statusIds of the jobs that are expected to send heartbeats
+	 */
+	static String getActiveStates() {
+		return JobStatus.RUNNING.getAliEnLevel() + ","
 				+ JobStatus.STARTED.getAliEnLevel() + ","
 				+ JobStatus.SAVING.getAliEnLevel() + ","
 				+ JobStatus.ASSIGNED.getAliEnLevel();
-		return "SELECT q.queueId, q.statusId FROM QUEUE q JOIN QUEUEPROC qp\n" +
-				"                                            WHERE q.queueId = qp.queueId\n" +
-				"                                              AND  q.statusId IN (" + activeStates + ")\n" +
-				"                                              AND qp.lastupdate < NOW() - INTERVAL 1 HOUR";
+	}
+
+	private static String getActiveJobCondition() {
+		return "q.queueId = qp.queueId AND q.statusId IN (" + getActiveStates() + ") AND qp.lastupdate < NOW() - INTERVAL 1 HOUR";
+	}
+
+	private static String getZombieJobQuery() {
+		return "SELECT q.queueId, q.statusId FROM " + ZOMBIE_JOBS_FROM + " WHERE " + getZombieJobCondition();
+	}
+
+	private static String getZombieJobCondition() {
+		return "q.statusId = " + JobStatus.ZOMBIE.getAliEnLevel() + " AND q.mtime < NOW() - INTERVAL 1 HOUR";
 	}
 }
@@ -6,6 +6,9 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
+import alien.priority.JobAgentPriorityIndex;
+import alien.priority.PriorityChangeTracker;
 import alien.taskQueue.TaskQueueUtils;
 import lazyj.DBFunctions;
 
@@ -27,60 +30,208 @@ public class JobAgentUpdater extends Optimizer {
 	 */
 	static final Monitor monitor = MonitorFactory.getMonitor(JobAgentUpdater.class.getCanonicalName());
 
+	/**
+	 * Runs of this optimizer, for the periodic consistency check of the priority index
+	 */
+	private int cycles = 0;
+
+	/**
+	 * Propagations done by this optimizer, for the periodic full pass
+	 */
+	private int propagations = 0;
+
 	@Override
 	public void run() {
 		logger.log(Level.INFO, "JobAgentUpdater starting");
 		this.setSleepPeriod(60 * 5 * 1000); // 5m
 		int frequency = (int) this.getSleepPeriod();
 
-		while (true) {
-			try {
-				final boolean updated = DBSyncUtils.updatePeriodic(frequency, JobAgentUpdater.class.getCanonicalName(), this);
-				if (updated) {
-					updateComputedPriority();
-				}
-			}
-			catch (Exception e) {
-				try {
-					logger.log(Level.SEVERE, "Exception executing optimizer", e);
-					DBSyncUtils.registerException(JobAgentUpdater.class.getCanonicalName(), e);
-				}
-				catch (Exception e2) {
-					logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
-				}
+		OptimizerScheduler.run(JobAgentUpdater.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_RATE, false, () -> {
+			if (PriorityPipeline.isEnabled()) {
+				logger.log(Level.FINE, "JobAgentUpdater skipping its run, the propagation is done by PriorityPipeline");
+				return;
 			}
 
-			try {
-				logger.log(Level.INFO, "JobAgentUpdater sleeping for " + this.getSleepPeriod() + " ms");
-				sleep(this.getSleepPeriod());
-			}
-			catch (InterruptedException e) {
-				logger.log(Level.SEVERE, "JobAgentUpdater interrupted", e);
+			final boolean updated = DBSyncUtils.updatePeriodic(frequency, JobAgentUpdater.class.getCanonicalName(), this);
+			if (updated) {
+				updateComputedPriority(++propagations % getFullEvery() == 0);
 			}
-		}
+
+			// every server keeps its own index for its matching threads, whether or not it did the propagation
+			if (JobAgentPriorityIndex.isEnabled())
+				refreshIndex(++cycles);
+		});
+	}
+
+	/**
+	 * @return <code>true</code> if only the changed users are propagated and this JVM knows which ones they are
+	 */
+	static boolean canPropagateChangedUsers() {
+		return isDeltaPropagation() && PriorityChangeTracker.isFed();
+	}
+
+	private static boolean isDeltaPropagation() {
+		return ConfigUtils.getConfig().getb("alien.optimizers.priority.JobAgentUpdater.deltaPropagation", false);
 	}
 
-	private static void updateComputedPriority() {
+	/**
+	 * @return with the delta propagation, every how many propagations all users are compared instead, to pick up the priorities computed by other servers
+	 */
+	static int getFullEvery() {
+		return Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.priority.JobAgentUpdater.fullEvery", 6));
+	}
+
+	/**
+	 * Copy the computed priority from PRIORITY to JOBAGENT. The full pass only writes the rows whose priority is more than
+	 * {@link PriorityChangeTracker#getEpsilon()} away from the computed one, whichever server computed it.
+	 *
+	 * @param full compare all users even if this JVM knows which ones it changed
+	 * @return <code>false</code> if there was no DB connection or the update failed
+	 */
+	static boolean updateComputedPriority(boolean full) {
 		try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
 			if (db == null) {
 				logger.log(Level.SEVERE, "JobAgentUpdater could not get a DB connection");
-				return;
+				return false;
 			}
 
 			db.setQueryTimeout(60);
 
-			String s = "UPDATE JOBAGENT INNER JOIN PRIORITY USING(userId) SET JOBAGENT.priority = PRIORITY.computedPriority";
+			if (isDeltaPropagation() && !full) {
+				if (PriorityChangeTracker.isFed()) {
+					updateChangedUsers(db);
+					return true;
+				}
+
+				// the priorities were computed by another server, we don't know which users changed
+				logger.log(Level.INFO, "No computation pass ran in this JVM yet, propagating all users");
+			}
+
+			// the full pass covers the users recorded so far
+			final int[] covered = isDeltaPropagation() ? PriorityChangeTracker.drain() : null;
+
+			final float epsilon = PriorityChangeTracker.getEpsilon();
+
+			String s = "UPDATE JOBAGENT INNER JOIN PRIORITY USING(userId) SET JOBAGENT.priority = PRIORITY.computedPriority "
+					+ "WHERE JOBAGENT.priority IS NULL OR ABS(JOBAGENT.priority - PRIORITY.computedPriority) > ?";
 			try (Timing t = new Timing(monitor, "JobAgentUpdater")) {
 				logger.log(Level.INFO, "2-JobAgentUpdater starting to update priority in JOBAGENT table");
 				t.startTiming();
-				db.query(s);
+				if (!db.query(s, false, Double.valueOf(epsilon))) {
+					logger.log(Level.WARNING, "JobAgentUpdater could not update the JOBAGENT table");
+
+					if (covered != null)
+						PriorityChangeTracker.putBack(covered, 0, covered.length);
+
+					return false;
+				}
 				t.endTiming();
+				monitor.addMeasurement("TQ_jobagent_rows_touched", db.getUpdateCount());
 				logger.log(Level.INFO, "JobAgentUpdater finished updating JOBAGENT table, took " + t.getMillis() + " ms");
 
 				String registerLog = "Finished updating JOBAGENT table priority values, in " + t.getMillis() + " ms\n";
 				DBSyncUtils.registerLog(JobAgentUpdater.class.getCanonicalName(), registerLog);
 			}
+
+			return true;
+		}
+	}
+
+	/**
+	 * Reload the JOBAGENT entries of {@link JobAgentPriorityIndex} and, every few cycles, check it against the tables
+	 *
+	 * @param cycle
+	 * @return <code>false</code> if the index kept its previous snapshot
+	 */
+	static boolean refreshIndex(int cycle) {
+		try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
+			if (db == null) {
+				logger.log(Level.SEVERE, "JobAgentUpdater could not get a DB connection to refresh the priority index");
+				return false;
+			}
+
+			db.setQueryTimeout(60);
+			db.setReadOnly(true);
+
+			if (!JobAgentPriorityIndex.refresh(db)) {
+				logger.log(Level.WARNING, "Could not refresh the JOBAGENT priority index, keeping the previous snapshot");
+				return false;
+			}
+
+			final int checkEvery = Math.max(1, ConfigUtils.getConfig().geti("alien.priority.JobAgentPriorityIndex.checkEvery", 12));
+
+			if (cycle % checkEvery == 0) {
+				try (Timing t = new Timing(monitor, "TQ_jobagent_index_check_ms")) {
+					final int differences = JobAgentPriorityIndex.checkConsistency(db);
+					t.endTiming();
+					logger.log(Level.INFO, "JOBAGENT priority index consistency check found " + differences + " differences in " + t.getMillis() + " ms");
+				}
+			}
+
+			return true;
 		}
 	}
 
+	/**
+	 * Copy the computed priority to JOBAGENT only for the users recorded by {@link PriorityChangeTracker}, a bounded chunk of users per statement so the row
+	 * locks the job matcher competes for are held briefly
+	 */
+	private static void updateChangedUsers(DBFunctions db) {
+		final int[] userIds = PriorityChangeTracker.drain();
+
+		if (userIds.length == 0) {
+			logger.log(Level.FINE, "No user changed its computed priority, nothing to propagate to JOBAGENT");
+			monitor.addMeasurement("TQ_jobagent_rows_touched", 0);
+			return;
+		}
+
+		final int chunkSize = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.priority.JobAgentUpdater.chunkSize", 500));
+
+		long rowsTouched = 0;
+		int failedUsers = 0;
+
+		try (Timing t = new Timing(monitor, "JobAgentUpdater")) {
+			for (int from = 0; from < userIds.length; from += chunkSize) {
+				final int to = Math.min(userIds.length, from + chunkSize);
+
+				final StringBuilder query = new StringBuilder("UPDATE JOBAGENT INNER JOIN PRIORITY USING(userId) SET JOBAGENT.priority = PRIORITY.computedPriority WHERE JOBAGENT.userId IN (");
+				final Object[] parameters = new Object[to - from];
+
+				for (int i = from; i < to; i++) {
+					if (i > from)
+						query.append(',');
+
+					query.append('?');
+					parameters[i - from] = Integer.valueOf(userIds[i]);
+				}
+
+				query.append(')');
+
+				try (Timing t2 = new Timing(monitor, "TQ_jobagent_chunk_ms")) {
+					if (db.query(query.toString(), false, parameters))
+						rowsTouched += db.getUpdateCount();
+					else {
+						PriorityChangeTracker.putBack(userIds, from, to);
+						failedUsers += to - from;
+					}
+				}
+			}
+
+			t.endTiming();
+
+			monitor.addMeasurement("TQ_jobagent_rows_touched", rowsTouched);
+			monitor.addMeasurement("TQ_jobagent_changed_users", userIds.length);
+
+			logger.log(Level.INFO, "JobAgentUpdater propagated " + userIds.length + " changed users to " + rowsTouched + " JOBAGENT rows in " + t.getMillis() + " ms");
+
+			String registerLog = "Propagated the computed priority of " + userIds.length + " changed users to " + rowsTouched + " JOBAGENT rows, in " + t.getMillis() + " ms\n";
+
+			if (failedUsers > 0) {
+				logger.log(Level.WARNING, "Could not propagate " + failedUsers + " users, retrying them on the next run");
+				registerLog += failedUsers + " users failed and will be retried\n";
+			}
+
+			DBSyncUtils.registerLog(JobAgentUpdater.class.getCanonicalName(), registerLog);
+		}
+	}
 }
@@ -0,0 +1,301 @@
+package alien.optimizers.priority;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.Timing;
+import alien.optimizers.DBSyncUtils;
+import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
+import alien.priority.CalculateComputedPriority;
+import alien.priority.JobAgentPriorityIndex;
+import alien.priority.PriorityEngine;
+import alien.priority.PriorityPolicies;
+
+/**
+ * Chains the steps that bring the job usage to the JOBAGENT priority, which otherwise run on the unaligned timers of {@link PriorityRapidUpdater},
+ * {@link ActiveUserReconciler} and {@link JobAgentUpdater}. The stages form a dependency graph:
+ *
+ * <pre>
+ * flush -&gt; compute -&gt; propagate -&gt; index
+ *                  \-&gt; deactivate
+ * </pre>
+ *
+ * and each stage starts as soon as its upstream stages completed, a stage whose upstream failed is skipped until the next run. The stages of a run go one
+ * after the other, the path to JOBAGENT first, so they never overlap each other. While <code>alien.optimizers.priority.PriorityPipeline.enabled</code> is set
+ * the three optimizers skip their own runs. {@link PriorityReconciliationService} keeps its own timer and elected server, so its rewrite of the 24h totals and
+ * its full recompute can still overlap a pipeline run. A computed priority the pipeline derived from the totals read before that rewrite can then overwrite the
+ * one of the reconciliation, until the next run sees the new totals and computes the user again.
+ * <p>
+ * The flush runs on every server, as each one has its own register, and with the adaptive flush enabled it is triggered the same way. The server elected for
+ * the period recomputes the active users and updates the active flag. Once every <code>fullInterval</code> seconds (an hour by default) a second election
+ * picks the server that recomputes all users instead, bypassing the incremental engine and reloading it, and compares all JOBAGENT rows with PRIORITY. The
+ * other servers only compute and propagate the users whose inputs changed in their JVM (with the incremental engine and the delta propagation enabled). The
+ * time from the oldest delta taken by the flush to its JOBAGENT
+ * update is published as <code>TQ_priority_pipeline_latency_ms</code>, and to the priority index of this server as
+ * <code>TQ_priority_pipeline_index_latency_ms</code>.
+ *
+ * @since 2026-10-17
+ */
+public class PriorityPipeline extends Optimizer {
+	/**
+	 * Logger
+	 */
+	static final Logger logger = ConfigUtils.getLogger(PriorityPipeline.class.getCanonicalName());
+
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(PriorityPipeline.class.getCanonicalName());
+
+	/**
+	 * Body of a stage
+	 */
+	@FunctionalInterface
+	private interface Step {
+		/**
+		 * @param registerLog
+		 * @return <code>false</code> if the stage did not complete and its downstream stages have to wait for the next run
+		 * @throws Exception
+		 */
+		boolean run(StringBuilder registerLog) throws Exception;
+	}
+
+	private static final class Stage {
+		final String name;
+		final Step step;
+		final List<Stage> upstream;
+
+		Stage(final String name, final Step step, final Stage... upstream) {
+			this.name = name;
+			this.step = step;
+			this.upstream = Arrays.asList(upstream);
+		}
+	}
+
+	/**
+	 * Adaptive flush triggers, while they are enabled
+	 */
+	private AdaptiveFlushScheduler scheduler = null;
+
+	/**
+	 * Wait before the next run, shorter than the sleep period when the adaptive flush wants to check again sooner
+	 */
+	private volatile long nextDelay;
+
+	/**
+	 * Start of the last run
+	 */
+	private long lastRun = 0;
+
+	/**
+	 * Runs of the index stage, for the periodic consistency check of the priority index
+	 */
+	private int cycles = 0;
+
+	/**
+	 * This server recomputes the active users and updates the active flag in the current run
+	 */
+	private boolean elected = false;
+
+	/**
+	 * This server recomputes all users and compares all JOBAGENT rows in the current run
+	 */
+	private boolean full = false;
+
+	/**
+	 * Epoch millis of the oldest delta taken by the flush of the current run, 0 if there was none
+	 */
+	private long oldestDelta = 0;
+
+	/**
+	 * JOBAGENT was updated by the current run
+	 */
+	private boolean propagated = false;
+
+	/**
+	 * @return <code>true</code> if the priority steps are run by this pipeline instead of their own optimizers
+	 */
+	public static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb("alien.optimizers.priority.PriorityPipeline.enabled", false);
+	}
+
+	@Override
+	public void run() {
+		logger.log(Level.INFO, "PriorityPipeline starting");
+		this.setSleepPeriod(60 * 5 * 1000); // 5m
+		nextDelay = this.getSleepPeriod();
+
+		final List<Stage> stages = buildStages();
+
+		OptimizerScheduler.run(PriorityPipeline.class.getCanonicalName(), () -> nextDelay, OptimizerScheduler.Mode.FIXED_DELAY, false, () -> {
+			nextDelay = this.getSleepPeriod();
+
+			if (!isEnabled()) {
+				scheduler = null;
+				return;
+			}
+
+			if (AdaptiveFlushScheduler.isEnabled()) {
+				if (scheduler == null)
+					scheduler = new AdaptiveFlushScheduler();
+
+				nextDelay = PriorityRapidUpdater.adaptiveFlush(scheduler, this.getSleepPeriod(), () -> execute(stages));
+
+				// the computed priority also follows the 24h window sliding, run at least once per period when nothing triggers a flush
+				if (System.currentTimeMillis() - lastRun >= this.getSleepPeriod())
+					execute(stages);
+			}
+			else {
+				scheduler = null;
+				execute(stages);
+			}
+		});
+	}
+
+	/**
+	 * @return the stages, every one after all of its upstream stages
+	 */
+	private List<Stage> buildStages() {
+		final List<Stage> stages = new ArrayList<>();
+
+		final Stage flush = new Stage("flush", registerLog -> PriorityRapidUpdater.flush(this));
+		final Stage compute = new Stage("compute", this::compute, flush);
+		final Stage propagate = new Stage("propagate", registerLog -> propagate(), compute);
+		final Stage index = new Stage("index", registerLog -> refreshIndex(), propagate);
+		final Stage deactivate = new Stage("deactivate", this::deactivate, compute);
+
+		stages.add(flush);
+		stages.add(compute);
+		stages.add(propagate);
+		stages.add(index);
+		stages.add(deactivate);
+
+		return stages;
+	}
+
+	private void execute(final List<Stage> stages) {
+		final long start = System.currentTimeMillis();
+		lastRun = start;
+
+		// swap in a changed priority policy between two runs, never in the middle of one
+		PriorityPolicies.reloadIfChanged();
+
+		// read before the flush takes its snapshot and resets it
+		oldestDelta = PriorityRapidUpdater.getOldestUnflushed();
+		propagated = false;
+		final long period = this.getSleepPeriod();
+		elected = DBSyncUtils.updatePeriodic((int) period, PriorityPipeline.class.getCanonicalName(), this);
+		full = elected && isFullDue();
+
+		final Set<Stage> completed = new HashSet<>();
+		final StringBuilder registerLog = new StringBuilder("Priority pipeline run").append(full ? " with the full passes" : elected ? " with the active users" : "").append('\n');
+
+		for (final Stage stage : stages) {
+			if (!completed.containsAll(stage.upstream)) {
+				monitor.incrementCounter("TQ_priority_pipeline_" + stage.name + "_skipped");
+				registerLog.append(stage.name).append(": skipped, an upstream stage did not complete\n");
+				continue;
+			}
+
+			try (Timing t = new Timing(monitor, "TQ_priority_pipeline_" + stage.name + "_ms")) {
+				boolean done;
+
+				try {
+					done = stage.step.run(registerLog);
+				}
+				catch (Exception e) {
+					done = false;
+
+					try {
+						logger.log(Level.SEVERE, "Exception in the " + stage.name + " stage of the priority pipeline", e);
+						DBSyncUtils.registerException(PriorityPipeline.class.getCanonicalName(), e);
+					}
+					catch (Exception e2) {
+						logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
+					}
+				}
+
+				t.endTiming();
+
+				if (done)
+					completed.add(stage);
+				else
+					monitor.incrementCounter("TQ_priority_pipeline_" + stage.name + "_failed");
+
+				registerLog.append(stage.name).append(done ? ": done in " : ": failed after ").append(t.getMillis()).append(" ms\n");
+			}
+		}
+
+		final long duration = System.currentTimeMillis() - start;
+		monitor.addMeasurement("TQ_priority_pipeline_ms", duration);
+
+		logger.log(Level.INFO, "PriorityPipeline completed " + completed.size() + " of " + stages.size() + " stages in " + duration + " ms");
+		DBSyncUtils.registerLog(PriorityPipeline.class.getCanonicalName(), registerLog.toString());
+	}
+
+	/**
+	 * @return <code>true</code> if the elected server of this run also does the full passes, elected separately once per <code>fullInterval</code>
+	 */
+	private boolean isFullDue() {
+		final long period = this.getSleepPeriod();
+		final int fullInterval = (int) Math.max(period / 1000, ConfigUtils.getConfig().getl("alien.optimizers.priority.PriorityPipeline.fullInterval", 3600)) * 1000;
+
+		final boolean due = DBSyncUtils.updatePeriodic(fullInterval, PriorityPipeline.class.getCanonicalName() + ".full", this);
+
+		// after the election, which can feed back a different period from the database
+		this.setSleepPeriod(period);
+
+		return due;
+	}
+
+	private boolean compute(final StringBuilder registerLog) {
+		if (elected)
+			return ActiveUserReconciler.computeActiveUsers(registerLog, full);
+
+		if (PriorityEngine.isEnabled() && PriorityEngine.isLoaded())
+			return CalculateComputedPriority.updateChangedComputedPriority();
+
+		return true;
+	}
+
+	private boolean deactivate(final StringBuilder registerLog) {
+		return !elected || ActiveUserReconciler.deactivateIdleUsers(registerLog);
+	}
+
+	private boolean propagate() {
+		if (!elected && !JobAgentUpdater.canPropagateChangedUsers())
+			return true;
+
+		if (!JobAgentUpdater.updateComputedPriority(full))
+			return false;
+
+		propagated = true;
+
+		if (oldestDelta > 0)
+			monitor.addMeasurement("TQ_priority_pipeline_latency_ms", System.currentTimeMillis() - oldestDelta);
+
+		return true;
+	}
+
+	private boolean refreshIndex() {
+		if (!JobAgentPriorityIndex.isEnabled())
+			return true;
+
+		if (!JobAgentUpdater.refreshIndex(++cycles))
+			return false;
+
+		if (propagated && oldestDelta > 0)
+			monitor.addMeasurement("TQ_priority_pipeline_index_latency_ms", System.currentTimeMillis() - oldestDelta);
+
+		return true;
+	}
+}
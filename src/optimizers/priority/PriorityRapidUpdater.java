@@ -1,7 +1,13 @@
 package alien.optimizers.priority;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntToLongFunction;
+import java.util.function.IntUnaryOperator;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -11,7 +17,12 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
+import alien.priority.CalculateComputedPriority;
+import alien.priority.PriorityEngine;
+import alien.priority.PriorityPolicies;
 import alien.priority.PriorityRegister;
+import alien.priority.StripedPriorityRegister;
 import alien.taskQueue.TaskQueueUtils;
 import lazyj.DBFunctions;
 
@@ -31,64 +42,200 @@ public class PriorityRapidUpdater extends Optimizer {
 	 */
 	static final Monitor monitor = MonitorFactory.getMonitor(PriorityRapidUpdater.class.getCanonicalName());
 
+	/**
+	 * Adaptive flush triggers, while they are enabled
+	 */
+	private AdaptiveFlushScheduler scheduler = null;
+
+	/**
+	 * Wait before the next run, shorter than the sleep period when the adaptive flush wants to check again sooner
+	 */
+	private volatile long nextDelay;
+
 	@Override
 	public void run() {
 		this.setSleepPeriod(60 * 5 * 1000); // 5m
+		nextDelay = this.getSleepPeriod();
 
-		while (true) {
-			// Ignore the returned value, each server has to flush at the same frequency, independently of each other.
-			// It is called in the loop just to feed back the frequency from the database, in case we tune it != default value
-			DBSyncUtils.updatePeriodic((int) getSleepPeriod(), PriorityRapidUpdater.class.getCanonicalName(), this);
+		OptimizerScheduler.run(PriorityRapidUpdater.class.getCanonicalName(), () -> nextDelay, OptimizerScheduler.Mode.FIXED_DELAY, false, () -> {
+			nextDelay = this.getSleepPeriod();
 
-			try {
-				updatePriority();
-			}
-			catch (Exception e) {
-				try {
-					logger.log(Level.SEVERE, "Exception executing optimizer", e);
-					DBSyncUtils.registerException(PriorityRapidUpdater.class.getCanonicalName(), e);
-				}
-				catch (Exception e2) {
-					logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
-				}
+			if (PriorityPipeline.isEnabled()) {
+				logger.log(Level.FINE, "PriorityRapidUpdater skipping its run, the flush is done by PriorityPipeline");
+				return;
 			}
 
-			try {
-				logger.log(Level.INFO, "PriorityRapidUpdater sleeping for " + this.getSleepPeriod() + " ms");
-				sleep(this.getSleepPeriod());
+			if (AdaptiveFlushScheduler.isEnabled()) {
+				if (scheduler == null)
+					scheduler = new AdaptiveFlushScheduler();
+
+				// only the flushes go to the database, not every check of the triggers
+				nextDelay = adaptiveFlush(scheduler, this.getSleepPeriod(), this::flushCycle);
+			}
+			else {
+				scheduler = null;
+				flushCycle();
 			}
-			catch (InterruptedException e) {
-				logger.log(Level.WARNING, "PriorityRapidUpdater interrupted", e);
+		});
+	}
+
+	private void flushCycle() {
+		// Ignore the returned value, each server has to flush at the same frequency, independently of each other.
+		// It is called in the loop just to feed back the frequency from the database, in case we tune it != default value
+		DBSyncUtils.updatePeriodic((int) getSleepPeriod(), PriorityRapidUpdater.class.getCanonicalName(), this);
+
+		// swap in a changed priority policy between two flushes, never in the middle of one
+		PriorityPolicies.reloadIfChanged();
+
+		updatePriority(this);
+	}
+
+	/**
+	 * Flush the register only if one of the {@link AdaptiveFlushScheduler} triggers fired, publishing the reason and the size of the flush
+	 *
+	 * @param flush what to run when a trigger fired
+	 * @return how long to wait before checking again
+	 */
+	static long adaptiveFlush(AdaptiveFlushScheduler scheduler, long maxIntervalMillis, Runnable flush) {
+		final long oldestUnflushed = getOldestUnflushed();
+		int dirtyUsers = 0;
+		long absoluteDelta = 0;
+
+		if (StripedPriorityRegister.size() > 0) {
+			dirtyUsers = StripedPriorityRegister.getPendingUsers();
+			absoluteDelta = StripedPriorityRegister.getPendingAbsoluteDelta();
+		}
+
+		for (PriorityRegister.JobCounter v : PriorityRegister.JobCounter.getRegistry().values()) {
+			if (!isUserInactive(v)) {
+				dirtyUsers++;
+				absoluteDelta += Math.abs(v.getWaiting()) + Math.abs(v.getRunning());
 			}
 		}
+
+		final AdaptiveFlushScheduler.Trigger trigger = scheduler.shouldFlush(System.currentTimeMillis(), absoluteDelta, dirtyUsers, oldestUnflushed, maxIntervalMillis);
+
+		if (trigger != null) {
+			logger.log(Level.INFO, "PriorityRapidUpdater flushing " + dirtyUsers + " users with absolute delta " + absoluteDelta + ", trigger: " + trigger);
+			monitor.incrementCounter("TQ_flush_trigger_" + trigger.name().toLowerCase());
+			monitor.addMeasurement("TQ_flush_delta_size", absoluteDelta);
+			monitor.addMeasurement("TQ_flush_dirty_users", dirtyUsers);
+
+			flush.run();
+		}
+
+		return scheduler.nextInterval(dirtyUsers > 0, maxIntervalMillis);
+	}
+
+	/**
+	 * Record the deltas of one user that were successfully written to PRIORITY
+	 */
+	private static void onFlushed(int userId, int running, long cputime, double cost, PriorityUsageLedger.Batch ledger) {
+		ledger.add(userId, cputime, cost);
+
+		if (PriorityEngine.isEnabled())
+			PriorityEngine.applyFlushed(userId, running, cputime, cost);
+	}
+
+	private static boolean isDoubleBuffered() {
+		return StripedPriorityRegister.isEnabled();
+	}
+
+	/**
+	 * @return epoch millis of the oldest delta in either register that is not yet written to PRIORITY, 0 if there is none
+	 */
+	static long getOldestUnflushed() {
+		final long striped = StripedPriorityRegister.getOldestUnflushed();
+		final long counters = PriorityRegister.JobCounter.getOldestUnflushed();
+
+		if (striped == 0 || counters == 0)
+			return Math.max(striped, counters);
+
+		return Math.min(striped, counters);
 	}
 
 	/**
 	 * Update PRIORITY table values to keep user information in sync
+	 *
+	 * @param owner optimizer running the flush
+	 */
+	public static void updatePriority(Optimizer owner) {
+		flush(owner);
+
+		if (PriorityEngine.isEnabled() && PriorityEngine.isLoaded()) {
+			// let the computed priority follow the flushed usage right away instead of waiting for the next ActiveUserReconciler pass
+			CalculateComputedPriority.updateChangedComputedPriority();
+		}
+	}
+
+	/**
+	 * Write the register to PRIORITY and, with the usage ledger enabled, append the flushed usage to it and slide its window
+	 *
+	 * @param owner optimizer running the flush, for the election of the server sliding the ledger window
+	 * @return <code>false</code> if the flush could not be done
 	 */
-	public static void updatePriority() {
+	static boolean flush(Optimizer owner) {
 		try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
 			if (db == null) {
 				logger.log(Level.SEVERE, "PriorityRapidUpdater could not get a DB connection");
-				return;
+				return false;
 			}
 
 			db.setQueryTimeout(60);
 			logger.log(Level.INFO, "DB Connections established");
 
-			Map<Integer, PriorityRegister.JobCounter> registrySnapshot = PriorityRegister.JobCounter.getRegistrySnapshot();
+			final PriorityUsageLedger.Batch ledger = new PriorityUsageLedger.Batch();
 
-			try (Timing t = new Timing(monitor, "TQ_updatePriority_ms")) {
-				StringBuilder registerLog = new StringBuilder("PriorityRegister.JobCounter.getRegistry() size: " + registrySnapshot.size() + "\n");
-				if (!PriorityRegister.JobCounter.getRegistry().isEmpty()) {
-					t.startTiming();
-					AtomicInteger count = new AtomicInteger();
-					int registrySize = PriorityRegister.JobCounter.getRegistry().size();
-					logger.log(Level.INFO, "Preparing to update PRIORITY for active users. Total registry size is: " + registrySize);
-					registerLog.append("Preparing to update PRIORITY for active users. Total registry size is:")
-							.append(registrySize)
-							.append("\n");
+			// the producers switch registers with the flag, drain the other one too while it still holds deltas from before the switch
+			if (isDoubleBuffered() || StripedPriorityRegister.size() > 0) {
+				StringBuilder registerLog = new StringBuilder();
+				flushStripedRegister(db, ledger, registerLog);
+				DBSyncUtils.updateManual(PriorityRapidUpdater.class.getCanonicalName(), registerLog.toString());
+			}
 
+			if (!isDoubleBuffered() || !PriorityRegister.JobCounter.getRegistry().isEmpty()) {
+				flushRegistry(db, ledger);
+			}
+
+			if (PriorityUsageLedger.isEnabled()) {
+				StringBuilder ledgerLog = new StringBuilder();
+				PriorityUsageLedger.append(db, ledger);
+				PriorityUsageLedger.slideWindow(db, owner, ledgerLog);
+
+				if (ledgerLog.length() > 0)
+					DBSyncUtils.registerLog(PriorityUsageLedger.class.getCanonicalName(), ledgerLog.toString());
+			}
+
+			return true;
+		}
+		catch (Exception e) {
+			logger.log(Level.SEVERE, "PriorityRapidUpdater failed", e);
+			return false;
+		}
+	}
+
+	private static void flushRegistry(DBFunctions db, PriorityUsageLedger.Batch ledger) {
+		// the snapshot resets the age, it is put back if anything stays in the registry
+		final long oldestUnflushed = PriorityRegister.JobCounter.getOldestUnflushed();
+		Map<Integer, PriorityRegister.JobCounter> registrySnapshot = PriorityRegister.JobCounter.getRegistrySnapshot();
+		final AtomicInteger failed = new AtomicInteger();
+		boolean complete = false;
+
+		try (Timing t = new Timing(monitor, "TQ_updatePriority_ms")) {
+			StringBuilder registerLog = new StringBuilder("PriorityRegister.JobCounter.getRegistry() size: " + registrySnapshot.size() + "\n");
+			if (!PriorityRegister.JobCounter.getRegistry().isEmpty()) {
+				t.startTiming();
+				AtomicInteger count = new AtomicInteger();
+				int registrySize = PriorityRegister.JobCounter.getRegistry().size();
+				logger.log(Level.INFO, "Preparing to update PRIORITY for active users. Total registry size is: " + registrySize);
+				registerLog.append("Preparing to update PRIORITY for active users. Total registry size is:")
+						.append(registrySize)
+						.append("\n");
+
+				if (isBulkFlush()) {
+					failed.addAndGet(flushRegistryBulk(db, registrySnapshot, count, ledger, registerLog));
+				}
+				else {
 					try (Timing t2 = new Timing(monitor, "TQ_updatePriority_db_ms")) {
 						PriorityRegister.JobCounter.getRegistry().forEach((userId, v) -> {
 							if (isUserInactive(v)) {
@@ -96,8 +243,8 @@ public class PriorityRapidUpdater extends Optimizer {
 								count.getAndIncrement();
 								PriorityRegister.JobCounter.getRegistry().remove(userId);
 							}
-							else {
-								executeQueryAndUpdateUserCounter(userId, v, registrySnapshot, registerLog, db);
+							else if (!executeQueryAndUpdateUserCounter(userId, v, registrySnapshot, ledger, registerLog, db)) {
+								failed.getAndIncrement();
 							}
 							t2.endTiming();
 							registerLog.append("Flushing values row by row to the database and subtracted ")
@@ -107,49 +254,258 @@ public class PriorityRapidUpdater extends Optimizer {
 									.append(" \n");
 						});
 					}
-
-					if (count.get() > 0) {
-						registerLog.append("Removed ")
-								.append(count.get())
-								.append(" inactive users from registry.\n");
-					}
-
-					t.endTiming();
-					logger.log(Level.INFO, "PriorityRapidUpdater used: " + t.getSeconds() + " seconds");
-					registerLog.append("PriorityRapidUpdater used: ")
-							.append(t.getSeconds())
-							.append(" seconds\n");
-
 				}
-				else {
-					logger.log(Level.INFO, "Counter registry is empty - nothing to update");
-					registerLog.append(" Counter registry is empty - nothing to update\n");
+
+				if (count.get() > 0) {
+					registerLog.append("Removed ")
+							.append(count.get())
+							.append(" inactive users from registry.\n");
 				}
 
-				DBSyncUtils.updateManual(PriorityRapidUpdater.class.getCanonicalName(), registerLog.toString());
+				t.endTiming();
+				logger.log(Level.INFO, "PriorityRapidUpdater used: " + t.getSeconds() + " seconds");
+				registerLog.append("PriorityRapidUpdater used: ")
+						.append(t.getSeconds())
+						.append(" seconds\n");
+
+			}
+			else {
+				logger.log(Level.INFO, "Counter registry is empty - nothing to update");
+				registerLog.append(" Counter registry is empty - nothing to update\n");
 			}
+
+			DBSyncUtils.updateManual(PriorityRapidUpdater.class.getCanonicalName(), registerLog.toString());
+			complete = true;
 		}
-		catch (Exception e) {
-			logger.log(Level.SEVERE, "PriorityRapidUpdater failed", e);
+		finally {
+			if (!complete || failed.get() > 0)
+				PriorityRegister.JobCounter.restoreOldestUnflushed(oldestUnflushed);
 		}
 	}
 
-	private static void executeQueryAndUpdateUserCounter(Integer userId, PriorityRegister.JobCounter v, Map<Integer, PriorityRegister.JobCounter> registrySnapshot, StringBuilder registerLog,
-			DBFunctions db) {
+	/**
+	 * @return <code>false</code> if the user's deltas could not be written
+	 */
+	private static boolean executeQueryAndUpdateUserCounter(Integer userId, PriorityRegister.JobCounter v, Map<Integer, PriorityRegister.JobCounter> registrySnapshot,
+			PriorityUsageLedger.Batch ledger, StringBuilder registerLog, DBFunctions db) {
+		PriorityRegister.JobCounter userCounter = registrySnapshot.get(userId);
+		if (userCounter == null) {
+			// counter created after the snapshot was taken, it will be flushed in the next iteration
+			return true;
+		}
+
 		try (Timing rtimer = new Timing(monitor, "TQ_single_row_update_ms")) {
-			boolean res = db.query(updateUserQuery(userId, v), false);
+			// write exactly the snapshotted values, the same ones that are subtracted afterwards
+			boolean res = db.query(updateUserQuery(userId, userCounter), false);
 			rtimer.endTiming();
 			logQueryTiming(rtimer, userId, registerLog);
 
 			if (res) {
-				PriorityRegister.JobCounter userCounter = registrySnapshot.get(userId);
-				if (userCounter != null) {
-					logAndSubtractUserCounter(userId, v, userCounter, registerLog);
+				logAndSubtractUserCounter(userId, v, userCounter, registerLog);
+				onFlushed(userId.intValue(), userCounter.getRunning(), userCounter.getCputime(), userCounter.getCost(), ledger);
+			}
+
+			return res;
+		}
+	}
+
+	/**
+	 * Flush the {@link StripedPriorityRegister}: flip its epoch, write the retired buffer to the database and fold back the rows that could not be written.
+	 * The writers keep incrementing the current buffer in the meantime, so every delta is written exactly once without blocking them.
+	 *
+	 * @param db
+	 * @param registerLog
+	 */
+	private static void flushStripedRegister(DBFunctions db, PriorityUsageLedger.Batch ledger, StringBuilder registerLog) {
+		try (Timing t = new Timing(monitor, "TQ_updatePriority_ms")) {
+			final long oldestUnflushed = StripedPriorityRegister.getOldestUnflushed();
+			final StripedPriorityRegister.Snapshot snapshot = StripedPriorityRegister.flip();
+
+			registerLog.append("StripedPriorityRegister size: ")
+					.append(StripedPriorityRegister.size())
+					.append(", users with deltas: ")
+					.append(snapshot.size())
+					.append("\n");
+
+			if (snapshot.size() == 0) {
+				logger.log(Level.INFO, "Counter registry is empty - nothing to update");
+				return;
+			}
+
+			int failed = 0;
+			try (Timing t2 = new Timing(monitor, "TQ_updatePriority_db_ms")) {
+				final boolean[] written = isBulkFlush()
+						? executeBulkUpdate(db, snapshot.size(), snapshot::getUserId, snapshot::getWaiting, snapshot::getRunning, snapshot::getCputime, snapshot::getCost, registerLog)
+						: null;
+
+				for (int i = 0; i < snapshot.size(); i++) {
+					final boolean res = written != null ? written[i]
+							: db.query(UPDATE_USER_QUERY, false, Integer.valueOf(snapshot.getWaiting(i)), Integer.valueOf(snapshot.getRunning(i)), Long.valueOf(snapshot.getCputime(i)),
+									Double.valueOf(snapshot.getCost(i)), Integer.valueOf(snapshot.getUserId(i)));
+
+					if (res) {
+						onFlushed(snapshot.getUserId(i), snapshot.getRunning(i), snapshot.getCputime(i), snapshot.getCost(i), ledger);
+					}
+					else {
+						StripedPriorityRegister.foldBack(snapshot, i);
+						failed++;
+					}
+				}
+			}
+
+			t.endTiming();
+			logger.log(Level.INFO, "PriorityRapidUpdater flushed " + (snapshot.size() - failed) + " users in " + t.getMillis() + " ms, " + failed + " folded back");
+			registerLog.append("Flushed ")
+					.append(snapshot.size() - failed)
+					.append(" users in ")
+					.append(t.getMillis())
+					.append(" ms, ")
+					.append(failed)
+					.append(" failed and were folded back into the register\n");
+
+			if (failed > 0) {
+				monitor.incrementCounter("TQ_updatePriority_folded_back", failed);
+
+				// the folded back deltas keep their age, so the age trigger still fires for them
+				StripedPriorityRegister.restoreOldestUnflushed(oldestUnflushed);
+			}
+		}
+	}
+
+	private static boolean isBulkFlush() {
+		return ConfigUtils.getConfig().getb("alien.optimizers.priority.PriorityRapidUpdater.bulkFlush", false);
+	}
+
+	/**
+	 * Bulk variant of the row by row flush of {@link PriorityRegister.JobCounter}: all non-empty snapshotted counters are written with a few multi-row statements,
+	 * then subtracted from the live counters for the chunks that were written successfully.
+	 *
+	 * @return number of counters that could not be written
+	 */
+	private static int flushRegistryBulk(DBFunctions db, Map<Integer, PriorityRegister.JobCounter> registrySnapshot, AtomicInteger removed, PriorityUsageLedger.Batch ledger,
+			StringBuilder registerLog) {
+		final List<Integer> userIds = new ArrayList<>(registrySnapshot.size());
+		final List<PriorityRegister.JobCounter> counters = new ArrayList<>(registrySnapshot.size());
+
+		registrySnapshot.forEach((userId, snapshotCounter) -> {
+			if (isUserInactive(snapshotCounter)) {
+				final PriorityRegister.JobCounter live = PriorityRegister.JobCounter.getRegistry().get(userId);
+				if (live != null && isUserInactive(live)) {
+					removed.getAndIncrement();
+					PriorityRegister.JobCounter.getRegistry().remove(userId);
+				}
+			}
+			else {
+				userIds.add(userId);
+				counters.add(snapshotCounter);
+			}
+		});
+
+		try (Timing t = new Timing(monitor, "TQ_updatePriority_db_ms")) {
+			final boolean[] written = executeBulkUpdate(db, userIds.size(), i -> userIds.get(i).intValue(), i -> counters.get(i).getWaiting(), i -> counters.get(i).getRunning(),
+					i -> counters.get(i).getCputime(), i -> counters.get(i).getCost(), registerLog);
+
+			int failed = 0;
+			for (int i = 0; i < written.length; i++) {
+				final PriorityRegister.JobCounter snapshotCounter = counters.get(i);
+
+				if (written[i]) {
+					final PriorityRegister.JobCounter live = PriorityRegister.JobCounter.getRegistry().get(userIds.get(i));
+					if (live != null)
+						live.subtractValues(snapshotCounter);
+
+					onFlushed(userIds.get(i).intValue(), snapshotCounter.getRunning(), snapshotCounter.getCputime(), snapshotCounter.getCost(), ledger);
 				}
+				else
+					failed++;
 			}
+
+			t.endTiming();
+			logger.log(Level.INFO, "Bulk flushed and subtracted " + (written.length - failed) + " counters in " + t.getMillis() + " ms, " + failed + " left for the next iteration");
+			registerLog.append("Bulk flushed and subtracted ")
+					.append(written.length - failed)
+					.append(" counters in ")
+					.append(t.getMillis())
+					.append(" ms, ")
+					.append(failed)
+					.append(" left for the next iteration\n");
+
+			return failed;
 		}
 	}
 
+	/**
+	 * Write the deltas of <code>size</code> users with chunked multi-row UPDATE statements, joining PRIORITY with the deltas of the chunk. They apply the same
+	 * arithmetic as the per-user UPDATE and, like it, do nothing for a user that has no PRIORITY row. A chunk that fails is written again row by row, so one bad
+	 * row only keeps its own deltas for the next flush.
+	 *
+	 * @return for each entry, whether it was written
+	 */
+	private static boolean[] executeBulkUpdate(DBFunctions db, int size, IntUnaryOperator userId, IntUnaryOperator waiting, IntUnaryOperator running, IntToLongFunction cputime,
+			IntToDoubleFunction cost, StringBuilder registerLog) {
+		final int chunkSize = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.priority.PriorityRapidUpdater.chunkSize", 500));
+		final boolean[] written = new boolean[size];
+
+		int chunks = 0;
+		int failedChunks = 0;
+
+		for (int from = 0; from < size; from += chunkSize) {
+			final int to = Math.min(size, from + chunkSize);
+
+			final StringBuilder query = new StringBuilder("UPDATE PRIORITY p JOIN (");
+			final Object[] parameters = new Object[(to - from) * 5];
+
+			int p = 0;
+			for (int i = from; i < to; i++) {
+				if (i > from)
+					query.append(" UNION ALL SELECT ?, ?, ?, ?, ?");
+				else
+					query.append("SELECT ? AS userId, ? AS waiting, ? AS running, ? AS cputime, ? AS cost");
+
+				parameters[p++] = Integer.valueOf(userId.applyAsInt(i));
+				parameters[p++] = Integer.valueOf(waiting.applyAsInt(i));
+				parameters[p++] = Integer.valueOf(running.applyAsInt(i));
+				parameters[p++] = Long.valueOf(cputime.applyAsLong(i));
+				parameters[p++] = Double.valueOf(cost.applyAsDouble(i));
+			}
+
+			query.append(") d USING (userId) SET p.waiting = GREATEST(0, p.waiting + d.waiting), p.running = GREATEST(0, p.running + d.running), ")
+					.append("p.totalRunningTimeLast24h = p.totalRunningTimeLast24h + d.cputime, p.totalCpuCostLast24h = p.totalCpuCostLast24h + d.cost, p.active = 1");
+
+			final boolean res;
+			try (Timing t = new Timing(monitor, "TQ_updatePriority_chunk_ms")) {
+				res = db.query(query.toString(), false, parameters);
+			}
+
+			if (res)
+				Arrays.fill(written, from, to, true);
+			else {
+				failedChunks++;
+
+				for (int i = from; i < to; i++)
+					written[i] = db.query(UPDATE_USER_QUERY, false, Integer.valueOf(waiting.applyAsInt(i)), Integer.valueOf(running.applyAsInt(i)), Long.valueOf(cputime.applyAsLong(i)),
+							Double.valueOf(cost.applyAsDouble(i)), Integer.valueOf(userId.applyAsInt(i)));
+			}
+
+			chunks++;
+		}
+
+		registerLog.append("Bulk flush of ")
+				.append(size)
+				.append(" users in ")
+				.append(chunks)
+				.append(" chunks of up to ")
+				.append(chunkSize)
+				.append(" rows, ")
+				.append(failedChunks)
+				.append(" chunks written again row by row\n");
+
+		return written;
+	}
+
+	private static final String UPDATE_USER_QUERY = "UPDATE PRIORITY SET waiting = GREATEST(0, waiting + ?), running = GREATEST(0, running + ?), totalRunningTimeLast24h = totalRunningTimeLast24h + ?, "
+			+ "totalCpuCostLast24h = totalCpuCostLast24h + ?, active = 1 WHERE userId = ?";
+
 	private static void logQueryTiming(Timing rtimer, Integer userId, StringBuilder registerLog) {
         logger.log(Level.INFO, "Flushing values to the database for user: "
                 + userId + " = " + TaskQueueUtils.getUser(userId.intValue())
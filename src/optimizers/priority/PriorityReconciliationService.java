@@ -6,8 +6,10 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
 import alien.priority.CalculateComputedPriority;
 import alien.priority.QueueProcessingDto;
+import alien.priority.UserUsageAccumulator;
 import alien.taskQueue.JobStatus;
 import alien.taskQueue.TaskQueueUtils;
 import lazyj.DBFunctions;
@@ -42,31 +44,11 @@ public class PriorityReconciliationService extends Optimizer {
 		this.setSleepPeriod(3600 * 1000); // 1h
 		int frequency = (int) this.getSleepPeriod();
 
-		while (true) {
-			final boolean updated = DBSyncUtils.updatePeriodic(frequency, PriorityReconciliationService.class.getCanonicalName(), this);
-			try {
-				if (updated) {
-					reconcilePriority();
-				}
-			}
-			catch (Exception e) {
-				try {
-					logger.log(Level.SEVERE, "Exception executing optimizer", e);
-					DBSyncUtils.registerException(PriorityReconciliationService.class.getCanonicalName(), e);
-				}
-				catch (Exception e2) {
-					logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
-				}
+		OptimizerScheduler.run(PriorityReconciliationService.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_RATE, true, () -> {
+			if (DBSyncUtils.updatePeriodic(frequency, PriorityReconciliationService.class.getCanonicalName(), this)) {
+				reconcilePriority();
 			}
-
-			try {
-				logger.log(Level.INFO, "ReconcilePriority sleeps " + this.getSleepPeriod() + " ms");
-				sleep(this.getSleepPeriod());
-			}
-			catch (InterruptedException e) {
-				logger.log(Level.WARNING, "PriorityReconciliationService interrupted", e);
-			}
-		}
+		});
 	}
 
 	private static void reconcilePriority() {
@@ -78,21 +60,29 @@ public class PriorityReconciliationService extends Optimizer {
 
 			db.setQueryTimeout(60);
 
-			String findActiveUsersQuery = getActiveUsersQuery(getRunningAndFinalStates());
+			final AggregationMode mode = getAggregationMode();
 			try (Timing t = new Timing(monitor, "TQ_reconcilePriority_ms"); Timing t2 = new Timing(monitor, "TQ_reconcilePriority_db_ms")) {
-				logger.log(Level.INFO, "Retrieving active users");
+				logger.log(Level.INFO, "Retrieving active users, aggregation mode " + mode);
 
-				db.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
-				db.query(findActiveUsersQuery);
+				queryActiveUsers(db, mode);
 				t2.endTiming();
 
 				logger.log(Level.INFO, "Retrieving active users took " + t2.getMillis() + " ms");
 				StringBuilder registerLog = new StringBuilder("Retrieving active users in ").append(t2.getMillis()).append(" ms\n");
 
-				Map<Integer, QueueProcessingDto> activeUsersGroupedById = getActiveUsers(db);
+				Map<Integer, QueueProcessingDto> activeUsersGroupedById;
+				try (Timing t4 = new Timing(monitor, "TQ_reconcilePriority_aggregate_ms")) {
+					activeUsersGroupedById = aggregateActiveUsers(db, mode);
+				}
+
+				// with the ledger enabled the 24h totals are maintained by PriorityRapidUpdater, this pass only verifies them
+				final boolean ledger = PriorityUsageLedger.isEnabled();
+				if (ledger) {
+					PriorityUsageLedger.checkConsistency(db, activeUsersGroupedById, registerLog);
+				}
 
 				if (!activeUsersGroupedById.isEmpty()) {
-					updateUsageForActiveUsers(activeUsersGroupedById, registerLog, db);
+					updateUsageForActiveUsers(activeUsersGroupedById, !ledger, registerLog, db);
 				}
 				else {
 					logger.log(Level.INFO, "No active users to update");
@@ -122,7 +112,7 @@ public class PriorityReconciliationService extends Optimizer {
 
 				try (Timing timeNonActive = new Timing(monitor, "TQ_update_non_active_ms")) {
 					if (!nonActiveUsersLast24H.isEmpty()) {
-						updateUsageForNonActiveUsers(nonActiveUsersLast24H, registerLog, db, timeNonActive);
+						updateUsageForNonActiveUsers(nonActiveUsersLast24H, !ledger, registerLog, db, timeNonActive);
 					}
 					else {
 						logger.log(Level.INFO, "No non active users to update");
@@ -138,7 +128,7 @@ public class PriorityReconciliationService extends Optimizer {
 		}
 	}
 
-	private static void updateUsageForNonActiveUsers(Set<Integer> nonActiveUsersLast24H, StringBuilder registerLog, DBFunctions db, Timing t) {
+	private static void updateUsageForNonActiveUsers(Set<Integer> nonActiveUsersLast24H, boolean includeUsage, StringBuilder registerLog, DBFunctions db, Timing t) {
 		logger.log(Level.INFO, "Updating priority for non active users " + nonActiveUsersLast24H.size());
 		t.startTiming();
 		StringBuilder updateNonActiveUsersQuery = getUpdatePriorityQuery();
@@ -163,8 +153,7 @@ public class PriorityReconciliationService extends Optimizer {
 					.append(")");
 		}
 
-		updateNonActiveUsersQuery.append(" ON DUPLICATE KEY UPDATE totalCpuCostLast24h = VALUES(totalCpuCostLast24h), " +
-				"totalRunningTimeLast24h = VALUES(totalRunningTimeLast24h), running = VALUES(running), waiting = VALUES(waiting)");
+		updateNonActiveUsersQuery.append(getOnDuplicateKey(includeUsage));
 		db.query(updateNonActiveUsersQuery.toString(), false);
 
 		t.endTiming();
@@ -175,7 +164,7 @@ public class PriorityReconciliationService extends Optimizer {
 				.append(" ms\n");
 		logger.log(Level.INFO, "Updating PRIORITY table for non active users took " + t.getMillis() + " ms");
 	}
-	private static void updateUsageForActiveUsers(Map<Integer, QueueProcessingDto> activeUsersGroupedById, StringBuilder registerLog, DBFunctions db) {
+	private static void updateUsageForActiveUsers(Map<Integer, QueueProcessingDto> activeUsersGroupedById, boolean includeUsage, StringBuilder registerLog, DBFunctions db) {
 		logger.log(Level.INFO, "Updating totalCpuCostLast24h, totalRunningTimeLast24h and running column in PRIORITY table for " + activeUsersGroupedById.size() + " active users.");
 		
 		boolean first = true;
@@ -203,9 +192,7 @@ public class PriorityReconciliationService extends Optimizer {
 						.append(")");
 			}
 
-			final String onDuplicateKey = " ON DUPLICATE KEY UPDATE totalCpuCostLast24h = VALUES(totalCpuCostLast24h), " +
-					"totalRunningTimeLast24h = VALUES(totalRunningTimeLast24h), running = VALUES(running), waiting = VALUES(waiting)";
-			updateActiveUsersQuery.append(onDuplicateKey);
+			updateActiveUsersQuery.append(getOnDuplicateKey(includeUsage));
 			db.query(updateActiveUsersQuery.toString(), false);
 
 			t5.endTiming();
@@ -236,6 +223,133 @@ public class PriorityReconciliationService extends Optimizer {
 		return activeUsersGroupedById;
 	}
 
+	/**
+	 * Where the per-user usage of the last 24h is summed up
+	 */
+	public enum AggregationMode {
+		/**
+		 * One row per job, summed in {@link QueueProcessingDto}
+		 */
+		JAVA,
+		/**
+		 * One row per job, streamed into a primitive per-user accumulator
+		 */
+		STREAMING,
+		/**
+		 * One row per user, summed by the database with GROUP BY
+		 */
+		DATABASE
+	}
+
+	/**
+	 * @return the configured aggregation mode, {@link AggregationMode#JAVA} by default or if the value is not understood
+	 */
+	public static AggregationMode getAggregationMode() {
+		final String mode = ConfigUtils.getConfig().gets("alien.optimizers.priority.PriorityReconciliationService.aggregation", "java");
+
+		try {
+			return AggregationMode.valueOf(mode.trim().toUpperCase());
+		}
+		catch (IllegalArgumentException e) {
+			logger.log(Level.WARNING, "Unknown aggregation mode " + mode + ", falling back to " + AggregationMode.JAVA, e);
+			return AggregationMode.JAVA;
+		}
+	}
+
+	/**
+	 * Run the active users query in the shape expected by the given aggregation mode
+	 *
+	 * @param db
+	 * @param mode
+	 * @return query result
+	 */
+	public static boolean queryActiveUsers(DBFunctions db, AggregationMode mode) {
+		db.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+
+		if (mode == AggregationMode.DATABASE)
+			return db.query(getAggregatedActiveUsersQuery());
+
+		// the streaming mode reads its pages itself, in aggregateActiveUsers
+		if (mode == AggregationMode.STREAMING)
+			return true;
+
+		return db.query(getActiveUsersQuery(getRunningAndFinalStates()));
+	}
+
+	/**
+	 * Consume the result of {@link #queryActiveUsers(DBFunctions, AggregationMode)}
+	 *
+	 * @param db
+	 * @param mode
+	 * @return usage per user
+	 */
+	public static Map<Integer, QueueProcessingDto> aggregateActiveUsers(DBFunctions db, AggregationMode mode) {
+		switch (mode) {
+			case STREAMING:
+				return getActiveUsersStreaming(db);
+			case DATABASE:
+				return getActiveUsersAggregated(db);
+			default:
+				return getActiveUsers(db);
+		}
+	}
+
+	private static Map<Integer, QueueProcessingDto> getActiveUsersAggregated(DBFunctions db) {
+		Map<Integer, QueueProcessingDto> activeUsersGroupedById = new HashMap<>();
+		while (db.moveNext()) {
+			int userId = db.geti(1);
+			activeUsersGroupedById.put(Integer.valueOf(userId), new QueueProcessingDto(userId, db.getd(2), db.getl(3), db.geti(4), db.geti(5)));
+		}
+		return activeUsersGroupedById;
+	}
+
+	/**
+	 * Same result as {@link #getActiveUsers(DBFunctions)}, but the rows are read by column index into a primitive per-user accumulator, in pages of
+	 * <code>pageSize</code> jobs walking the QUEUE primary key. The driver buffers one page at a time whatever the connection settings, so memory use is bounded
+	 * by the page size and the number of users instead of the number of jobs.
+	 *
+	 * @throws IllegalStateException if a page cannot be read, a partial result would reset the usage of the users that were not read yet
+	 */
+	private static Map<Integer, QueueProcessingDto> getActiveUsersStreaming(DBFunctions db) {
+		final UserUsageAccumulator accumulator = new UserUsageAccumulator(ConfigUtils.getConfig().geti("alien.optimizers.priority.PriorityReconciliationService.expectedUsers", 2048));
+		final int pageSize = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.priority.PriorityReconciliationService.pageSize", 50000));
+		final String query = getActiveUsersPageQuery(getRunningAndFinalStates(), pageSize);
+
+		// one cutoff for all the pages, taken from the database clock like the single query does
+		if (!db.query("SELECT NOW() - INTERVAL 1 DAY") || !db.moveNext())
+			throw new IllegalStateException("Could not read the cutoff time of the active jobs");
+
+		final String cutoff = db.gets(1);
+
+		long rows = 0;
+		long lastQueueId = 0;
+		int pages = 0;
+
+		while (true) {
+			if (!db.query(query, false, Long.valueOf(lastQueueId), cutoff))
+				throw new IllegalStateException("Could not read the active jobs after queueId " + lastQueueId);
+
+			int pageRows = 0;
+			while (db.moveNext()) {
+				lastQueueId = db.getl(1);
+				accumulator.add(db.geti(2), db.getd(3), db.getl(4), db.geti(5), db.geti(6));
+				pageRows++;
+			}
+
+			rows += pageRows;
+			pages++;
+
+			if (pageRows < pageSize)
+				break;
+		}
+
+		monitor.addMeasurement("TQ_reconcilePriority_rows", rows);
+		monitor.addMeasurement("TQ_reconcilePriority_pages", pages);
+		logger.log(Level.INFO, "Aggregated " + rows + " rows in " + pages + " pages into " + accumulator.size() + " users");
+
+		return accumulator.toMap();
+	}
+
 	private static String getRunningAndFinalStates() {
 		Set<String> uniqueStates = Stream.of(JobStatus.runningStates(), JobStatus.finalStates(), Set.of(JobStatus.WAITING))
 				.flatMap(Set::stream)
@@ -253,6 +367,46 @@ public class PriorityReconciliationService extends Optimizer {
 				" OR p.lastupdate > NOW() - INTERVAL 1 DAY);";
 	}
 
+	/**
+	 * Same filter as {@link #getActiveUsersQuery(String)}, one page of jobs after a given queueId, with the 24h cutoff bound as the second parameter
+	 */
+	private static String getActiveUsersPageQuery(String states, int pageSize) {
+		return "SELECT q.queueId, q.userId, p.cost, p.cputime, q.cpucores, q.statusId FROM QUEUE q " +
+				"join QUEUEPROC p on q.queueId = p.queueId " +
+				"WHERE q.queueId > ? AND q.statusId IN (" + states + ") " +
+				"AND (statusId = " + JobStatus.WAITING.getAliEnLevel() +
+				" OR p.lastupdate > ?) " +
+				"ORDER BY q.queueId LIMIT " + pageSize;
+	}
+
+	/**
+	 * Same filter and the same accounting as {@link #getActiveUsersQuery(String)} + {@link QueueProcessingDto#addAccounting(double, long, int, int)}, but summed by
+	 * the database so that only one row per user is returned
+	 */
+	private static String getAggregatedActiveUsersQuery() {
+		String runningStates = JobStatus.runningStates().stream()
+				.map(JobStatus::getAliEnLevel)
+				.map(String::valueOf)
+				.collect(Collectors.joining(", "));
+
+		return "SELECT q.userId, SUM(p.cost) AS cost, SUM(p.cputime) AS cputime, " +
+				"SUM(CASE WHEN q.statusId IN (" + runningStates + ") THEN q.cpucores ELSE 0 END) AS cpucores, " +
+				"SUM(CASE WHEN q.statusId = " + JobStatus.WAITING.getAliEnLevel() + " THEN 1 ELSE 0 END) AS waiting FROM QUEUE q " +
+				"join QUEUEPROC p on q.queueId = p.queueId " +
+				"WHERE q.statusId IN (" + getRunningAndFinalStates() + ") " +
+				"AND (statusId = " + JobStatus.WAITING.getAliEnLevel() +
+				" OR p.lastupdate > NOW() - INTERVAL 1 DAY) " +
+				"GROUP BY q.userId;";
+	}
+
+	private static String getOnDuplicateKey(boolean includeUsage) {
+		if (!includeUsage)
+			return " ON DUPLICATE KEY UPDATE running = VALUES(running), waiting = VALUES(waiting)";
+
+		return " ON DUPLICATE KEY UPDATE totalCpuCostLast24h = VALUES(totalCpuCostLast24h), " +
+				"totalRunningTimeLast24h = VALUES(totalRunningTimeLast24h), running = VALUES(running), waiting = VALUES(waiting)";
+	}
+
 	private static StringBuilder getUpdatePriorityQuery() {
 		return new StringBuilder("INSERT INTO PRIORITY (userId, totalCpuCostLast24h, totalRunningTimeLast24h, running, waiting) VALUES ");
 	}
@@ -0,0 +1,332 @@
+package alien.optimizers.priority;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.Timing;
+import alien.optimizers.DBSyncUtils;
+import alien.optimizers.Optimizer;
+import alien.priority.QueueProcessingDto;
+import alien.taskQueue.JobStatus;
+import lazyj.DBFunctions;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Rolling 24h usage ledger. The flushed cost and CPU time deltas are appended to per-user time buckets, and once per bucket the PRIORITY 24h totals are
+ * rewritten from the buckets still inside the window while the expired ones are dropped. This keeps <code>totalCpuCostLast24h</code> and
+ * <code>totalRunningTimeLast24h</code> exact between two {@link PriorityReconciliationService} passes, which then only have to check the ledger against QUEUE.
+ * <p>
+ * Table layout:
+ *
+ * <pre>
+ * CREATE TABLE PRIORITY_USAGE_LEDGER (
+ *   userId int NOT NULL,
+ *   bucket int NOT NULL,
+ *   cost double NOT NULL DEFAULT 0,
+ *   cputime bigint NOT NULL DEFAULT 0,
+ *   PRIMARY KEY (userId, bucket),
+ *   KEY bucket (bucket)
+ * );
+ * </pre>
+ *
+ * where <code>bucket</code> is the epoch time in seconds divided by the bucket length. The row of <code>userId</code> 0 is not usage but the bucket of the
+ * last slide, shared by all servers. When it is missing or older than the window, as at the rollout or after the ledger was disabled for a day, the ledger
+ * is rebuilt from QUEUEPROC before sliding, the same way {@link PriorityReconciliationService} accounts the usage. Until the next flush the rebuilt totals
+ * also count the deltas that are already in QUEUEPROC but still pending in a register, the next consistency check reports them if they matter.
+ *
+ * @since 2026-10-17
+ */
+public class PriorityUsageLedger {
+	/**
+	 * Logger
+	 */
+	static final Logger logger = ConfigUtils.getLogger(PriorityUsageLedger.class.getCanonicalName());
+
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(PriorityUsageLedger.class.getCanonicalName());
+
+	private static final long WINDOW_SECONDS = 24 * 3600;
+
+	/**
+	 * <code>userId</code> of the row holding the bucket of the last slide
+	 */
+	private static final int SLIDE_MARKER = 0;
+
+	private static long lastSlideBucket = -1;
+
+	/**
+	 * @return <code>true</code> if the flushed usage should be recorded in the ledger and the 24h totals derived from it
+	 */
+	public static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb("alien.optimizers.priority.PriorityUsageLedger.enabled", false);
+	}
+
+	/**
+	 * @return length of one bucket in seconds, 5 minutes by default
+	 */
+	static int getBucketSeconds() {
+		return Math.max(60, ConfigUtils.getConfig().geti("alien.optimizers.priority.PriorityUsageLedger.bucketSeconds", 300));
+	}
+
+	private static long currentBucket() {
+		return System.currentTimeMillis() / 1000 / getBucketSeconds();
+	}
+
+	/**
+	 * Usage deltas collected during one flush, to be appended to the ledger in one go
+	 */
+	static final class Batch {
+		private int size = 0;
+		private int[] userIds = new int[64];
+		private double[] cost = new double[64];
+		private long[] cputime = new long[64];
+
+		void add(final int userId, final long userCputime, final double userCost) {
+			if (userCputime == 0 && userCost == 0)
+				return;
+
+			if (size == userIds.length) {
+				userIds = Arrays.copyOf(userIds, size * 2);
+				cost = Arrays.copyOf(cost, size * 2);
+				cputime = Arrays.copyOf(cputime, size * 2);
+			}
+
+			userIds[size] = userId;
+			cost[size] = userCost;
+			cputime[size] = userCputime;
+			size++;
+		}
+
+		int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Add the flushed deltas to the current bucket of each user
+	 *
+	 * @param db
+	 * @param batch
+	 */
+	static void append(final DBFunctions db, final Batch batch) {
+		if (batch.size() == 0)
+			return;
+
+		final int chunkSize = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.priority.PriorityUsageLedger.chunkSize", 500));
+		final Long bucket = Long.valueOf(currentBucket());
+
+		for (int from = 0; from < batch.size; from += chunkSize) {
+			final int to = Math.min(batch.size, from + chunkSize);
+
+			final StringBuilder query = new StringBuilder("INSERT INTO PRIORITY_USAGE_LEDGER (userId, bucket, cost, cputime) VALUES ");
+			final Object[] parameters = new Object[(to - from) * 4];
+
+			int p = 0;
+			for (int i = from; i < to; i++) {
+				if (i > from)
+					query.append(", ");
+
+				query.append("(?, ?, ?, ?)");
+				parameters[p++] = Integer.valueOf(batch.userIds[i]);
+				parameters[p++] = bucket;
+				parameters[p++] = Double.valueOf(batch.cost[i]);
+				parameters[p++] = Long.valueOf(batch.cputime[i]);
+			}
+
+			query.append(" ON DUPLICATE KEY UPDATE cost = cost + VALUES(cost), cputime = cputime + VALUES(cputime)");
+
+			try (Timing t = new Timing(monitor, "TQ_ledger_append_ms")) {
+				if (!db.query(query.toString(), false, parameters))
+					logger.log(Level.WARNING, "Could not append " + (to - from) + " users to the usage ledger, the next reconciliation will correct their totals");
+			}
+		}
+	}
+
+	/**
+	 * Once per bucket, drop the buckets that left the 24h window and rewrite the PRIORITY totals from the remaining ones. The servers elect one of them every
+	 * <code>retrySeconds</code> (60 by default) until the slide marker records the bucket, so a slide that failed is picked up again by the next election
+	 * instead of waiting for the next bucket.
+	 *
+	 * @param db
+	 * @param owner optimizer running the flush, for the election
+	 * @param registerLog
+	 */
+	static void slideWindow(final DBFunctions db, final Optimizer owner, final StringBuilder registerLog) {
+		final long bucket = currentBucket();
+
+		synchronized (PriorityUsageLedger.class) {
+			if (bucket == lastSlideBucket)
+				return;
+		}
+
+		// the election only spaces the attempts, the bucket is done once the marker says so
+		final int retrySeconds = Math.max(10, Math.min(getBucketSeconds(), ConfigUtils.getConfig().geti("alien.optimizers.priority.PriorityUsageLedger.retrySeconds", 60)));
+
+		if (!DBSyncUtils.updatePeriodic(retrySeconds * 1000, PriorityUsageLedger.class.getCanonicalName(), owner))
+			return;
+
+		final long oldestBucket = bucket - WINDOW_SECONDS / getBucketSeconds() + 1;
+		final String retry = ", retrying after the next election in " + retrySeconds + " s";
+
+		try (Timing t = new Timing(monitor, "TQ_ledger_slide_ms")) {
+			if (!db.query("SELECT bucket FROM PRIORITY_USAGE_LEDGER WHERE userId = ?", false, Integer.valueOf(SLIDE_MARKER))) {
+				logger.log(Level.WARNING, "Could not read the last slide of the usage ledger" + retry);
+				return;
+			}
+
+			final long lastSlid = db.moveNext() ? db.getl(1) : 0;
+
+			if (lastSlid >= bucket) {
+				// another server already slid this bucket
+				synchronized (PriorityUsageLedger.class) {
+					lastSlideBucket = bucket;
+				}
+				return;
+			}
+
+			final boolean covered = lastSlid >= oldestBucket;
+
+			if (!covered && !backfill(db, registerLog)) {
+				logger.log(Level.WARNING, "The usage ledger does not cover the last 24h and could not be rebuilt" + retry);
+				return;
+			}
+
+			if (!db.query("DELETE FROM PRIORITY_USAGE_LEDGER WHERE bucket < ? AND userId != ?", false, Long.valueOf(oldestBucket), Integer.valueOf(SLIDE_MARKER))) {
+				logger.log(Level.WARNING, "Could not expire the usage ledger buckets" + retry);
+				return;
+			}
+
+			final int expired = db.getUpdateCount();
+
+			if (!db.query("UPDATE PRIORITY p LEFT JOIN (SELECT userId, SUM(cost) AS cost, SUM(cputime) AS cputime FROM PRIORITY_USAGE_LEDGER WHERE userId != ? GROUP BY userId) l USING (userId) "
+					+ "SET p.totalCpuCostLast24h = COALESCE(l.cost, 0), p.totalRunningTimeLast24h = COALESCE(l.cputime, 0) "
+					+ "WHERE l.userId IS NOT NULL OR p.totalCpuCostLast24h > 0 OR p.totalRunningTimeLast24h > 0", false, Integer.valueOf(SLIDE_MARKER))) {
+				logger.log(Level.WARNING, "Could not rewrite the 24h totals from the usage ledger" + retry);
+				return;
+			}
+
+			final int updated = db.getUpdateCount();
+
+			if (!db.query("INSERT INTO PRIORITY_USAGE_LEDGER (userId, bucket, cost, cputime) VALUES (?, ?, 0, 0) ON DUPLICATE KEY UPDATE bucket = VALUES(bucket)", false,
+					Integer.valueOf(SLIDE_MARKER), Long.valueOf(bucket)))
+				logger.log(Level.WARNING, "Could not record the slide of the usage ledger, the next slide will rebuild it if it is a day late");
+
+			synchronized (PriorityUsageLedger.class) {
+				lastSlideBucket = bucket;
+			}
+
+			t.endTiming();
+			monitor.addMeasurement("TQ_ledger_expired_buckets", expired);
+			logger.log(Level.INFO, "Usage ledger slid to bucket " + bucket + ", expired " + expired + " buckets and updated " + updated + " PRIORITY rows in " + t.getMillis() + " ms");
+			registerLog.append("Usage ledger expired ")
+					.append(expired)
+					.append(" buckets and updated the 24h totals of ")
+					.append(updated)
+					.append(" users in ")
+					.append(t.getMillis())
+					.append(" ms\n");
+		}
+	}
+
+	/**
+	 * Replace the ledger content with the usage of the last 24h found in QUEUEPROC, each job in the bucket of its last update
+	 *
+	 * @return <code>false</code> if the ledger could not be rebuilt
+	 */
+	private static boolean backfill(final DBFunctions db, final StringBuilder registerLog) {
+		final Set<String> states = new HashSet<>();
+		for (JobStatus status : JobStatus.runningStates())
+			states.add(String.valueOf(status.getAliEnLevel()));
+		for (JobStatus status : JobStatus.finalStates())
+			states.add(String.valueOf(status.getAliEnLevel()));
+
+		try (Timing t = new Timing(monitor, "TQ_ledger_backfill_ms")) {
+			if (!db.query("DELETE FROM PRIORITY_USAGE_LEDGER WHERE userId != ?", false, Integer.valueOf(SLIDE_MARKER))) {
+				logger.log(Level.WARNING, "Could not clear the usage ledger before rebuilding it");
+				return false;
+			}
+
+			if (!db.query("INSERT INTO PRIORITY_USAGE_LEDGER (userId, bucket, cost, cputime) "
+					+ "SELECT q.userId, FLOOR(UNIX_TIMESTAMP(p.lastupdate) / ?) AS b, SUM(p.cost), SUM(p.cputime) FROM QUEUE q join QUEUEPROC p on q.queueId = p.queueId "
+					+ "WHERE q.statusId IN (" + String.join(", ", states) + ") AND p.lastupdate > NOW() - INTERVAL 1 DAY "
+					+ "GROUP BY q.userId, b", false, Integer.valueOf(getBucketSeconds()))) {
+				logger.log(Level.WARNING, "Could not rebuild the usage ledger from QUEUEPROC");
+				return false;
+			}
+
+			final int rows = db.getUpdateCount();
+
+			t.endTiming();
+			logger.log(Level.INFO, "Usage ledger rebuilt from QUEUEPROC with " + rows + " buckets in " + t.getMillis() + " ms");
+			registerLog.append("Usage ledger rebuilt from QUEUEPROC with ").append(rows).append(" buckets in ").append(t.getMillis()).append(" ms\n");
+
+			return true;
+		}
+	}
+
+	/**
+	 * Compare the ledger totals with the usage found in QUEUE/QUEUEPROC and report the users that drifted apart
+	 *
+	 * @param db
+	 * @param activeUsers usage of the last 24h according to QUEUE/QUEUEPROC
+	 * @param registerLog
+	 * @return number of users whose ledger cost or CPU time is off by more than the configured tolerance, or -1 if the ledger could not be read
+	 */
+	static int checkConsistency(final DBFunctions db, final Map<Integer, QueueProcessingDto> activeUsers, final StringBuilder registerLog) {
+		final double tolerance = ConfigUtils.getConfig().getd("alien.optimizers.priority.PriorityUsageLedger.tolerance", 0.05);
+
+		final Map<Integer, double[]> ledger = new HashMap<>();
+		if (!db.query("SELECT userId, SUM(cost), SUM(cputime) FROM PRIORITY_USAGE_LEDGER WHERE userId != ? GROUP BY userId", false, Integer.valueOf(SLIDE_MARKER))) {
+			logger.log(Level.WARNING, "Could not read the usage ledger, skipping the consistency check");
+			registerLog.append("Usage ledger consistency check skipped, the ledger could not be read\n");
+			return -1;
+		}
+
+		while (db.moveNext())
+			ledger.put(Integer.valueOf(db.geti(1)), new double[] { db.getd(2), db.getd(3) });
+
+		int drifted = 0;
+		final StringBuilder examples = new StringBuilder();
+
+		for (QueueProcessingDto dto : activeUsers.values()) {
+			final double[] sums = ledger.remove(Integer.valueOf(dto.getUserId()));
+			final double ledgerCost = sums != null ? sums[0] : 0;
+			final double ledgerCputime = sums != null ? sums[1] : 0;
+
+			if (Math.abs(ledgerCost - dto.getCost()) > tolerance * Math.max(1, dto.getCost())
+					|| Math.abs(ledgerCputime - dto.getCputime()) > tolerance * Math.max(1, dto.getCputime())) {
+				if (drifted++ < 10)
+					examples.append(" ").append(dto.getUserId()).append(" (ledger ").append(ledgerCost).append("/").append((long) ledgerCputime).append(", queue ")
+							.append(dto.getCost()).append("/").append(dto.getCputime()).append(")");
+			}
+		}
+
+		// users with ledger usage but no jobs in the window
+		for (double[] sums : ledger.values())
+			if (sums[0] > tolerance || sums[1] > tolerance)
+				drifted++;
+
+		monitor.addMeasurement("TQ_ledger_drifted_users", drifted);
+		registerLog.append("Usage ledger consistency check: ")
+				.append(drifted)
+				.append(" users drifted by more than ")
+				.append(tolerance * 100)
+				.append("%")
+				.append(examples)
+				.append("\n");
+
+		if (drifted > 0)
+			logger.log(Level.WARNING, "Usage ledger drifted for " + drifted + " users:" + examples);
+
+		return drifted;
+	}
+}
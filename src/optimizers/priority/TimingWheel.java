@@ -0,0 +1,191 @@
+package alien.optimizers.priority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * Hierarchical timing wheel of <code>long</code> keys (queueIds) with a deadline each. Level 0 has one slot per tick, every further level has slots
+ * {@value #SLOTS} times longer, and entries cascade down a level when their slot comes up. Arming, extending and cancelling are O(1), advancing costs one slot
+ * per elapsed tick plus the entries that are due.
+ * <p>
+ * Extending a deadline does not move the entry: it is only compared with its deadline again when its slot fires, and put back in the wheel if it was
+ * extended in the meantime. A key that is armed again on every heartbeat is therefore rescheduled at most once per timeout.
+ *
+ * @since 2026-10-17
+ */
+final class TimingWheel {
+	private static final int SLOT_BITS = 6;
+
+	private static final int SLOTS = 1 << SLOT_BITS;
+
+	private static final int SLOT_MASK = SLOTS - 1;
+
+	private static final int LEVELS = 4;
+
+	private static final class Entry {
+		final long key;
+
+		volatile long deadline;
+
+		Entry(final long key, final long deadline) {
+			this.key = key;
+			this.deadline = deadline;
+		}
+	}
+
+	private final long tickMillis;
+
+	private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+
+	private final List<List<Entry>> slots = new ArrayList<>(LEVELS * SLOTS);
+
+	/**
+	 * Last tick that was processed
+	 */
+	private long currentTick;
+
+	/**
+	 * @param tickMillis resolution of the wheel
+	 * @param nowMillis current time
+	 */
+	TimingWheel(final long tickMillis, final long nowMillis) {
+		this.tickMillis = Math.max(1, tickMillis);
+		this.currentTick = nowMillis / this.tickMillis;
+
+		for (int i = 0; i < LEVELS * SLOTS; i++)
+			slots.add(new ArrayList<>());
+	}
+
+	/**
+	 * Arm a key, or extend its deadline if it is already armed. An earlier deadline than the current one is ignored.
+	 *
+	 * @param key
+	 * @param deadlineMillis
+	 */
+	void arm(final long key, final long deadlineMillis) {
+		final Entry existing = entries.get(Long.valueOf(key));
+
+		if (existing != null) {
+			if (deadlineMillis > existing.deadline)
+				existing.deadline = deadlineMillis;
+
+			return;
+		}
+
+		// new keys are only added with the lock held, so they are scheduled exactly once
+		synchronized (this) {
+			final Entry entry = entries.get(Long.valueOf(key));
+
+			if (entry == null) {
+				final Entry created = new Entry(key, deadlineMillis);
+				entries.put(Long.valueOf(key), created);
+				schedule(created);
+			}
+			else if (deadlineMillis > entry.deadline)
+				entry.deadline = deadlineMillis;
+		}
+	}
+
+	/**
+	 * Forget a key, nothing is reported for it when its slot comes up
+	 *
+	 * @param key
+	 * @return <code>true</code> if the key was armed
+	 */
+	boolean cancel(final long key) {
+		return entries.remove(Long.valueOf(key)) != null;
+	}
+
+	/**
+	 * @param key
+	 * @return <code>true</code> if the key is armed
+	 */
+	boolean contains(final long key) {
+		return entries.containsKey(Long.valueOf(key));
+	}
+
+	/**
+	 * @return number of armed keys
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Process every tick up to <code>nowMillis</code> and report the keys whose deadline passed. Reported keys are no longer armed.
+	 *
+	 * @param nowMillis
+	 * @param expired receives the expired keys, called with the wheel locked
+	 * @return number of expired keys
+	 */
+	synchronized int advance(final long nowMillis, final LongConsumer expired) {
+		final long targetTick = nowMillis / tickMillis;
+
+		int count = 0;
+
+		while (currentTick < targetTick) {
+			currentTick++;
+
+			// cascade the higher levels whose slot starts at this tick, highest first so entries can fall through several levels
+			for (int level = LEVELS - 1; level > 0; level--) {
+				if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) != 0)
+					continue;
+
+				count += fire(level, (int) ((currentTick >>> (SLOT_BITS * level)) & SLOT_MASK), expired);
+			}
+
+			count += fire(0, (int) (currentTick & SLOT_MASK), expired);
+		}
+
+		return count;
+	}
+
+	private int fire(final int level, final int slot, final LongConsumer expired) {
+		final List<Entry> list = slots.get(level * SLOTS + slot);
+
+		if (list.isEmpty())
+			return 0;
+
+		final Entry[] due = list.toArray(new Entry[0]);
+		list.clear();
+
+		int count = 0;
+
+		for (final Entry entry : due) {
+			// cancelled, possibly armed again since as a different entry that sits in its own slot
+			if (entries.get(Long.valueOf(entry.key)) != entry)
+				continue;
+
+			// never report early, at most one tick late
+			if (entry.deadline > currentTick * tickMillis)
+				schedule(entry);
+			else if (entries.remove(Long.valueOf(entry.key), entry)) {
+				expired.accept(entry.key);
+				count++;
+			}
+		}
+
+		return count;
+	}
+
+	private void schedule(final Entry entry) {
+		final long deadlineTick = Math.max(currentTick + 1, (entry.deadline + tickMillis - 1) / tickMillis);
+		final long delta = deadlineTick - currentTick;
+
+		int level = 0;
+		while (level < LEVELS - 1 && delta >= (1L << (SLOT_BITS * (level + 1))))
+			level++;
+
+		final long slotTick;
+
+		if (delta >= (1L << (SLOT_BITS * LEVELS)))
+			// beyond the range of the wheel, park it in the furthest slot of the top level, it is looked at again when that slot cascades
+			slotTick = currentTick + (1L << (SLOT_BITS * LEVELS)) - (1L << (SLOT_BITS * (LEVELS - 1)));
+		else
+			slotTick = deadlineTick;
+
+		slots.get(level * SLOTS + (int) ((slotTick >>> (SLOT_BITS * level)) & SLOT_MASK)).add(entry);
+	}
+}
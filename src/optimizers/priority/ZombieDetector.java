@@ -0,0 +1,300 @@
+package alien.optimizers.priority;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.Timing;
+import alien.optimizers.DBSyncUtils;
+import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
+import alien.taskQueue.JobStatus;
+import alien.taskQueue.TaskQueueUtils;
+import lazyj.DBFunctions;
+
+/**
+ * Event driven detection of jobs that stopped sending heartbeats. Every heartbeat handled by this server calls {@link #heartbeat(long)}, which arms the job in
+ * a {@link TimingWheel} with a deadline of one timeout from now. When a deadline passes, the job is looked up by queueId: if QUEUEPROC has a more recent
+ * heartbeat (sent through another server) it is armed again from that time, otherwise it is moved to ZOMBIE right away.
+ * <p>
+ * Every <code>seedSeconds</code> (60 by default) one server, elected through {@link DBSyncUtils#updatePeriodic(int, String, Optimizer)}, arms the active jobs
+ * from their last heartbeat in QUEUEPROC, the other servers only follow the jobs whose heartbeats they handle. The first time a server is elected it loads
+ * all the active jobs; afterwards it only scans the queueId range starting at the oldest job that was still queued at its previous seed, since only those jobs
+ * can have become active in between. A job that started after the last seed and never sends a heartbeat through a server following it is therefore detected
+ * up to one seed period after its deadline, and the periodic scan of {@link InactiveJobHandler} stays as a low frequency safety net for whatever still falls
+ * through.
+ *
+ * @since 2026-10-17
+ */
+public class ZombieDetector extends Optimizer {
+	/**
+	 * Logger
+	 */
+	static final Logger logger = ConfigUtils.getLogger(ZombieDetector.class.getCanonicalName());
+
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(ZombieDetector.class.getCanonicalName());
+
+	private static final String PREFIX = "alien.optimizers.priority.ZombieDetector.";
+
+	/**
+	 * Wheel of the running detector, <code>null</code> while it is disabled so that heartbeats cost nothing
+	 */
+	private static volatile TimingWheel wheel = null;
+
+	private static volatile long timeoutMillis = 60 * 60 * 1000L;
+
+	/**
+	 * Next time this server asks to be elected for the seed, so the election does not cost a query on every tick
+	 */
+	private long nextSeedCheck = 0;
+
+	/**
+	 * queueId after which the next seed of this server starts, 0 until it loaded all the active jobs once
+	 */
+	private long seededUpTo = 0;
+
+	/**
+	 * @return <code>true</code> if the heartbeat driven detection is enabled in the configuration
+	 */
+	public static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb(PREFIX + "enabled", false);
+	}
+
+	/**
+	 * Record a heartbeat of an active job, pushing its deadline one timeout into the future
+	 *
+	 * @param queueId
+	 */
+	public static void heartbeat(final long queueId) {
+		final TimingWheel w = wheel;
+
+		if (w != null)
+			w.arm(queueId, System.currentTimeMillis() + timeoutMillis);
+	}
+
+	/**
+	 * Stop following a job that left the active states
+	 *
+	 * @param queueId
+	 */
+	public static void jobFinished(final long queueId) {
+		final TimingWheel w = wheel;
+
+		if (w != null)
+			w.cancel(queueId);
+	}
+
+	@Override
+	public void run() {
+		logger.log(Level.INFO, "ZombieDetector starting");
+		this.setSleepPeriod(60 * 1000);
+
+		OptimizerScheduler.run(ZombieDetector.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_DELAY, false, () -> {
+			if (isEnabled()) {
+				timeoutMillis = Math.max(60, ConfigUtils.getConfig().getl(PREFIX + "timeout", 60 * 60)) * 1000;
+
+				final long now = System.currentTimeMillis();
+				boolean elected = false;
+
+				if (now >= nextSeedCheck) {
+					final int seedPeriod = (int) Math.max(10, ConfigUtils.getConfig().getl(PREFIX + "seedSeconds", 60)) * 1000;
+
+					nextSeedCheck = now + seedPeriod;
+					elected = DBSyncUtils.updatePeriodic(seedPeriod, ZombieDetector.class.getCanonicalName(), this);
+				}
+
+				// after the election, which can feed back a different period from the database
+				this.setSleepPeriod(Math.max(100, ConfigUtils.getConfig().getl(PREFIX + "tickMillis", 1000)));
+
+				if (wheel == null)
+					wheel = new TimingWheel(this.getSleepPeriod(), now);
+
+				if (elected) {
+					final long next = seed(wheel, seededUpTo);
+
+					if (next >= 0)
+						seededUpTo = next;
+				}
+
+				tick(wheel);
+			}
+			else {
+				this.setSleepPeriod(60 * 1000);
+				nextSeedCheck = 0;
+				seededUpTo = 0;
+
+				if (wheel != null) {
+					logger.log(Level.INFO, "ZombieDetector disabled, dropping " + wheel.size() + " tracked jobs");
+					wheel = null;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Arm the active jobs with a queueId above <code>fromQueueId</code> from their last heartbeat in QUEUEPROC, jobs already followed keep the later of the two
+	 * deadlines. Starting from 0 loads all the active jobs.
+	 *
+	 * @return queueId to start the next seed from, or -1 if the jobs could not be loaded
+	 */
+	private static long seed(final TimingWheel w, final long fromQueueId) {
+		try (DBFunctions db = TaskQueueUtils.getQueueDB(); Timing t = new Timing(monitor, "TQ_zombie_detector_seed_ms")) {
+			if (db == null) {
+				logger.log(Level.SEVERE, "ZombieDetector could not get a DB connection to seed the timing wheel");
+				return -1;
+			}
+
+			db.setQueryTimeout(600);
+			db.setReadOnly(true);
+
+			// read before the active jobs, so that a job leaving the queue in between is found by one of the two queries
+			if (!db.query("SELECT MIN(queueId) FROM QUEUE WHERE queueId > ? AND statusId IN (" + JobStatus.INSERTING.getAliEnLevel() + "," + JobStatus.WAITING.getAliEnLevel()
+					+ ")", false, Long.valueOf(fromQueueId))) {
+				logger.log(Level.WARNING, "ZombieDetector could not find the oldest queued job, the seed is retried on the next election");
+				return -1;
+			}
+
+			final long oldestQueued = db.moveNext() ? db.getl(1) : 0;
+
+			if (!db.query("SELECT q.queueId, UNIX_TIMESTAMP(qp.lastupdate) FROM QUEUE q JOIN QUEUEPROC qp WHERE q.queueId = qp.queueId AND q.queueId > ? AND q.statusId IN ("
+					+ InactiveJobHandler.getActiveStates() + ")", false, Long.valueOf(fromQueueId))) {
+				logger.log(Level.WARNING, "ZombieDetector could not load the active jobs, only jobs sending heartbeats to this server are followed");
+				return -1;
+			}
+
+			int count = 0;
+			long maxQueueId = fromQueueId;
+
+			while (db.moveNext()) {
+				final long queueId = db.getl(1);
+
+				w.arm(queueId, db.getl(2) * 1000 + timeoutMillis);
+				maxQueueId = Math.max(maxQueueId, queueId);
+				count++;
+			}
+
+			t.endTiming();
+			logger.log(Level.INFO, "ZombieDetector seeded the timing wheel with " + count + " active jobs after queueId " + fromQueueId + " in " + t.getMillis() + " ms");
+
+			return oldestQueued > 0 ? Math.min(maxQueueId, oldestQueued - 1) : maxQueueId;
+		}
+	}
+
+	/**
+	 * Advance the wheel to now and handle the jobs whose deadline passed
+	 */
+	private static void tick(final TimingWheel w) {
+		final List<Long> expired = new ArrayList<>();
+
+		w.advance(System.currentTimeMillis(), queueId -> expired.add(Long.valueOf(queueId)));
+
+		monitor.addMeasurement("TQ_zombie_detector_tracked", w.size());
+
+		if (expired.isEmpty())
+			return;
+
+		final int batchSize = Math.max(1, ConfigUtils.getConfig().geti(PREFIX + "batchSize", 1000));
+
+		try (DBFunctions db = TaskQueueUtils.getQueueDB()) {
+			if (db == null) {
+				logger.log(Level.SEVERE, "ZombieDetector could not get a DB connection, re-arming " + expired.size() + " expired jobs");
+
+				final long retry = System.currentTimeMillis() + 60 * 1000;
+				for (final Long queueId : expired)
+					w.arm(queueId.longValue(), retry);
+
+				return;
+			}
+
+			db.setQueryTimeout(60);
+
+			for (int from = 0; from < expired.size(); from += batchSize)
+				confirm(db, w, expired.subList(from, Math.min(expired.size(), from + batchSize)));
+		}
+	}
+
+	/**
+	 * Check the expired jobs against QUEUEPROC by primary key, re-arm those with a heartbeat seen by another server and move the others to ZOMBIE
+	 */
+	private static void confirm(final DBFunctions db, final TimingWheel w, final List<Long> queueIds) {
+		final StringBuilder ids = new StringBuilder();
+
+		for (final Long queueId : queueIds) {
+			if (ids.length() > 0)
+				ids.append(',');
+
+			ids.append(queueId);
+		}
+
+		final String activeStates = InactiveJobHandler.getActiveStates();
+
+		if (!db.query("SELECT q.queueId, UNIX_TIMESTAMP(qp.lastupdate) FROM QUEUE q JOIN QUEUEPROC qp WHERE q.queueId = qp.queueId AND q.queueId IN (" + ids + ") AND q.statusId IN ("
+				+ activeStates + ")")) {
+			logger.log(Level.WARNING, "ZombieDetector could not check " + queueIds.size() + " expired jobs, they are looked at again in a minute");
+
+			final long retry = System.currentTimeMillis() + 60 * 1000;
+			for (final Long queueId : queueIds)
+				w.arm(queueId.longValue(), retry);
+
+			return;
+		}
+
+		final long now = System.currentTimeMillis();
+
+		final StringBuilder stale = new StringBuilder();
+		int staleCount = 0;
+		int rearmed = 0;
+		long delay = 0;
+
+		while (db.moveNext()) {
+			final long deadline = db.getl(2) * 1000 + timeoutMillis;
+
+			if (deadline > now) {
+				w.arm(db.getl(1), deadline);
+				rearmed++;
+				continue;
+			}
+
+			if (stale.length() > 0)
+				stale.append(',');
+
+			stale.append(db.getl(1));
+			staleCount++;
+			delay += now - deadline;
+		}
+
+		// jobs that are no longer active were finished without passing through jobFinished(), nothing to do for them
+
+		monitor.addMeasurement("TQ_zombie_detector_expired", queueIds.size());
+		monitor.addMeasurement("TQ_zombie_detector_rearmed", rearmed);
+
+		if (staleCount == 0)
+			return;
+
+		try (Timing t = new Timing(monitor, "TQ_zombie_detector_move_ms")) {
+			final StringBuilder registerLog = new StringBuilder();
+
+			// the predicate is checked again by the statement itself, in case a heartbeat arrived in between
+			TaskQueueUtils.moveState(db, "SELECT q.queueId, q.statusId FROM QUEUE q JOIN QUEUEPROC qp WHERE q.queueId = qp.queueId AND q.queueId IN (" + stale + ") AND q.statusId IN ("
+					+ activeStates + ") AND qp.lastupdate < NOW() - INTERVAL " + timeoutMillis / 1000 + " SECOND", JobStatus.ZOMBIE, registerLog);
+
+			t.endTiming();
+
+			monitor.addMeasurement("TQ_zombie_detector_moved", staleCount);
+			monitor.addMeasurement("TQ_zombie_detection_delay_ms", (double) delay / staleCount);
+
+			logger.log(Level.INFO, "ZombieDetector moved " + staleCount + " jobs without heartbeat to ZOMBIE in " + t.getMillis() + " ms, re-armed " + rearmed);
+
+			registerLog.append("Moved ").append(staleCount).append(" jobs without heartbeat to ZOMBIE, detected ").append(delay / staleCount).append(" ms after their deadline on average, in ")
+					.append(t.getMillis()).append(" ms\n");
+			DBSyncUtils.registerLog(ZombieDetector.class.getCanonicalName(), registerLog.toString());
+		}
+	}
+}
@@ -6,6 +6,7 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
 import alien.site.SiteStatusDTO;
 import alien.taskQueue.JobStatus;
 import alien.taskQueue.TaskQueueUtils;
@@ -31,31 +32,10 @@ public class SitequeueReconciler extends Optimizer {
 		this.setSleepPeriod(3600 * 1000); // 1h
 		int frequency = (int) this.getSleepPeriod();
 
-		while (true) {
-			final boolean updated = DBSyncUtils.updatePeriodic(frequency, SitequeueReconciler.class.getCanonicalName(), this);
-			try {
-				if (updated) {
-					reconcileSitequeue();
-				}
-			}
-			catch (Exception e) {
-				try {
-					logger.log(Level.SEVERE, "Exception executing optimizer", e);
-					DBSyncUtils.registerException(SitequeueReconciler.class.getCanonicalName(), e);
-				}
-				catch (Exception e2) {
-					logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
-				}
-			}
-
-			try {
-				logger.log(Level.INFO, "SitequeueReconciler sleeps " + this.getSleepPeriod() + " ms");
-				sleep(this.getSleepPeriod());
-			}
-			catch (InterruptedException e) {
-				logger.log(Level.WARNING, "SitequeueReconciler interrupted", e);
-			}
-		}
+		OptimizerScheduler.run(SitequeueReconciler.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_RATE, true, () -> {
+			if (DBSyncUtils.updatePeriodic(frequency, SitequeueReconciler.class.getCanonicalName(), this))
+				reconcileSitequeue();
+		});
 	}
 
 	private static void reconcileSitequeue() {
@@ -70,8 +50,20 @@ public class SitequeueReconciler extends Optimizer {
 			logger.log(Level.INFO, "Reconciling sitequeue obtained database connection");
 
 			StringBuilder registerLog = new StringBuilder();
+
+			if (ConfigUtils.getConfig().getb("alien.optimizers.site.SitequeueReconciler.fastPath", false)) {
+				reconcileInSinglePass(db, registerLog);
+				DBSyncUtils.registerLog(SitequeueReconciler.class.getCanonicalName(), registerLog.toString());
+				return;
+			}
+
 			Set<SiteStatusDTO> sites = executeTotalCostQuery(db, getTotalCostQuery(), registerLog);
 
+			if (sites == null) {
+				DBSyncUtils.registerLog(SitequeueReconciler.class.getCanonicalName(), registerLog.toString());
+				return;
+			}
+
 			Map<String, Double> totalCostBySite = sites.stream()
 					.collect(Collectors.groupingBy(SiteStatusDTO::getSiteId, Collectors.summingDouble(SiteStatusDTO::getTotalCost)));
 
@@ -105,7 +97,8 @@ public class SitequeueReconciler extends Optimizer {
 				query.append(" WHERE siteId = ?");
 				parameters[size + 1] = siteId;
 				db.query(query.toString(), false, parameters);
-				logFullQuery(query, parameters);
+				if (isLogFullQuery())
+					logFullQuery(query, parameters);
 			});
 			t.endTiming();
 			logger.log(Level.INFO, "Updated " + counter.get() + " counts");
@@ -115,11 +108,165 @@ public class SitequeueReconciler extends Optimizer {
 		}
 	}
 
-	private static void logFullQuery(StringBuilder query, Object[] parameters) {
-		for (Object parameter : parameters) {
-			query.replace(query.indexOf("?"), query.indexOf("?") + 1, parameter.toString());
+	private static boolean isLogFullQuery() {
+		return ConfigUtils.getConfig().getb("alien.optimizers.site.SitequeueReconciler.logFullQuery", false);
+	}
+
+	private static void logFullQuery(CharSequence query, Object[] parameters) {
+		final StringBuilder sb = new StringBuilder(query.length() + parameters.length * 8);
+		int p = 0;
+		for (int i = 0; i < query.length(); i++) {
+			final char c = query.charAt(i);
+			if (c == '?' && p < parameters.length)
+				sb.append(parameters[p++]);
+			else
+				sb.append(c);
+		}
+		logger.log(Level.INFO, "SitequeueReconciler executing query: " + sb);
+	}
+
+	/**
+	 * Same result as the default path, without materializing the rows: the counts are summed into a dense site &times; status array while reading the
+	 * cursor, then written with one CASE based UPDATE per chunk of sites. Like the default path, a status that has no jobs at a site leaves its column
+	 * untouched.
+	 */
+	private static void reconcileInSinglePass(DBFunctions db, StringBuilder registerLog) {
+		final JobStatus[] states = getTrackedStates().stream().sorted().toArray(JobStatus[]::new);
+
+		int maxLevel = 0;
+		for (JobStatus status : states)
+			maxLevel = Math.max(maxLevel, status.getAliEnLevel());
+
+		final int[] columnOfLevel = new int[maxLevel + 1];
+		Arrays.fill(columnOfLevel, -1);
+		for (int i = 0; i < states.length; i++)
+			columnOfLevel[states[i].getAliEnLevel()] = i;
+
+		final Map<String, Integer> siteIndex = new HashMap<>();
+		final List<String> siteIds = new ArrayList<>();
+
+		long[] counts = new long[64 * states.length];
+		boolean[] present = new boolean[64 * states.length];
+		double[] cost = new double[64];
+
+		db.setTransactionIsolation(Connection.TRANSACTION_READ_UNCOMMITTED);
+		db.setQueryTimeout(60);
+
+		int rows = 0;
+
+		try (Timing t = new Timing(monitor, "SitequeueReconciler")) {
+			if (!db.query(getTotalCostQuery())) {
+				logger.log(Level.WARNING, "SitequeueReconciler could not execute the aggregation query");
+				registerLog.append("SitequeueReconciler could not execute the aggregation query\n");
+				return;
+			}
+
+			while (db.moveNext()) {
+				rows++;
+
+				final int level = db.geti(2);
+				final int column = level >= 0 && level < columnOfLevel.length ? columnOfLevel[level] : -1;
+
+				if (column < 0)
+					continue;
+
+				final String siteId = db.gets(1);
+				Integer idx = siteIndex.get(siteId);
+
+				if (idx == null) {
+					idx = Integer.valueOf(siteIds.size());
+					siteIndex.put(siteId, idx);
+					siteIds.add(siteId);
+
+					if (cost.length < siteIds.size()) {
+						cost = Arrays.copyOf(cost, cost.length * 2);
+						counts = Arrays.copyOf(counts, cost.length * states.length);
+						present = Arrays.copyOf(present, cost.length * states.length);
+					}
+				}
+
+				final int cell = idx.intValue() * states.length + column;
+				counts[cell] += db.getl(3);
+				present[cell] = true;
+				cost[idx.intValue()] += db.getl(4);
+			}
+
+			t.endTiming();
+			logger.log(Level.INFO, "SitequeueReconciler aggregated " + rows + " rows of " + siteIds.size() + " sites in " + t.getMillis() + " ms");
+			registerLog.append("SitequeueReconciler select and aggregation of ").append(rows).append(" rows executed in ").append(t.getMillis()).append(" ms\n");
+		}
+
+		final int chunkSize = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.site.SitequeueReconciler.chunkSize", 50));
+		final boolean logQueries = isLogFullQuery();
+
+		int statements = 0;
+		int failed = 0;
+		int values = 0;
+
+		try (Timing t = new Timing(monitor, "SitequeueReconciler_updateCount")) {
+			for (int from = 0; from < siteIds.size(); from += chunkSize) {
+				final int to = Math.min(siteIds.size(), from + chunkSize);
+
+				final StringBuilder query = new StringBuilder("UPDATE SITEQUEUES SET ");
+				final List<Object> parameters = new ArrayList<>();
+
+				for (int column = 0; column < states.length; column++) {
+					boolean any = false;
+
+					for (int site = from; site < to; site++) {
+						if (!present[site * states.length + column])
+							continue;
+
+						if (!any) {
+							query.append(states[column]).append(" = CASE siteId");
+							any = true;
+						}
+
+						query.append(" WHEN ? THEN ?");
+						parameters.add(siteIds.get(site));
+						parameters.add(Double.valueOf(counts[site * states.length + column]));
+						values++;
+					}
+
+					if (any)
+						query.append(" ELSE ").append(states[column]).append(" END, ");
+				}
+
+				query.append("cost = CASE siteId");
+				for (int site = from; site < to; site++) {
+					query.append(" WHEN ? THEN ?");
+					parameters.add(siteIds.get(site));
+					parameters.add(Double.valueOf(cost[site]));
+				}
+				query.append(" ELSE cost END WHERE siteId IN (");
+
+				for (int site = from; site < to; site++) {
+					if (site > from)
+						query.append(',');
+					query.append('?');
+					parameters.add(siteIds.get(site));
+				}
+				query.append(')');
+
+				final Object[] parameterArray = parameters.toArray();
+
+				if (!db.query(query.toString(), false, parameterArray)) {
+					logger.log(Level.WARNING, "SitequeueReconciler could not update sites " + siteIds.get(from) + " to " + siteIds.get(to - 1));
+					failed++;
+				}
+
+				statements++;
+
+				if (logQueries)
+					logFullQuery(query, parameterArray);
+			}
+
+			t.endTiming();
+			logger.log(Level.INFO, "Updated " + values + " counts of " + siteIds.size() + " sites with " + statements + " statements in " + t.getMillis() + " ms");
+			registerLog.append("Updated ").append(values).append(" counts of ").append(siteIds.size()).append(" sites with ").append(statements).append(" statements, ")
+					.append(failed).append(" failed\n");
+			registerLog.append("SitequeueReconciler updateCountAndCost executed in ").append(t.getMillis()).append(" ms\n");
 		}
-		logger.log(Level.INFO, "SitequeueReconciler executing query: " + query.toString());
 	}
 
 	private static void addCostToUpdateQuery(Map<String, Double> totalCostBySite, StringBuilder query, Object[] parameters, int size, String siteId) {
@@ -135,6 +282,12 @@ public class SitequeueReconciler extends Optimizer {
 			boolean res = db.query(totalCostQuery);
 			logger.log(Level.INFO, "SitequeueReconciler result: " + res);
 			t.endTiming();
+
+			if (!res) {
+				registerlog.append("SitequeueReconciler could not execute the aggregation query\n");
+				return null;
+			}
+
 			logger.log(Level.INFO, "SitequeueReconciler select executed in " + t.getMillis() + " ms");
 			registerlog.append("SitequeueReconciler select executed in ")
 					.append(t.getMillis()).append(" ms\n");
@@ -154,7 +307,10 @@ public class SitequeueReconciler extends Optimizer {
 		return dtos;
 	}
 
-	private static String getTotalCostQuery() {
+	/**
+	 * @return the states that have a column in SITEQUEUES
+	 */
+	static Set<JobStatus> getTrackedStates() {
 		Set<JobStatus> allStates = new HashSet<>();
 		allStates.addAll(JobStatus.finalStates());
 		allStates.addAll(JobStatus.runningStates());
@@ -162,6 +318,11 @@ public class SitequeueReconciler extends Optimizer {
 		allStates.addAll(JobStatus.errorneousStates());
 		allStates.addAll(JobStatus.queuedStates());
 		allStates.addAll(JobStatus.doneStates());
+		return allStates;
+	}
+
+	private static String getTotalCostQuery() {
+		Set<JobStatus> allStates = getTrackedStates();
 
 		String statusIds = allStates.stream()
 				.map(status -> String.valueOf(status.getAliEnLevel()))
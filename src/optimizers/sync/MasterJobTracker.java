@@ -0,0 +1,311 @@
+package alien.optimizers.sync;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import alien.config.ConfigUtils;
+import alien.monitoring.Monitor;
+import alien.monitoring.MonitorFactory;
+import alien.monitoring.Timing;
+import alien.optimizers.DBSyncUtils;
+import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
+import alien.taskQueue.JobStatus;
+import alien.taskQueue.TaskQueueUtils;
+import lazyj.DBFunctions;
+
+/**
+ * Incremental completion tracking of master jobs. The subjob state transitions handled by this server are reported through
+ * {@link #subjobStatusChanged(long, JobStatus, JobStatus)} and {@link #subjobsInserted(long, int)}, which keep a counter of active subjobs per master. When a
+ * counter drops to zero the master is counted exactly by its subjobs (through the <code>split</code> index, not a self-join) and moved from SPLIT to DONE in the
+ * same second; a finished master whose subjob is resubmitted is moved back to SPLIT the same way.
+ * <p>
+ * Transitions handled by other servers are not seen here, so every master with recent activity is also counted exactly at most every
+ * <code>recountInterval</code> seconds, which resets its counter. The self-join of {@link MasterSubJobReconciler} becomes an audit of this tracking.
+ *
+ * @since 2026-10-17
+ */
+public class MasterJobTracker extends Optimizer {
+	/**
+	 * Logger
+	 */
+	static final Logger logger = ConfigUtils.getLogger(MasterJobTracker.class.getCanonicalName());
+
+	/**
+	 * Monitoring component
+	 */
+	static final Monitor monitor = MonitorFactory.getMonitor(MasterJobTracker.class.getCanonicalName());
+
+	private static final String PREFIX = "alien.optimizers.sync.MasterJobTracker.";
+
+	/**
+	 * Counter value of a master that was not counted exactly yet
+	 */
+	private static final int UNKNOWN = Integer.MIN_VALUE;
+
+	private static final class MasterCounter {
+		/**
+		 * Subjobs not in a final state, {@link #UNKNOWN} until the first exact count
+		 */
+		final AtomicInteger active = new AtomicInteger(UNKNOWN);
+
+		/**
+		 * A subjob went from a final state back to a running one
+		 */
+		volatile boolean reopened = false;
+
+		/**
+		 * Transitions were reported since the last exact count
+		 */
+		volatile boolean dirty = true;
+
+		volatile long countedAt = 0;
+
+		volatile long touchedAt = System.currentTimeMillis();
+	}
+
+	private static final Map<Long, MasterCounter> masters = new ConcurrentHashMap<>();
+
+	private static volatile boolean running = false;
+
+	/**
+	 * @return <code>true</code> if the incremental tracking is enabled in the configuration
+	 */
+	public static boolean isEnabled() {
+		return ConfigUtils.getConfig().getb(PREFIX + "enabled", false);
+	}
+
+	/**
+	 * Record a state transition of a subjob
+	 *
+	 * @param masterId queueId of the master job (the <code>split</code> of the subjob)
+	 * @param oldStatus
+	 * @param newStatus
+	 */
+	public static void subjobStatusChanged(final long masterId, final JobStatus oldStatus, final JobStatus newStatus) {
+		if (!running || masterId <= 0 || oldStatus == newStatus)
+			return;
+
+		final boolean wasFinal = MasterSubJobReconciler.FINAL_SUBJOB_STATES.contains(oldStatus);
+		final boolean isFinal = MasterSubJobReconciler.FINAL_SUBJOB_STATES.contains(newStatus);
+
+		if (wasFinal == isFinal)
+			return;
+
+		final MasterCounter counter = masters.computeIfAbsent(Long.valueOf(masterId), k -> new MasterCounter());
+
+		if (isFinal)
+			counter.active.getAndUpdate(v -> v == UNKNOWN ? UNKNOWN : v - 1);
+		else {
+			counter.active.getAndUpdate(v -> v == UNKNOWN ? UNKNOWN : v + 1);
+
+			if (MasterSubJobReconciler.RUNNING_SUBJOB_STATES.contains(newStatus))
+				counter.reopened = true;
+		}
+
+		counter.touchedAt = System.currentTimeMillis();
+		counter.dirty = true;
+	}
+
+	/**
+	 * Record new subjobs of a master
+	 *
+	 * @param masterId
+	 * @param count
+	 */
+	public static void subjobsInserted(final long masterId, final int count) {
+		if (!running || masterId <= 0 || count <= 0)
+			return;
+
+		final MasterCounter counter = masters.computeIfAbsent(Long.valueOf(masterId), k -> new MasterCounter());
+		counter.active.getAndUpdate(v -> v == UNKNOWN ? UNKNOWN : v + count);
+		counter.touchedAt = System.currentTimeMillis();
+		counter.dirty = true;
+	}
+
+	@Override
+	public void run() {
+		logger.log(Level.INFO, "MasterJobTracker starting");
+		this.setSleepPeriod(60 * 1000);
+
+		OptimizerScheduler.run(MasterJobTracker.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_DELAY, false, () -> {
+			running = isEnabled();
+
+			if (running) {
+				this.setSleepPeriod(Math.max(500, ConfigUtils.getConfig().getl(PREFIX + "tickMillis", 5 * 1000)));
+				process();
+			}
+			else {
+				this.setSleepPeriod(60 * 1000);
+				masters.clear();
+			}
+		});
+	}
+
+	/**
+	 * Count exactly the masters that may have changed, then finalize or reopen them
+	 */
+	private static void process() {
+		final long now = System.currentTimeMillis();
+		final long recountInterval = Math.max(1, ConfigUtils.getConfig().getl(PREFIX + "recountInterval", 60)) * 1000;
+		final long idleTime = Math.max(1, ConfigUtils.getConfig().getl(PREFIX + "idleTime", 60 * 60)) * 1000;
+
+		final List<Long> toCount = new ArrayList<>();
+
+		for (final Iterator<Map.Entry<Long, MasterCounter>> it = masters.entrySet().iterator(); it.hasNext();) {
+			final Map.Entry<Long, MasterCounter> entry = it.next();
+			final MasterCounter counter = entry.getValue();
+
+			if (!counter.dirty) {
+				if (now - counter.touchedAt > idleTime)
+					it.remove();
+
+				continue;
+			}
+
+			final int active = counter.active.get();
+
+			if (active == UNKNOWN || active <= 0 || counter.reopened || now - counter.countedAt >= recountInterval)
+				toCount.add(entry.getKey());
+		}
+
+		monitor.addMeasurement("TQ_master_tracker_masters", masters.size());
+
+		if (toCount.isEmpty())
+			return;
+
+		try (DBFunctions db = TaskQueueUtils.getQueueDB(); Timing t = new Timing(monitor, "TQ_master_tracker_ms")) {
+			if (db == null) {
+				logger.log(Level.SEVERE, "MasterJobTracker could not get a DB connection");
+				return;
+			}
+
+			db.setQueryTimeout(60);
+
+			final int chunkSize = Math.max(1, ConfigUtils.getConfig().geti(PREFIX + "chunkSize", 500));
+
+			int finalized = 0;
+			int reopened = 0;
+
+			for (int from = 0; from < toCount.size(); from += chunkSize) {
+				final List<Long> chunk = toCount.subList(from, Math.min(toCount.size(), from + chunkSize));
+
+				final List<Long> finished = new ArrayList<>();
+				final List<Long> resubmitted = new ArrayList<>();
+
+				if (!count(db, chunk, finished, resubmitted))
+					continue;
+
+				finalized += update(db, finished, JobStatus.DONE, JobStatus.SPLIT.getAliEnLevel() + "");
+				reopened += update(db, resubmitted, JobStatus.SPLIT, JobStatus.DONE.getAliEnLevel() + "," + JobStatus.DONE_WARN.getAliEnLevel());
+
+				// a finished master only comes back through a transition
+				for (final Long masterId : finished)
+					masters.remove(masterId);
+			}
+
+			t.endTiming();
+
+			monitor.addMeasurement("TQ_master_tracker_counted", toCount.size());
+			monitor.addMeasurement("TQ_master_tracker_finalized", finalized);
+			monitor.addMeasurement("TQ_master_tracker_reopened", reopened);
+
+			if (finalized > 0 || reopened > 0) {
+				logger.log(Level.INFO, "MasterJobTracker counted " + toCount.size() + " masters, finalized " + finalized + ", reopened " + reopened + " in " + t.getMillis() + " ms");
+				DBSyncUtils.registerLog(MasterJobTracker.class.getCanonicalName(),
+						"Counted " + toCount.size() + " masters, finalized " + finalized + " and reopened " + reopened + ", in " + t.getMillis() + " ms\n");
+			}
+		}
+	}
+
+	/**
+	 * Count the active subjobs of the given masters through the <code>split</code> index and reset their counters
+	 *
+	 * @param finished receives the masters without active subjobs
+	 * @param resubmitted receives the masters with running subjobs that had one reopened
+	 * @return <code>false</code> if the query failed
+	 */
+	private static boolean count(final DBFunctions db, final List<Long> masterIds, final List<Long> finished, final List<Long> resubmitted) {
+		final long countStart = System.currentTimeMillis();
+
+		// reset before reading, transitions reported while the query runs stay marked
+		for (final Long masterId : masterIds) {
+			final MasterCounter counter = masters.get(masterId);
+
+			if (counter != null)
+				counter.dirty = false;
+		}
+
+		if (!db.query("SELECT split, count(1), sum(statusId IN (" + MasterSubJobReconciler.toStatusIds(MasterSubJobReconciler.RUNNING_SUBJOB_STATES) + ")) FROM QUEUE WHERE split IN ("
+				+ join(masterIds) + ") AND statusId NOT IN (" + MasterSubJobReconciler.toStatusIds(MasterSubJobReconciler.FINAL_SUBJOB_STATES) + ") GROUP BY split")) {
+			logger.log(Level.WARNING, "MasterJobTracker could not count the subjobs of " + masterIds.size() + " masters, retrying on the next run");
+
+			for (final Long masterId : masterIds) {
+				final MasterCounter counter = masters.get(masterId);
+
+				if (counter != null)
+					counter.dirty = true;
+			}
+
+			return false;
+		}
+
+		final Map<Long, long[]> counts = new HashMap<>();
+
+		while (db.moveNext())
+			counts.put(Long.valueOf(db.getl(1)), new long[] { db.getl(2), db.getl(3) });
+
+		for (final Long masterId : masterIds) {
+			final MasterCounter counter = masters.get(masterId);
+
+			if (counter == null)
+				continue;
+
+			final long[] c = counts.get(masterId);
+			final int active = c != null ? (int) c[0] : 0;
+
+			counter.active.set(active);
+			counter.countedAt = countStart;
+
+			if (active == 0)
+				finished.add(masterId);
+			else if (counter.reopened) {
+				counter.reopened = false;
+
+				if (c[1] > 0)
+					resubmitted.add(masterId);
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Move the masters to <code>target</code>, only those that are still in one of <code>fromStates</code>
+	 *
+	 * @return number of masters that changed state
+	 */
+	private static int update(final DBFunctions db, final List<Long> masterIds, final JobStatus target, final String fromStates) {
+		if (masterIds.isEmpty())
+			return 0;
+
+		if (!db.query("UPDATE QUEUE SET statusId = " + target.getAliEnLevel() + " WHERE queueId IN (" + join(masterIds) + ") AND statusId IN (" + fromStates + ")")) {
+			logger.log(Level.WARNING, "MasterJobTracker could not move " + masterIds.size() + " masters to " + target + ", the audit will pick them up");
+			return 0;
+		}
+
+		return db.getUpdateCount();
+	}
+
+	private static String join(final List<Long> ids) {
+		return ids.stream().map(String::valueOf).collect(Collectors.joining(","));
+	}
+}
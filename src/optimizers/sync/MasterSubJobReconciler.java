@@ -6,6 +6,7 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
 import alien.optimizers.priority.PriorityReconciliationService;
 import alien.taskQueue.JobStatus;
 import alien.taskQueue.TaskQueueUtils;
@@ -13,6 +14,8 @@ import lazyj.DBFunctions;
 
 import java.sql.Connection;
 import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.logging.Level;
@@ -30,38 +33,42 @@ public class MasterSubJobReconciler extends Optimizer {
 
 	static int counter = 0;
 
+	private static int runsWithoutAudit = 0;
+
 	@Override
 	public void run() {
 		logger.log(Level.INFO, "MasterSubJobReconciler starting");
 		this.setSleepPeriod(Duration.ofMinutes(10).toMillis());
 		int frequency = (int) this.getSleepPeriod();
 
-		while (true) {
-			try {
-				if (DBSyncUtils.updatePeriodic(frequency, MasterSubJobReconciler.class.getCanonicalName(), this)) {
+		OptimizerScheduler.run(MasterSubJobReconciler.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_RATE, true, () -> {
+			if (DBSyncUtils.updatePeriodic(frequency, MasterSubJobReconciler.class.getCanonicalName(), this)) {
+				if (isAuditDue())
 					startCron();
-					logger.log(Level.INFO, "MasterSubJobReconciler sleeping for " + this.getSleepPeriod() + " ms");
-					sleep(this.getSleepPeriod());
-				}
-			}
-			catch (Exception e) {
-				try {
-					logger.log(Level.SEVERE, "Exception executing optimizer", e);
-					DBSyncUtils.registerException(MasterSubJobReconciler.class.getCanonicalName(), e);
-				}
-				catch (Exception e2) {
-					logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
-				}
+				else
+					logger.log(Level.INFO, "MasterSubJobReconciler skipping the self-join, masters are finalized by MasterJobTracker");
 			}
+		});
+	}
 
-			try {
-				logger.log(Level.INFO, "MasterSubJobReconciler sleeping for " + this.getSleepPeriod() + " ms");
-				sleep(this.getSleepPeriod());
-			}
-			catch (InterruptedException e) {
-				logger.log(Level.SEVERE, "MasterSubJobReconciler interrupted", e);
-			}
+	/**
+	 * With {@link MasterJobTracker} enabled the self-join only audits the incremental tracking, every <code>auditEvery</code> runs (by default once an
+	 * hour)
+	 */
+	private static boolean isAuditDue() {
+		if (!MasterJobTracker.isEnabled()) {
+			runsWithoutAudit = 0;
+			return true;
 		}
+
+		final int every = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.sync.MasterJobTracker.auditEvery", 6));
+
+		if (++runsWithoutAudit >= every) {
+			runsWithoutAudit = 0;
+			return true;
+		}
+
+		return false;
 	}
 
 	private static void startCron() {
@@ -78,6 +85,11 @@ public class MasterSubJobReconciler extends Optimizer {
 			Set<Long> masterJobInRunningState = getMasterJobIds(db, getQueryToFindMasterjobsInRunningState());
 			Set<Long> masterJobInFinalState = getMasterJobIds(db, getQueryToFindMasterjobsInFinalState());
 			StringBuilder registerLog = new StringBuilder("Number of masterJobs in runningstate: " + masterJobInRunningState.size() + "\n");
+
+			if (MasterJobTracker.isEnabled()) {
+				// anything found here was missed by the incremental tracking
+				monitor.addMeasurement("TQ_master_audit_corrections", masterJobInRunningState.size() + masterJobInFinalState.size());
+			}
 			registerLog.append("Number of masterJobs in finalstate: " + masterJobInFinalState.size() + "\n");
 
 			updateRunningJobs(db, masterJobInRunningState, registerLog);
@@ -157,29 +169,32 @@ public class MasterSubJobReconciler extends Optimizer {
 		return masterJobIds;
 	}
 
+	/**
+	 * Subjob states after which a subjob no longer keeps its master in SPLIT
+	 */
+	static final Set<JobStatus> FINAL_SUBJOB_STATES = Collections.unmodifiableSet(EnumSet.of(JobStatus.DONE, JobStatus.DONE_WARN, JobStatus.ERROR_A, JobStatus.ERROR_I,
+			JobStatus.ERROR_E, JobStatus.ERROR_IB, JobStatus.ERROR_S, JobStatus.ERROR_SV, JobStatus.ERROR_V, JobStatus.ERROR_VN, JobStatus.ERROR_VT, JobStatus.ERROR_EW,
+			JobStatus.ERROR_W, JobStatus.ERROR_SPLT, JobStatus.ERROR_VER, JobStatus.FAULTY, JobStatus.INCORRECT, JobStatus.EXPIRED, JobStatus.KILLED));
+
+	/**
+	 * Subjob states that move a finished master back to SPLIT
+	 */
+	static final Set<JobStatus> RUNNING_SUBJOB_STATES = Collections.unmodifiableSet(EnumSet.of(JobStatus.INSERTING, JobStatus.WAITING, JobStatus.ASSIGNED,
+			JobStatus.STARTED, JobStatus.RUNNING, JobStatus.SAVING, JobStatus.SAVED));
+
+	/**
+	 * @param states
+	 * @return the statusIds of the given states, comma separated
+	 */
+	static String toStatusIds(final Set<JobStatus> states) {
+		return states.stream().map(s -> String.valueOf(s.getAliEnLevel())).collect(Collectors.joining(","));
+	}
+
 	private static String getQueryToFindMasterjobsInRunningState() {
 		return "SELECT masterjobid FROM\n" +
 				"    (SELECT\n" +
 				"         qmaster.queueId AS masterjobid,\n" +
-				"         count(CASE WHEN qsubjob.statusId NOT IN (" + JobStatus.DONE.getAliEnLevel() + ", " +
-				JobStatus.DONE_WARN.getAliEnLevel() + ", " +
-				JobStatus.ERROR_A.getAliEnLevel() + ", " +
-				JobStatus.ERROR_I.getAliEnLevel() + ", " +
-				JobStatus.ERROR_E.getAliEnLevel() + ", " +
-				JobStatus.ERROR_IB.getAliEnLevel() + ", " +
-				JobStatus.ERROR_S.getAliEnLevel() + ", " +
-				JobStatus.ERROR_SV.getAliEnLevel() + ", " +
-				JobStatus.ERROR_V.getAliEnLevel() + ", " +
-				JobStatus.ERROR_VN.getAliEnLevel() + ", " +
-				JobStatus.ERROR_VT.getAliEnLevel() + ", " +
-				JobStatus.ERROR_EW.getAliEnLevel() + ", " +
-				JobStatus.ERROR_W.getAliEnLevel() + ", " +
-				JobStatus.ERROR_SPLT.getAliEnLevel() + ", " +
-				JobStatus.ERROR_VER.getAliEnLevel() + ", " +
-				JobStatus.FAULTY.getAliEnLevel() + ", " +
-				JobStatus.INCORRECT.getAliEnLevel() + ", " +
-				JobStatus.EXPIRED.getAliEnLevel() + ", " +
-				JobStatus.KILLED.getAliEnLevel() +
+				"         count(CASE WHEN qsubjob.statusId NOT IN (" + toStatusIds(FINAL_SUBJOB_STATES) +
 				") THEN 1 ELSE NULL END) AS active_subjobs\n" +
 				"     FROM\n" +
 				"         QUEUE qmaster JOIN QUEUE qsubjob ON qsubjob.split=qmaster.queueId\n" +
@@ -191,13 +206,7 @@ public class MasterSubJobReconciler extends Optimizer {
 
 
 	private static String getQueryToFindMasterjobsInFinalState() {
-		String runningStates = JobStatus.INSERTING.getAliEnLevel() + ","
-				+ JobStatus.WAITING.getAliEnLevel() + ","
-				+ JobStatus.ASSIGNED.getAliEnLevel() + ","
-				+ JobStatus.STARTED.getAliEnLevel() + ","
-				+ JobStatus.RUNNING.getAliEnLevel() + ","
-				+ JobStatus.SAVING.getAliEnLevel() + ","
-				+ JobStatus.SAVED.getAliEnLevel();
+		String runningStates = toStatusIds(RUNNING_SUBJOB_STATES);
 		return "SELECT qmaster.queueId AS masterjobid FROM\n" +
 				" QUEUE qmaster JOIN QUEUE qsubjob ON qsubjob.split=qmaster.queueId\n" +
 				" WHERE qmaster.statusId in (" + JobStatus.DONE.getAliEnLevel() + "," + JobStatus.DONE_WARN.getAliEnLevel() + ") AND\n" +
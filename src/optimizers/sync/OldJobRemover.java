@@ -1,9 +1,19 @@
 package alien.optimizers.sync;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
+import java.text.SimpleDateFormat;
 import java.time.Duration;
+import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.zip.GZIPOutputStream;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,6 +23,7 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
 import alien.optimizers.priority.PriorityRapidUpdater;
 import alien.taskQueue.JobStatus;
 import alien.taskQueue.TaskQueueUtils;
@@ -32,27 +43,11 @@ public class OldJobRemover extends Optimizer {
         this.setSleepPeriod(Duration.ofMinutes(120).toMillis()); // 120 minutes
         int frequency = (int) this.getSleepPeriod();
 
-        while (true) {
-            try {
-                if (DBSyncUtils.updatePeriodic(frequency, OldJobRemover.class.getCanonicalName(), this)) {
-                    startCron();
-                }
-            } catch (Exception e) {
-                try {
-                    logger.log(Level.SEVERE, "Exception executing optimizer", e);
-                    DBSyncUtils.registerException(OldJobRemover.class.getCanonicalName(), e);
-                } catch (Exception e2) {
-                    logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
-                }
-            }
-
-            try {
-                logger.log(Level.INFO, "OldJobRemover sleeping for " + this.getSleepPeriod() + " ms");
-                sleep(this.getSleepPeriod());
-            } catch (InterruptedException e) {
-                logger.log(Level.SEVERE, "OldJobRemover interrupted", e);
+        OptimizerScheduler.run(OldJobRemover.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_RATE, true, () -> {
+            if (DBSyncUtils.updatePeriodic(frequency, OldJobRemover.class.getCanonicalName(), this)) {
+                startCron();
             }
-        }
+        });
     }
 
     private static void startCron() {
@@ -83,6 +78,18 @@ public class OldJobRemover extends Optimizer {
             t1.endTiming();
             logger.log(Level.INFO, "OldJobRemover select done in: " + t1.getMillis() + " ms");
 
+            if (ConfigUtils.getConfig().getb("alien.optimizers.sync.OldJobRemover.chunked", false)) {
+                purgeInChunks(db, oldJobs, registerLog);
+
+                t0.endTiming();
+                logger.log(Level.INFO, "OldJobRemover completed in: " + t0.getMillis() + " ms");
+                registerLog.append("OldJobRemover completed in: ")
+                        .append(t0.getMillis())
+                        .append(" ms\n");
+                DBSyncUtils.registerLog(OldJobRemover.class.getCanonicalName(), registerLog.toString());
+                return;
+            }
+
             t2.startTiming();
             String deleteQuery = getDeleteQuery(oldJobs);
             t2.endTiming();
@@ -92,9 +99,9 @@ public class OldJobRemover extends Optimizer {
                 logger.log(Level.INFO, "No old jobs to delete");
                 registerLog.append("No old jobs to delete\n");
             } else {
-                registerLog.append("OldJobRemover delete query included the following job IDs: ")
-                        .append(deleteQuery)
-                        .append("\n");
+                registerLog.append("OldJobRemover delete query included ")
+                        .append(oldJobs.size())
+                        .append(" master or single jobs\n");
                 t3.startTiming();
                 boolean res = db.query(deleteQuery);
 
@@ -139,10 +146,218 @@ public class OldJobRemover extends Optimizer {
             queueIds.deleteCharAt(queueIds.length() - 1);
 
         String query = "DELETE FROM QUEUE WHERE queueId IN (" + queueIds + ") OR split IN (" + queueIds + ")";
-        logger.log(Level.INFO, "OldJobRemover query: " + query);
+        logger.log(Level.FINE, "OldJobRemover query: " + query);
         return query;
     }
 
+    /**
+     * Delete the old jobs a chunk of master or single jobs at a time, in queueId order. The subjobs of a chunk are removed through the split index by
+     * bounded, primary key ordered deletes, then the chunk itself by primary key, so no statement mixes the two indexes with an <code>OR</code>. After
+     * every statement the remover sleeps as long as needed to stay under <code>maxRowsPerSecond</code>. The job log entries of a chunk are written just
+     * before it is deleted, and if <code>archiveDir</code> is set the rows are first appended to a gzip compressed TSV file there; a chunk that cannot be
+     * archived is not deleted.
+     */
+    private static void purgeInChunks(DBFunctions db, Set<Long> oldJobs, StringBuilder registerLog) {
+        final int chunkSize = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.sync.OldJobRemover.chunkSize", 500));
+        final int rowLimit = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.sync.OldJobRemover.deleteLimit", 5000));
+        final double maxRowsPerSecond = ConfigUtils.getConfig().getd("alien.optimizers.sync.OldJobRemover.maxRowsPerSecond", 2000);
+        final String archiveDir = ConfigUtils.getConfig().gets("alien.optimizers.sync.OldJobRemover.archiveDir", "");
+
+        final long[] queueIds = oldJobs.stream().mapToLong(Long::longValue).sorted().toArray();
+
+        long deleted = 0;
+        long archived = 0;
+        int chunks = 0;
+        int failedChunks = 0;
+
+        final long started = System.currentTimeMillis();
+
+        try (JobArchive archive = archiveDir.isEmpty() ? null : new JobArchive(archiveDir)) {
+            for (int from = 0; from < queueIds.length; from += chunkSize) {
+                final int to = Math.min(queueIds.length, from + chunkSize);
+
+                final StringBuilder ids = new StringBuilder();
+                for (int i = from; i < to; i++) {
+                    if (i > from)
+                        ids.append(',');
+                    ids.append(queueIds[i]);
+                }
+
+                try (Timing t = new Timing(monitor, "OldJobRemover chunk")) {
+                    if (archive != null) {
+                        final long subjobs = archive.write(db, "SELECT * FROM QUEUE WHERE split IN (" + ids + ") ORDER BY queueId");
+                        final long masters = subjobs < 0 ? -1 : archive.write(db, "SELECT * FROM QUEUE WHERE queueId IN (" + ids + ") ORDER BY queueId");
+
+                        if (subjobs < 0 || masters < 0) {
+                            logger.log(Level.WARNING, "OldJobRemover could not archive jobs " + queueIds[from] + " to " + queueIds[to - 1] + ", not deleting them");
+                            failedChunks++;
+                            continue;
+                        }
+
+                        archive.flush();
+                        archived += subjobs + masters;
+                    }
+
+                    for (int i = from; i < to; i++)
+                        TaskQueueUtils.putJobLog(queueIds[i], "OldJobRemover", "Job to be removed by OldJobRemover optimizer", null);
+
+                    int affected;
+                    do {
+                        affected = delete(db, "DELETE FROM QUEUE WHERE split IN (" + ids + ") ORDER BY queueId LIMIT " + rowLimit);
+                        deleted += Math.max(0, affected);
+                        throttle(started, deleted, maxRowsPerSecond);
+                    } while (affected >= rowLimit);
+
+                    if (affected < 0) {
+                        // keep the masters, or their remaining subjobs would not be found again on the next run
+                        failedChunks++;
+                        continue;
+                    }
+
+                    affected = delete(db, "DELETE FROM QUEUE WHERE queueId IN (" + ids + ")");
+
+                    if (affected < 0)
+                        failedChunks++;
+                    else
+                        deleted += affected;
+
+                    throttle(started, deleted, maxRowsPerSecond);
+                }
+
+                chunks++;
+            }
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "OldJobRemover could not write the archive in " + archiveDir, e);
+            registerLog.append("Archive failed, stopped deleting: ")
+                    .append(e.getMessage())
+                    .append("\n");
+        }
+
+        final long elapsed = Math.max(1, System.currentTimeMillis() - started);
+
+        monitor.addMeasurement("OldJobRemover deleted rows", deleted);
+        monitor.addMeasurement("OldJobRemover rows per second", deleted * 1000d / elapsed);
+        monitor.addMeasurement("OldJobRemover archived rows", archived);
+
+        logger.log(Level.INFO, "OldJobRemover deleted " + deleted + " rows in " + chunks + " chunks and " + elapsed + " ms, " + failedChunks + " chunks failed");
+        registerLog.append("Deleted ")
+                .append(deleted)
+                .append(" rows of ")
+                .append(queueIds.length)
+                .append(" old master or single jobs in ")
+                .append(chunks)
+                .append(" chunks, ")
+                .append(elapsed)
+                .append(" ms\n");
+
+        if (archived > 0)
+            registerLog.append("Archived ")
+                    .append(archived)
+                    .append(" rows to ")
+                    .append(archiveDir)
+                    .append("\n");
+
+        if (failedChunks > 0)
+            registerLog.append(failedChunks)
+                    .append(" chunks failed and are retried on the next run\n");
+    }
+
+    /**
+     * @return number of deleted rows, or -1 if the statement failed
+     */
+    private static int delete(DBFunctions db, String query) {
+        if (!db.query(query)) {
+            logger.log(Level.WARNING, "OldJobRemover delete failed: " + query.substring(0, Math.min(query.length(), 200)));
+            return -1;
+        }
+
+        return db.getUpdateCount();
+    }
+
+    /**
+     * Sleep until the rows deleted since <code>started</code> fit in the rows/s budget
+     */
+    private static void throttle(long started, long deleted, double maxRowsPerSecond) {
+        if (maxRowsPerSecond <= 0)
+            return;
+
+        final long ahead = (long) (deleted * 1000 / maxRowsPerSecond) - (System.currentTimeMillis() - started);
+
+        if (ahead > 0) {
+            try {
+                Thread.sleep(ahead);
+            } catch (InterruptedException e) {
+                logger.log(Level.WARNING, "OldJobRemover interrupted while throttling", e);
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gzip compressed TSV file with the QUEUE rows removed by one run, one header line with the column names followed by one line per row
+     */
+    private static final class JobArchive implements AutoCloseable {
+        private final Writer writer;
+
+        private boolean header = false;
+
+        JobArchive(String directory) throws IOException {
+            final File file = new File(directory, "OldJobRemover-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".tsv.gz");
+            writer = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file), 64 * 1024, true), StandardCharsets.UTF_8));
+            logger.log(Level.INFO, "OldJobRemover archiving the deleted jobs to " + file.getAbsolutePath());
+        }
+
+        /**
+         * @return number of rows written, or -1 if the query failed
+         */
+        long write(DBFunctions db, String query) throws IOException {
+            if (!db.query(query))
+                return -1;
+
+            final String[] columns = db.getColumnNames();
+
+            if (!header) {
+                writer.write(String.join("\t", columns));
+                writer.write('\n');
+                header = true;
+            }
+
+            long rows = 0;
+            while (db.moveNext()) {
+                for (int i = 1; i <= columns.length; i++) {
+                    if (i > 1)
+                        writer.write('\t');
+
+                    writer.write(escape(db.gets(i)));
+                }
+
+                writer.write('\n');
+                rows++;
+            }
+
+            return rows;
+        }
+
+        private static String escape(String value) {
+            if (value == null)
+                return "\\N";
+
+            return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+        }
+
+        /**
+         * Push everything written so far to the file, before the rows are deleted
+         */
+        void flush() throws IOException {
+            writer.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
     private static Set<Long> getOldJobs(DBFunctions db, String query) {
         Set<Long> oldJobs = new HashSet<>();
         boolean result = db.query(query);
@@ -6,12 +6,16 @@ import alien.monitoring.MonitorFactory;
 import alien.monitoring.Timing;
 import alien.optimizers.DBSyncUtils;
 import alien.optimizers.Optimizer;
+import alien.optimizers.OptimizerScheduler;
 import alien.optimizers.priority.PriorityRapidUpdater;
 import alien.taskQueue.JobStatus;
 import alien.taskQueue.TaskQueueUtils;
 import lazyj.DBFunctions;
 
 import java.time.Duration;
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -25,35 +29,64 @@ public class OverwaitingJobHandler extends Optimizer {
 
 	static final Monitor monitor = MonitorFactory.getMonitor(PriorityRapidUpdater.class.getCanonicalName());
 
+	/**
+	 * Default <code>expires</code> of a job, in seconds
+	 */
+	private static final long DEFAULT_EXPIRES = 3600 * 24 * 7;
+
+	private static final String DEADLINE = "UNIX_TIMESTAMP(mtime) + COALESCE(expires, " + DEFAULT_EXPIRES + ")";
+
+	/**
+	 * Deadlines of the WAITING jobs, <code>null</code> unless this server won the last resync election
+	 */
+	private static DeadlineHeap deadlines = null;
+
+	/**
+	 * Set when this server won the resync election, the next run rebuilds the heap holding a heavy permit
+	 */
+	private static boolean rebuildClaimed = false;
+
+	/**
+	 * Highest queueId loaded in the heap, newer WAITING jobs are picked up by a primary key range scan
+	 */
+	private static long lastQueueId = 0;
+
+	private static long lastResync = 0;
+
 	@Override
 	public void run() {
 		this.setSleepPeriod(Duration.ofHours(6).toMillis());
-		int frequency = (int) this.getSleepPeriod();
 
-		while (true) {
-			try {
-				if (DBSyncUtils.updatePeriodic(frequency, OverwaitingJobHandler.class.getCanonicalName(), this)) {
-					startCron();
-				}
+		// only the scans of QUEUE are heavy, and in the deadline queue mode only the rebuild that follows a won resync election scans it
+		final BooleanSupplier heavy = () -> !isDeadlineQueue() || isRebuildClaimed();
+
+		OptimizerScheduler.run(OverwaitingJobHandler.class.getCanonicalName(), this::getSleepPeriod, OptimizerScheduler.Mode.FIXED_DELAY, heavy, () -> {
+			if (isDeadlineQueue()) {
+				final long tick = Math.max(1000, ConfigUtils.getConfig().getl("alien.optimizers.sync.OverwaitingJobHandler.tickInterval", 60 * 1000));
+
+				if (isRebuildClaimed())
+					expireDueJobs(true);
+				else if (isResyncDue())
+					claimResync();
+				else
+					expireDueJobs(false);
+
+				// after the election, which can feed back a different period from the database
+				this.setSleepPeriod(tick);
 			}
-			catch (Exception e) {
-				try {
-					logger.log(Level.SEVERE, "Exception executing optimizer", e);
-					DBSyncUtils.registerException(OverwaitingJobHandler.class.getCanonicalName(), e);
-				}
-				catch (Exception e2) {
-					logger.log(Level.SEVERE, "Cannot register exception in the database", e2);
+			else {
+				this.setSleepPeriod(Duration.ofHours(6).toMillis());
+
+				synchronized (OverwaitingJobHandler.class) {
+					deadlines = null;
+					rebuildClaimed = false;
 				}
-			}
 
-			try {
-				logger.log(Level.INFO, "OverwaitingJobHandler sleeping for " + this.getSleepPeriod() + " ms");
-				sleep(this.getSleepPeriod());
-			}
-			catch (InterruptedException e) {
-				logger.log(Level.SEVERE, "OverwaitingJobHandler interrupted", e);
+				if (DBSyncUtils.updatePeriodic((int) this.getSleepPeriod(), OverwaitingJobHandler.class.getCanonicalName(), this)) {
+					startCron();
+				}
 			}
-		}
+		});
 	}
 
 	private static void startCron() {
@@ -78,6 +111,286 @@ public class OverwaitingJobHandler extends Optimizer {
 		}
 	}
 
+	private static long getResyncInterval() {
+		return Math.max(60, ConfigUtils.getConfig().getl("alien.optimizers.sync.OverwaitingJobHandler.resyncInterval", 6 * 3600)) * 1000;
+	}
+
+	/**
+	 * @return <code>true</code> if this server has no heap or its heap is older than <code>resyncInterval</code>
+	 */
+	private static synchronized boolean isResyncDue() {
+		return deadlines == null || System.currentTimeMillis() - lastResync > getResyncInterval();
+	}
+
+	private static synchronized boolean isRebuildClaimed() {
+		return rebuildClaimed;
+	}
+
+	/**
+	 * Ask to be the server that follows the deadlines for the next <code>resyncInterval</code>. The winner rebuilds its heap on the next run, the others drop
+	 * theirs so that a single server scans QUEUE and expires the jobs.
+	 */
+	private void claimResync() {
+		final boolean won = DBSyncUtils.updatePeriodic((int) getResyncInterval(), OverwaitingJobHandler.class.getCanonicalName(), this);
+
+		synchronized (OverwaitingJobHandler.class) {
+			if (won)
+				rebuildClaimed = true;
+			else
+				deadlines = null;
+		}
+	}
+
+	private static boolean isDeadlineQueue() {
+		return ConfigUtils.getConfig().getb("alien.optimizers.sync.OverwaitingJobHandler.deadlineQueue", false);
+	}
+
+	/**
+	 * Add a job that (re)entered WAITING on this server, so that a resubmitted job does not have to wait for the next resync to be followed
+	 *
+	 * @param queueId
+	 * @param deadline epoch seconds after which the job is over waiting, <code>mtime + COALESCE(expires, 7 days)</code>
+	 */
+	public static synchronized void onWaiting(final long queueId, final long deadline) {
+		if (deadlines != null)
+			deadlines.push(deadline, queueId);
+	}
+
+	/**
+	 * Expire the WAITING jobs whose deadline passed. The deadlines are computed once per job and kept in a heap by the server that won the resync election,
+	 * rebuilt from QUEUE every <code>resyncInterval</code>; in between, jobs inserted since the last run are loaded by queueId range. Only the due jobs are
+	 * popped, a bounded batch at a time, and checked again by primary key before being moved.
+	 *
+	 * @param rebuild <code>true</code> to rebuild the heap first, after winning the resync election
+	 */
+	private static void expireDueJobs(final boolean rebuild) {
+		try (DBFunctions db = TaskQueueUtils.getQueueDB(); Timing t = new Timing(monitor, "OverwaitingJobHandler deadlines")) {
+			if (db == null) {
+				logger.log(Level.SEVERE, "OverwaitingJobHandler could not get a DB connection");
+				return;
+			}
+
+			db.setQueryTimeout(60);
+
+			synchronized (OverwaitingJobHandler.class) {
+				if (rebuild) {
+					// a failed rebuild stays claimed and is retried on the next run
+					if (!rebuild(db))
+						return;
+
+					rebuildClaimed = false;
+				}
+				else if (deadlines != null)
+					loadNewJobs(db);
+				else
+					return;
+			}
+
+			final int batchSize = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.sync.OverwaitingJobHandler.batchSize", 1000));
+			final int maxBatches = Math.max(1, ConfigUtils.getConfig().geti("alien.optimizers.sync.OverwaitingJobHandler.maxBatches", 10));
+
+			final StringBuilder registerlog = new StringBuilder();
+
+			int expired = 0;
+			int postponed = 0;
+
+			for (int batch = 0; batch < maxBatches; batch++) {
+				final long now = System.currentTimeMillis() / 1000;
+				final long[] due;
+
+				synchronized (OverwaitingJobHandler.class) {
+					due = deadlines.popDue(now, batchSize);
+				}
+
+				if (due.length == 0)
+					break;
+
+				final String ids = Arrays.stream(due).mapToObj(String::valueOf).collect(Collectors.joining(","));
+
+				// mtime can have moved since the deadline was computed, recompute it for the jobs that are still waiting
+				if (!db.query("SELECT queueId, " + DEADLINE + " FROM QUEUE WHERE queueId IN (" + ids + ") AND statusId = " + JobStatus.WAITING.getAliEnLevel())) {
+					logger.log(Level.WARNING, "OverwaitingJobHandler could not check " + due.length + " due jobs, they are retried on the next run");
+
+					synchronized (OverwaitingJobHandler.class) {
+						for (final long queueId : due)
+							deadlines.push(now, queueId);
+					}
+
+					break;
+				}
+
+				final StringBuilder expiredIds = new StringBuilder();
+				int count = 0;
+
+				synchronized (OverwaitingJobHandler.class) {
+					while (db.moveNext()) {
+						final long deadline = db.getl(2);
+
+						if (deadline > now) {
+							deadlines.push(deadline, db.getl(1));
+							postponed++;
+							continue;
+						}
+
+						if (count++ > 0)
+							expiredIds.append(',');
+
+						expiredIds.append(db.getl(1));
+					}
+				}
+
+				if (count > 0) {
+					TaskQueueUtils.moveState(db, "SELECT queueId, statusId FROM QUEUE WHERE queueId IN (" + expiredIds + ") AND statusId = " + JobStatus.WAITING.getAliEnLevel()
+							+ " AND " + DEADLINE + " <= UNIX_TIMESTAMP()", JobStatus.ERROR_EW, registerlog);
+					expired += count;
+				}
+
+				if (due.length < batchSize)
+					break;
+			}
+
+			t.endTiming();
+
+			synchronized (OverwaitingJobHandler.class) {
+				monitor.addMeasurement("OverwaitingJobHandler tracked jobs", deadlines.size());
+			}
+			monitor.addMeasurement("OverwaitingJobHandler expired jobs", expired);
+
+			if (expired > 0) {
+				logger.log(Level.INFO, "OverwaitingJobHandler expired " + expired + " jobs, postponed " + postponed + ", in " + t.getMillis() + " ms");
+				registerlog.append("OverwaitingJobHandler expired ")
+						.append(expired)
+						.append(" jobs in ")
+						.append(t.getMillis())
+						.append(" ms\n");
+				DBSyncUtils.registerLog(OverwaitingJobHandler.class.getCanonicalName(), registerlog.toString());
+			}
+		}
+	}
+
+	/**
+	 * Load the deadlines of all WAITING jobs into a new heap
+	 */
+	private static boolean rebuild(final DBFunctions db) {
+		try (Timing t = new Timing(monitor, "OverwaitingJobHandler resync")) {
+			if (!db.query("SELECT queueId, " + DEADLINE + " FROM QUEUE WHERE statusId = " + JobStatus.WAITING.getAliEnLevel())) {
+				logger.log(Level.WARNING, "OverwaitingJobHandler could not load the WAITING jobs, retrying on the next run");
+				return false;
+			}
+
+			final DeadlineHeap heap = new DeadlineHeap(deadlines != null ? deadlines.size() : 1024);
+			long maxQueueId = 0;
+
+			while (db.moveNext()) {
+				final long queueId = db.getl(1);
+				heap.push(db.getl(2), queueId);
+				maxQueueId = Math.max(maxQueueId, queueId);
+			}
+
+			deadlines = heap;
+			lastQueueId = Math.max(lastQueueId, maxQueueId);
+			lastResync = System.currentTimeMillis();
+
+			t.endTiming();
+			logger.log(Level.INFO, "OverwaitingJobHandler loaded the deadlines of " + heap.size() + " WAITING jobs in " + t.getMillis() + " ms");
+			return true;
+		}
+	}
+
+	/**
+	 * Add the WAITING jobs inserted since the last run
+	 */
+	private static void loadNewJobs(final DBFunctions db) {
+		if (!db.query("SELECT queueId, " + DEADLINE + " FROM QUEUE WHERE queueId > ? AND statusId = " + JobStatus.WAITING.getAliEnLevel(), false,
+				Long.valueOf(lastQueueId)))
+			return;
+
+		while (db.moveNext()) {
+			final long queueId = db.getl(1);
+			deadlines.push(db.getl(2), queueId);
+			lastQueueId = Math.max(lastQueueId, queueId);
+		}
+	}
+
+	/**
+	 * Binary min-heap of (deadline, queueId) pairs in two primitive arrays
+	 */
+	private static final class DeadlineHeap {
+		private long[] deadline;
+		private long[] queueId;
+		private int size = 0;
+
+		DeadlineHeap(final int capacity) {
+			deadline = new long[Math.max(16, capacity)];
+			queueId = new long[deadline.length];
+		}
+
+		int size() {
+			return size;
+		}
+
+		void push(final long d, final long id) {
+			if (size == deadline.length) {
+				deadline = Arrays.copyOf(deadline, size * 2);
+				queueId = Arrays.copyOf(queueId, size * 2);
+			}
+
+			int i = size++;
+			while (i > 0) {
+				final int parent = (i - 1) >>> 1;
+
+				if (deadline[parent] <= d)
+					break;
+
+				deadline[i] = deadline[parent];
+				queueId[i] = queueId[parent];
+				i = parent;
+			}
+
+			deadline[i] = d;
+			queueId[i] = id;
+		}
+
+		/**
+		 * @return the queueIds of at most <code>max</code> entries with a deadline not after <code>now</code>, removed from the heap
+		 */
+		long[] popDue(final long now, final int max) {
+			int n = 0;
+			long[] due = new long[Math.min(max, size)];
+
+			while (n < due.length && deadline[0] <= now) {
+				due[n++] = queueId[0];
+
+				size--;
+				final long d = deadline[size];
+				final long id = queueId[size];
+
+				int i = 0;
+				while (true) {
+					int child = 2 * i + 1;
+
+					if (child >= size)
+						break;
+
+					if (child + 1 < size && deadline[child + 1] < deadline[child])
+						child++;
+
+					if (deadline[child] >= d)
+						break;
+
+					deadline[i] = deadline[child];
+					queueId[i] = queueId[child];
+					i = child;
+				}
+
+				deadline[i] = d;
+				queueId[i] = id;
+			}
+
+			return n == due.length ? due : Arrays.copyOf(due, n);
+		}
+	}
+
 	private static String getQuery() {
 		return "SELECT queueId, statusId \n" +
 				"FROM QUEUE \n" +